@@ -5,4 +5,12 @@ public class NotFoundException extends RuntimeException {
 	public NotFoundException(String message) {
 		super(message);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * a lookup miss is an expected outcome mapped to 404, it has no stack trace
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
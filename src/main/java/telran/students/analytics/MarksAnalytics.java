@@ -0,0 +1,429 @@
+package telran.students.analytics;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.dto.StudentAvgScore;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.StudentDoc;
+
+/**
+ * Optional in-memory analytics over all marks kept in {@link MarksColumns}.
+ * The queries are evaluated by parallel scans of student chunks on the
+ * fork-join common pool. Being enabled (app.analytics.enabled) it is loaded at
+ * startup from the snapshot file written at the previous shutdown or from
+ * Mongo, and then kept up to date by the service write paths. The snapshot is
+ * deleted once it has been loaded, so after a crash the marks are reloaded
+ * from Mongo. The snapshot header keeps a fingerprint of the marks: the amount
+ * of the students having marks, the amount of the marks and their score sum.
+ * It is compared with the one of the marks summaries in Mongo, and the marks
+ * are reloaded from Mongo if they have been changed while the application was
+ * down, e.g. by another instance or a restore
+ */
+@Component
+@Slf4j
+public class MarksAnalytics {
+	static final int MAGIC = 0x4d41524b;
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 5 * Integer.BYTES + 3 * Long.BYTES;
+	static final int MIN_CHUNK_STUDENTS = 4096;
+	static final int MIN_COMPACTION_MARKS = 1 << 16;
+	static final double COMPACTION_SHARE = 0.25;
+	final MongoTemplate mongoTemplate;
+	@Getter
+	final boolean enabled;
+	final boolean bucketStorage;
+	final Path snapshotFile;
+	final MarksColumns columns = new MarksColumns();
+	final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	record Fingerprint(long nStudents, long nMarks, long scoreSum) {
+	}
+
+	record AvgScore(long id, long sum, int count) {
+		double avg() {
+			return (double) sum / count;
+		}
+	}
+
+	public MarksAnalytics(MongoTemplate mongoTemplate, @Value("${app.analytics.enabled:false}") boolean enabled,
+			@Value("#{'${app.marks.storage:embedded}' == 'bucket'}") boolean bucketStorage,
+			@Value("${app.analytics.snapshot-file:marks-analytics.snapshot}") Path snapshotFile) {
+		this.mongoTemplate = mongoTemplate;
+		this.enabled = enabled;
+		this.bucketStorage = bucketStorage;
+		this.snapshotFile = snapshotFile;
+	}
+
+	@PostConstruct
+	void load() throws IOException {
+		if (enabled) {
+			boolean loaded = false;
+			if (Files.exists(snapshotFile)) {
+				loaded = readSnapshot();
+				Files.delete(snapshotFile);
+			}
+			if (loaded) {
+				log.info("marks analytics has been loaded from {}: {} students, {} marks", snapshotFile,
+						columns.getStudentsCount(), columns.getMarksCount());
+			} else {
+				loadFromMongo();
+				log.info("marks analytics has been loaded from Mongo: {} students, {} marks",
+						columns.getStudentsCount(), columns.getMarksCount());
+			}
+		}
+	}
+
+	@PreDestroy
+	void save() throws IOException {
+		if (enabled) {
+			writeSnapshot();
+			log.info("marks analytics snapshot has been written to {}", snapshotFile);
+		}
+	}
+
+	void loadFromMongo() {
+		Query query = new Query();
+		if (bucketStorage) {
+			query.fields().include("studentId", "marks");
+			try (Stream<MarksBucketDoc> docs = mongoTemplate.stream(query, MarksBucketDoc.class)) {
+				docs.forEach(doc -> columns.add(doc.getStudentId(), doc.getMarks()));
+			}
+		} else {
+			query.fields().include("id", "marks");
+			try (Stream<StudentDoc> docs = mongoTemplate.stream(query, StudentDoc.class)) {
+				docs.forEach(doc -> columns.add(doc.getId(), doc.getMarks()));
+			}
+		}
+		columns.compact();
+	}
+
+	public void addMarks(long id, Collection<Mark> marks) {
+		if (enabled) {
+			write(() -> columns.add(id, marks));
+		}
+	}
+
+	public void updateMark(long id, Mark oldMark, Mark newMark) {
+		if (enabled) {
+			write(() -> {
+				if (columns.remove(id, oldMark, true) > 0) {
+					columns.add(id, List.of(newMark));
+				}
+			});
+		}
+	}
+
+	/**
+	 * removes one mark of a given student equal to a given mark
+	 */
+	public void removeMark(long id, Mark mark) {
+		if (enabled) {
+			write(() -> columns.remove(id, mark, true));
+		}
+	}
+
+	public void removeStudent(long id) {
+		if (enabled) {
+			write(() -> columns.removeStudent(id));
+		}
+	}
+
+	/**
+	 * 
+	 * @param avgThreshold
+	 * @return students having average score greater than a given threshold in the
+	 *         descending order of the average score
+	 */
+	public List<StudentAvgScore> getStudentsAvgScoreGreater(int avgThreshold) {
+		return read(() -> scan(student -> {
+			long sum = 0;
+			int count = 0;
+			PrimitiveIterator.OfInt positions = columns.positions(student);
+			while (positions.hasNext()) {
+				sum += columns.score(positions.nextInt());
+				count++;
+			}
+			return count > 0 && (double) sum / count > avgThreshold
+					? new AvgScore(columns.studentId(student), sum, count)
+					: null;
+		})).stream().sorted(Comparator.comparingDouble(AvgScore::avg).reversed().thenComparingLong(AvgScore::id))
+				.map(avg -> new StudentAvgScore(avg.id(), (int) avg.avg())).toList();
+	}
+
+	/**
+	 * 
+	 * @param nStudents
+	 * @return ids of the students having most scores greater than
+	 *         {@link StudentDoc#GOOD_SCORE}, ordered by id for equal amounts
+	 */
+	public List<Long> getBestStudents(int nStudents) {
+		return read(() -> scan(student -> {
+			int good = 0;
+			PrimitiveIterator.OfInt positions = columns.positions(student);
+			while (positions.hasNext()) {
+				if (columns.score(positions.nextInt()) > StudentDoc.GOOD_SCORE) {
+					good++;
+				}
+			}
+			return good > 0 ? new long[] { columns.studentId(student), good } : null;
+		})).stream()
+				.sorted(Comparator.<long[]>comparingLong(idGood -> -idGood[1]).thenComparingLong(idGood -> idGood[0]))
+				.limit(nStudents).map(idGood -> idGood[0]).toList();
+	}
+
+	/**
+	 * 
+	 * @return ids of the students having a mark of a given month in the ascending
+	 *         order
+	 */
+	public List<Long> getStudentsMarksMonthYear(int month, int year) {
+		LocalDate start = LocalDate.of(year, month, 1);
+		int from = MarksColumns.epochDay(start);
+		int to = MarksColumns.epochDay(start.with(TemporalAdjusters.lastDayOfMonth()));
+		return sortedIds(read(() -> scan(student -> {
+			PrimitiveIterator.OfInt positions = columns.positions(student);
+			boolean found = false;
+			while (!found && positions.hasNext()) {
+				int day = columns.day(positions.nextInt());
+				found = day >= from && day <= to;
+			}
+			return found ? columns.studentId(student) : null;
+		})));
+	}
+
+	/**
+	 * 
+	 * @return ids of the students having a mark of a given subject and all marks
+	 *         greater than a given threshold in the ascending order
+	 */
+	public List<Long> getStudentsAllGoodMarksSubject(String subject, int thresholdScore) {
+		return sortedIds(read(() -> {
+			int subjectId = columns.findSubjectId(subject);
+			return subjectId == MarksColumns.NONE ? List.of() : scan(student -> {
+				PrimitiveIterator.OfInt positions = columns.positions(student);
+				boolean hasSubject = false;
+				boolean allGood = positions.hasNext();
+				while (allGood && positions.hasNext()) {
+					int position = positions.nextInt();
+					allGood = columns.score(position) > thresholdScore;
+					hasSubject |= columns.subject(position) == subjectId;
+				}
+				return allGood && hasSubject ? columns.studentId(student) : null;
+			});
+		}));
+	}
+
+	private List<Long> sortedIds(List<Long> ids) {
+		return ids.stream().sorted().toList();
+	}
+
+	/**
+	 * scans not removed students in parallel chunks
+	 * 
+	 * @param scanner function of the dense index of a student returning null for
+	 *                the students to be skipped
+	 * @return not null results of the scanner
+	 */
+	private <T> List<T> scan(IntFunction<T> scanner) {
+		int nStudents = columns.getStudentsCount();
+		int nChunks = Math.max(1,
+				Math.min(nStudents / MIN_CHUNK_STUDENTS, ForkJoinPool.getCommonPoolParallelism() * 4));
+		return IntStream.range(0, nChunks).parallel().mapToObj(chunk -> {
+			List<T> res = new ArrayList<>();
+			int to = (int) ((long) (chunk + 1) * nStudents / nChunks);
+			for (int student = (int) ((long) chunk * nStudents / nChunks); student < to; student++) {
+				if (!columns.isRemoved(student)) {
+					T value = scanner.apply(student);
+					if (value != null) {
+						res.add(value);
+					}
+				}
+			}
+			return res;
+		}).flatMap(List::stream).toList();
+	}
+
+	private <T> T read(Supplier<T> query) {
+		lock.readLock().lock();
+		try {
+			return query.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void write(Runnable update) {
+		lock.writeLock().lock();
+		try {
+			update.run();
+			if (columns.needsCompaction(COMPACTION_SHARE, MIN_COMPACTION_MARKS)) {
+				columns.compact();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * writes the compacted columns into a memory-mapped file: header (magic,
+	 * version, students, marks, subjects), subject names, student ids, offsets,
+	 * subject ids, epoch days and scores
+	 */
+	/**
+	 * 
+	 * @return fingerprint of the marks by the summary fields of the students
+	 */
+	Fingerprint mongoFingerprint() {
+		Document hasMarks = new Document("$cond",
+				List.of(new Document("$gt", List.of("$marksCount", 0)), 1, 0));
+		Document group = new Document("$group", new Document("_id", null)
+				.append("nStudents", new Document("$sum", hasMarks))
+				.append("nMarks", new Document("$sum", "$marksCount"))
+				.append("scoreSum", new Document("$sum", "$scoreSum")));
+		Document res = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.aggregate(List.of(group)).first();
+		return res == null ? new Fingerprint(0, 0, 0)
+				: new Fingerprint(getLong(res, "nStudents"), getLong(res, "nMarks"), getLong(res, "scoreSum"));
+	}
+
+	private static long getLong(Document document, String key) {
+		return ((Number) document.get(key)).longValue();
+	}
+
+	/**
+	 * 
+	 * @return fingerprint of the compacted columns
+	 */
+	private Fingerprint columnsFingerprint() {
+		int nStudents = columns.getStudentsCount();
+		int nMarks = columns.getMarksCount();
+		long nStudentsWithMarks = IntStream.range(0, nStudents)
+				.filter(student -> columns.offsets[student + 1] > columns.offsets[student]).count();
+		long scoreSum = 0;
+		for (int i = 0; i < nMarks; i++) {
+			scoreSum += columns.scores[i];
+		}
+		return new Fingerprint(nStudentsWithMarks, nMarks, scoreSum);
+	}
+
+	void writeSnapshot() throws IOException {
+		lock.writeLock().lock();
+		try {
+			columns.compact();
+			int nStudents = columns.getStudentsCount();
+			int nMarks = columns.getMarksCount();
+			Fingerprint fingerprint = columnsFingerprint();
+			List<byte[]> names = columns.subjectNames.stream().map(name -> name.getBytes(StandardCharsets.UTF_8))
+					.toList();
+			long size = HEADER_SIZE + names.stream().mapToLong(name -> Short.BYTES + name.length).sum()
+					+ (long) Long.BYTES * nStudents + (long) Integer.BYTES * (nStudents + 1)
+					+ (long) (Short.BYTES + Integer.BYTES + Byte.BYTES) * nMarks;
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalStateException("marks analytics snapshot exceeds 2GB");
+			}
+			Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+			try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(nStudents).putInt(nMarks).putInt(names.size());
+				buffer.putLong(fingerprint.nStudents()).putLong(fingerprint.nMarks()).putLong(fingerprint.scoreSum());
+				names.forEach(name -> buffer.putShort((short) name.length).put(name));
+				buffer.asLongBuffer().put(columns.studentIds, 0, nStudents);
+				buffer.position(buffer.position() + Long.BYTES * nStudents);
+				buffer.asIntBuffer().put(columns.offsets, 0, nStudents + 1);
+				buffer.position(buffer.position() + Integer.BYTES * (nStudents + 1));
+				buffer.asShortBuffer().put(columns.subjects, 0, nMarks);
+				buffer.position(buffer.position() + Short.BYTES * nMarks);
+				buffer.asIntBuffer().put(columns.days, 0, nMarks);
+				buffer.position(buffer.position() + Integer.BYTES * nMarks);
+				buffer.put(columns.scores, 0, nMarks);
+				buffer.force();
+			}
+			Files.move(tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if the snapshot has been loaded, false if it is of another
+	 *         version or its fingerprint differs from the one of Mongo
+	 */
+	boolean readSnapshot() throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (channel.size() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				log.warn("marks analytics snapshot {} is of another format, it isn't loaded", snapshotFile);
+				return false;
+			}
+			int nStudents = buffer.getInt();
+			int nMarks = buffer.getInt();
+			int nSubjects = buffer.getInt();
+			Fingerprint fingerprint = new Fingerprint(buffer.getLong(), buffer.getLong(), buffer.getLong());
+			Fingerprint mongoFingerprint = mongoFingerprint();
+			if (!fingerprint.equals(mongoFingerprint)) {
+				log.warn("marks have been changed since marks analytics snapshot {}: {}, Mongo: {}", snapshotFile,
+						fingerprint, mongoFingerprint);
+				return false;
+			}
+			List<String> names = new ArrayList<>(nSubjects);
+			for (int i = 0; i < nSubjects; i++) {
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				names.add(new String(name, StandardCharsets.UTF_8));
+			}
+			long[] studentIds = new long[Math.max(nStudents, MarksColumns.INITIAL_CAPACITY)];
+			buffer.asLongBuffer().get(studentIds, 0, nStudents);
+			buffer.position(buffer.position() + Long.BYTES * nStudents);
+			int[] offsets = new int[nStudents + 1];
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + Integer.BYTES * (nStudents + 1));
+			short[] subjects = new short[nMarks];
+			buffer.asShortBuffer().get(subjects);
+			buffer.position(buffer.position() + Short.BYTES * nMarks);
+			int[] days = new int[nMarks];
+			buffer.asIntBuffer().get(days);
+			buffer.position(buffer.position() + Integer.BYTES * nMarks);
+			byte[] scores = new byte[nMarks];
+			buffer.get(scores);
+			lock.writeLock().lock();
+			try {
+				columns.setSubjects(names);
+				columns.setCompacted(studentIds, nStudents, offsets, subjects, days, scores);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,289 @@
+package telran.students.analytics;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+import telran.students.dto.Mark;
+
+/**
+ * Columnar storage of all marks. The compacted part keeps the marks ordered by
+ * student: marks of the student with dense index s are at [offsets[s],
+ * offsets[s + 1]). Marks added after the compaction are appended to the tail
+ * and chained per student. Removed marks are flagged until the next
+ * compaction. Scores are within 0..127, subjects are interned to short ids. Not
+ * thread-safe
+ */
+class MarksColumns {
+	static final int INITIAL_CAPACITY = 1024;
+	static final int NONE = -1;
+	// students
+	final Map<Long, Integer> studentIndexes = new HashMap<>();
+	long[] studentIds = new long[INITIAL_CAPACITY];
+	int nStudents;
+	BitSet removedStudents = new BitSet();
+	// subjects
+	final Map<String, Short> subjectIds = new HashMap<>();
+	final List<String> subjectNames = new ArrayList<>();
+	// compacted marks
+	int[] offsets = { 0 };
+	short[] subjects = new short[0];
+	int[] days = new int[0];
+	byte[] scores = new byte[0];
+	int nMarks;
+	// tail marks
+	int[] tailHeads = new int[INITIAL_CAPACITY];
+	int[] tailNext = new int[INITIAL_CAPACITY];
+	short[] tailSubjects = new short[INITIAL_CAPACITY];
+	int[] tailDays = new int[INITIAL_CAPACITY];
+	byte[] tailScores = new byte[INITIAL_CAPACITY];
+	int nTail;
+	// positions of the removed marks: compacted ones first, then tail ones
+	BitSet removedMarks = new BitSet();
+	int nRemovedMarks;
+
+	MarksColumns() {
+		Arrays.fill(tailHeads, NONE);
+	}
+
+	int getStudentsCount() {
+		return nStudents;
+	}
+
+	int getMarksCount() {
+		return nMarks + nTail - nRemovedMarks;
+	}
+
+	/**
+	 * 
+	 * @return true if the tail and the removed marks take more than a given share
+	 *         of the compacted marks
+	 */
+	boolean needsCompaction(double share, int minMarks) {
+		int garbage = nTail + nRemovedMarks;
+		return garbage > minMarks && garbage > nMarks * share;
+	}
+
+	void add(long id, Collection<Mark> marks) {
+		int student = studentIndexes.computeIfAbsent(id, this::addStudent);
+		for (Mark mark : marks) {
+			ensureTailCapacity();
+			tailSubjects[nTail] = subjectId(mark.subject());
+			tailDays[nTail] = (int) mark.date().toEpochDay();
+			tailScores[nTail] = (byte) mark.score();
+			tailNext[nTail] = tailHeads[student];
+			tailHeads[student] = nTail++;
+		}
+	}
+
+	/**
+	 * removes marks of a given student equal to a given mark
+	 * 
+	 * @param firstOnly removes only the first equal mark
+	 * @return amount of removed marks
+	 */
+	int remove(long id, Mark mark, boolean firstOnly) {
+		Integer student = studentIndexes.get(id);
+		Short subject = subjectIds.get(mark.subject());
+		int res = 0;
+		if (student != null && subject != null) {
+			int day = (int) mark.date().toEpochDay();
+			byte score = (byte) mark.score();
+			PrimitiveIterator.OfInt positions = positions(student);
+			while (positions.hasNext() && (res == 0 || !firstOnly)) {
+				int position = positions.nextInt();
+				if (subject(position) == subject && day(position) == day && score(position) == score) {
+					removedMarks.set(position);
+					nRemovedMarks++;
+					res++;
+				}
+			}
+		}
+		return res;
+	}
+
+	void removeStudent(long id) {
+		Integer student = studentIndexes.remove(id);
+		if (student != null) {
+			forEachPosition(student, position -> {
+				removedMarks.set(position);
+				nRemovedMarks++;
+			});
+			removedStudents.set(student);
+		}
+	}
+
+	/**
+	 * 
+	 * @param student dense index
+	 * @return positions of the not removed marks of a given student
+	 */
+	PrimitiveIterator.OfInt positions(int student) {
+		return new PrimitiveIterator.OfInt() {
+			int compacted = student + 1 < offsets.length ? offsets[student] : 0;
+			final int compactedEnd = student + 1 < offsets.length ? offsets[student + 1] : 0;
+			int tail = tailHeads[student];
+			int next = advance();
+
+			private int advance() {
+				int res = NONE;
+				while (res == NONE && (compacted < compactedEnd || tail != NONE)) {
+					int position;
+					if (compacted < compactedEnd) {
+						position = compacted++;
+					} else {
+						position = nMarks + tail;
+						tail = tailNext[tail];
+					}
+					if (!removedMarks.get(position)) {
+						res = position;
+					}
+				}
+				return res;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != NONE;
+			}
+
+			@Override
+			public int nextInt() {
+				if (next == NONE) {
+					throw new NoSuchElementException();
+				}
+				int res = next;
+				next = advance();
+				return res;
+			}
+		};
+	}
+
+	void forEachPosition(int student, IntConsumer action) {
+		positions(student).forEachRemaining(action);
+	}
+
+	boolean isRemoved(int student) {
+		return removedStudents.get(student);
+	}
+
+	long studentId(int student) {
+		return studentIds[student];
+	}
+
+	short subject(int position) {
+		return position < nMarks ? subjects[position] : tailSubjects[position - nMarks];
+	}
+
+	int day(int position) {
+		return position < nMarks ? days[position] : tailDays[position - nMarks];
+	}
+
+	byte score(int position) {
+		return position < nMarks ? scores[position] : tailScores[position - nMarks];
+	}
+
+	/**
+	 * 
+	 * @return id of a given subject or NONE if it is unknown
+	 */
+	int findSubjectId(String subject) {
+		Short res = subjectIds.get(subject);
+		return res == null ? NONE : res;
+	}
+
+	static int epochDay(LocalDate date) {
+		return (int) date.toEpochDay();
+	}
+
+	/**
+	 * rebuilds the compacted part from all not removed marks of the not removed
+	 * students ordered by student
+	 */
+	void compact() {
+		int[] newOffsets = new int[nStudents - removedStudents.cardinality() + 1];
+		int nNewMarks = getMarksCount();
+		short[] newSubjects = new short[nNewMarks];
+		int[] newDays = new int[nNewMarks];
+		byte[] newScores = new byte[nNewMarks];
+		long[] newStudentIds = new long[Math.max(newOffsets.length, INITIAL_CAPACITY)];
+		int newStudent = 0;
+		int newPosition = 0;
+		for (int student = 0; student < nStudents; student++) {
+			if (!removedStudents.get(student)) {
+				PrimitiveIterator.OfInt positions = positions(student);
+				while (positions.hasNext()) {
+					int position = positions.nextInt();
+					newSubjects[newPosition] = subject(position);
+					newDays[newPosition] = day(position);
+					newScores[newPosition++] = score(position);
+				}
+				newStudentIds[newStudent] = studentIds[student];
+				newOffsets[++newStudent] = newPosition;
+			}
+		}
+		setCompacted(newStudentIds, newStudent, newOffsets, newSubjects, newDays, newScores);
+	}
+
+	/**
+	 * replaces the content with given compacted columns
+	 */
+	void setCompacted(long[] newStudentIds, int newStudentsCount, int[] newOffsets, short[] newSubjects,
+			int[] newDays, byte[] newScores) {
+		studentIds = newStudentIds;
+		nStudents = newStudentsCount;
+		offsets = newOffsets;
+		subjects = newSubjects;
+		days = newDays;
+		scores = newScores;
+		nMarks = newScores.length;
+		studentIndexes.clear();
+		for (int student = 0; student < nStudents; student++) {
+			studentIndexes.put(studentIds[student], student);
+		}
+		removedStudents = new BitSet();
+		removedMarks = new BitSet();
+		nRemovedMarks = 0;
+		tailHeads = new int[studentIds.length];
+		Arrays.fill(tailHeads, NONE);
+		nTail = 0;
+	}
+
+	void setSubjects(List<String> names) {
+		subjectIds.clear();
+		subjectNames.clear();
+		names.forEach(this::subjectId);
+	}
+
+	private int addStudent(long id) {
+		if (nStudents == studentIds.length) {
+			int capacity = studentIds.length * 2;
+			studentIds = Arrays.copyOf(studentIds, capacity);
+			int oldCapacity = tailHeads.length;
+			tailHeads = Arrays.copyOf(tailHeads, capacity);
+			Arrays.fill(tailHeads, oldCapacity, capacity, NONE);
+		}
+		studentIds[nStudents] = id;
+		return nStudents++;
+	}
+
+	private short subjectId(String subject) {
+		return subjectIds.computeIfAbsent(subject, s -> {
+			if (subjectNames.size() > Short.MAX_VALUE) {
+				throw new IllegalStateException("too many subjects");
+			}
+			subjectNames.add(s);
+			return (short) (subjectNames.size() - 1);
+		});
+	}
+
+	private void ensureTailCapacity() {
+		if (nTail == tailScores.length) {
+			int capacity = nTail * 2;
+			tailNext = Arrays.copyOf(tailNext, capacity);
+			tailSubjects = Arrays.copyOf(tailSubjects, capacity);
+			tailDays = Arrays.copyOf(tailDays, capacity);
+			tailScores = Arrays.copyOf(tailScores, capacity);
+		}
+	}
+}
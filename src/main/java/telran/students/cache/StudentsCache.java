@@ -0,0 +1,173 @@
+package telran.students.cache;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+
+/**
+ * Bounded read-through cache of students and their marks (W-TinyLFU eviction,
+ * expiration after write). Marks are weighed by their amount. Being disabled
+ * it just calls the loaders. Hit, miss and eviction counters are exposed as
+ * the cache.* meters tagged by cache name
+ */
+@Component
+@Slf4j
+public class StudentsCache implements MeterBinder {
+	@Getter
+	final boolean enabled;
+	final Cache<Long, Student> students;
+	final Cache<Long, List<Mark>> marks;
+	// bumped by each invalidation, so a bulk load racing with one doesn't keep its entries
+	final AtomicLong studentsInvalidations = new AtomicLong();
+	final AtomicLong marksInvalidations = new AtomicLong();
+
+	public StudentsCache(@Value("${app.cache.enabled:false}") boolean enabled,
+			@Value("${app.cache.students.maximum-size:100000}") long studentsMaximumSize,
+			@Value("${app.cache.marks.maximum-weight:1000000}") long marksMaximumWeight,
+			@Value("${app.cache.ttl:10m}") Duration ttl) {
+		this.enabled = enabled;
+		students = Caffeine.newBuilder().maximumSize(studentsMaximumSize).expireAfterWrite(ttl).recordStats().build();
+		marks = Caffeine.newBuilder().maximumWeight(marksMaximumWeight)
+				.weigher((Long id, List<Mark> studentMarks) -> studentMarks.size() + 1).expireAfterWrite(ttl)
+				.recordStats().build();
+		log.debug("cache enabled: {}, students maximum size: {}, marks maximum weight: {}, ttl: {}", enabled,
+				studentsMaximumSize, marksMaximumWeight, ttl);
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @param loader returns null for not existing student, null isn't cached
+	 * @return student
+	 */
+	public Student getStudent(long id, Function<Long, Student> loader) {
+		return enabled ? students.get(id, loader) : loader.apply(id);
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @param loader returns null for not existing student, null isn't cached
+	 * @return unmodifiable list of marks
+	 */
+	public List<Mark> getMarks(long id, Function<Long, List<Mark>> loader) {
+		return enabled ? marks.get(id, loader.andThen(res -> res == null ? null : List.copyOf(res)))
+				: loader.apply(id);
+	}
+
+	/**
+	 * 
+	 * @param ids
+	 * @param loader loads the missing students, not existing ones are absent in
+	 *               its result and aren't cached
+	 * @return found students
+	 */
+	public Map<Long, Student> getStudents(Collection<Long> ids,
+			Function<Set<? extends Long>, Map<Long, Student>> loader) {
+		return enabled ? getAll(students, studentsInvalidations, ids, loader) : loader.apply(new LinkedHashSet<>(ids));
+	}
+
+	/**
+	 * 
+	 * @param ids
+	 * @param loader loads the marks of the missing students, not existing ones are
+	 *               absent in its result and aren't cached
+	 * @return unmodifiable lists of marks of found students
+	 */
+	public Map<Long, List<Mark>> getMarks(Collection<Long> ids,
+			Function<Set<? extends Long>, Map<Long, List<Mark>>> loader) {
+		return enabled ? getAll(marks, marksInvalidations, ids, loader.andThen(res -> {
+			res.replaceAll((id, studentMarks) -> List.copyOf(studentMarks));
+			return res;
+		})) : loader.apply(new LinkedHashSet<>(ids));
+	}
+
+	/**
+	 * unlike Cache#getAll doesn't keep the loaded entries if any entry of the cache
+	 * has been invalidated during the load, as it might be one of them. An
+	 * invalidation first bumps the counter and then removes the entry, so it is
+	 * either seen by the check after putAll or removes the stored entry itself
+	 */
+	private <V> Map<Long, V> getAll(Cache<Long, V> cache, AtomicLong invalidations, Collection<Long> ids,
+			Function<Set<? extends Long>, Map<Long, V>> loader) {
+		Map<Long, V> res = new HashMap<>(cache.getAllPresent(ids));
+		Set<Long> missingIds = new LinkedHashSet<>(ids);
+		missingIds.removeAll(res.keySet());
+		if (!missingIds.isEmpty()) {
+			long invalidationsBefore = invalidations.get();
+			Map<Long, V> loaded = loader.apply(missingIds);
+			cache.putAll(loaded);
+			if (invalidations.get() != invalidationsBefore) {
+				cache.invalidateAll(loaded.keySet());
+			}
+			res.putAll(loaded);
+		}
+		return res;
+	}
+
+	public void invalidateStudent(long id) {
+		if (enabled) {
+			studentsInvalidations.incrementAndGet();
+			students.invalidate(id);
+		}
+	}
+
+	public void invalidateMarks(long id) {
+		if (enabled) {
+			marksInvalidations.incrementAndGet();
+			marks.invalidate(id);
+		}
+	}
+
+	public void invalidateMarks(Collection<Long> ids) {
+		if (enabled) {
+			marksInvalidations.incrementAndGet();
+			marks.invalidateAll(ids);
+		}
+	}
+
+	public void invalidate(long id) {
+		invalidateStudent(id);
+		invalidateMarks(id);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		if (enabled) {
+			CaffeineCacheMetrics.monitor(registry, students, "students");
+			CaffeineCacheMetrics.monitor(registry, marks, "marks");
+		}
+	}
+
+	/**
+	 * 
+	 * @return hit, miss and eviction counters of the students cache
+	 */
+	public CacheStats getStudentsStats() {
+		return students.stats();
+	}
+
+	/**
+	 * 
+	 * @return hit, miss and eviction counters of the marks cache
+	 */
+	public CacheStats getMarksStats() {
+		return marks.stats();
+	}
+}
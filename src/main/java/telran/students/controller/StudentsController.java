@@ -0,0 +1,342 @@
+package telran.students.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import lombok.RequiredArgsConstructor;
+import telran.students.dto.*;
+import telran.students.ingest.AckMode;
+import telran.students.ingest.MarksWriteBuffer;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.service.StudentsService;
+
+/**
+ * HTTP API of {@link StudentsService}. The list queries return a page when
+ * limit is given (afterId is the id of the last student of the previous page)
+ * and all students otherwise. The same queries under /students/stream are
+ * written as JSON lines while the database cursor is read
+ */
+@RestController
+@RequestMapping("students")
+@RequiredArgsConstructor
+public class StudentsController {
+	static final String NDJSON = MediaType.APPLICATION_NDJSON_VALUE;
+	final StudentsService studentsService;
+	final ObjectMapper objectMapper;
+	final MarksWriteBuffer marksWriteBuffer;
+
+	@PostMapping
+	Student addStudent(@RequestBody Student student) {
+		return studentsService.addStudent(student);
+	}
+
+	@PostMapping("batch")
+	List<Long> addStudents(@RequestBody List<Student> students) {
+		return studentsService.addStudents(students);
+	}
+
+	/**
+	 * 
+	 * @param ack acknowledgment mode of the write-behind buffer, ignored if the
+	 *            buffer is disabled
+	 */
+	@PostMapping("{id}/marks")
+	Mark addMark(@PathVariable long id, @RequestBody Mark mark,
+			@RequestParam(defaultValue = "WRITTEN") AckMode ack) {
+		return marksWriteBuffer.isEnabled() ? marksWriteBuffer.addMark(id, mark, ack)
+				: studentsService.addMark(id, mark);
+	}
+
+	@PostMapping(value = "marks", consumes = MediaType.APPLICATION_JSON_VALUE)
+	List<Long> addMarks(@RequestBody Map<Long, List<Mark>> marks) {
+		return studentsService.addMarks(marks);
+	}
+
+	@PostMapping(value = "marks", consumes = NDJSON)
+	List<Long> addMarks(InputStream body) throws IOException {
+		try (MappingIterator<StudentMark> it = objectMapper.readerFor(StudentMark.class).readValues(body);
+				Stream<StudentMark> marks = StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, 0), false)) {
+			return studentsService.addMarks(marks);
+		}
+	}
+
+	@PutMapping("{id}/phone")
+	Student updatePhoneNumber(@PathVariable long id, @RequestParam String phone) {
+		return studentsService.updatePhoneNumber(id, phone);
+	}
+
+	@PutMapping("{id}/marks")
+	Mark updateMark(@PathVariable long id, @RequestBody MarkUpdate markUpdate) {
+		return studentsService.updateMark(id, markUpdate.oldMark(), markUpdate.newMark());
+	}
+
+	@DeleteMapping("{id}/marks")
+	Mark removeMark(@PathVariable long id, @RequestParam String subject, @RequestParam int score,
+			@RequestParam @DateTimeFormat(iso = ISO.DATE) LocalDate date) {
+		return studentsService.removeMark(id, new Mark(subject, score, date));
+	}
+
+	@DeleteMapping("{id}")
+	Student removeStudent(@PathVariable long id) {
+		return studentsService.removeStudent(id);
+	}
+
+	@GetMapping("{id}")
+	Student getStudent(@PathVariable long id) {
+		return studentsService.getStudent(id);
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @param offset
+	 * @param limit
+	 * @param sortedByDate
+	 * @return all marks of a student in the order of adding or a slice of them in
+	 *         the order of adding or of dates
+	 */
+	@GetMapping("{id}/marks")
+	List<Mark> getMarks(@PathVariable long id, @RequestParam(defaultValue = "0") int offset,
+			@RequestParam(required = false) Integer limit, @RequestParam(defaultValue = "false") boolean sortedByDate) {
+		List<Mark> res;
+		if (sortedByDate) {
+			res = studentsService.getMarksSortedByDate(id, offset, limit == null ? Integer.MAX_VALUE : limit);
+		} else if (limit != null) {
+			res = studentsService.getMarks(id, offset, limit);
+		} else {
+			res = studentsService.getMarks(id);
+		}
+		return res;
+	}
+
+	@GetMapping("by-ids")
+	MultiGetResult<Student> getStudents(@RequestParam List<Long> ids) {
+		return studentsService.getStudents(ids);
+	}
+
+	@GetMapping("marks/by-ids")
+	MultiGetResult<List<Mark>> getMarks(@RequestParam List<Long> ids) {
+		return studentsService.getMarks(ids);
+	}
+
+	@GetMapping("{id}/marks/latest")
+	List<Mark> getLatestMarks(@PathVariable long id, @RequestParam int n) {
+		return studentsService.getLatestMarks(id, n);
+	}
+
+	@GetMapping("{id}/marks/subject/{subject}")
+	List<Mark> getStudentMarksSubject(@PathVariable long id, @PathVariable String subject) {
+		return studentsService.getStudentMarksSubject(id, subject);
+	}
+
+	@GetMapping("{id}/marks/dates")
+	List<Mark> getStudentMarksAtDates(@PathVariable long id,
+			@RequestParam @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+			@RequestParam @DateTimeFormat(iso = ISO.DATE) LocalDate to) {
+		return studentsService.getStudentMarksAtDates(id, from, to);
+	}
+
+	@GetMapping("{id}/rank")
+	int getRank(@PathVariable long id) {
+		return studentsService.getRank(id);
+	}
+
+	@GetMapping("phone/{phone}")
+	Student getStudentByPhoneNumber(@PathVariable String phone) {
+		Student res = studentsService.getStudentByPhoneNumber(phone);
+		if (res == null) {
+			throw new StudentNotFoundException();
+		}
+		return res;
+	}
+
+	@GetMapping("phone-prefix/{prefix}")
+	List<Student> getStudentsByPhonePrefix(@PathVariable String prefix,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsByPhonePrefix(prefix)
+				: studentsService.getStudentsByPhonePrefix(prefix, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/phone-prefix/{prefix}", produces = NDJSON)
+	StreamingResponseBody streamStudentsByPhonePrefix(@PathVariable String prefix) {
+		return ndjson(() -> studentsService.streamStudentsByPhonePrefix(prefix));
+	}
+
+	@GetMapping("marks-date/{date}")
+	List<Student> getStudentsMarksDate(@PathVariable @DateTimeFormat(iso = ISO.DATE) LocalDate date,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsMarksDate(date)
+				: studentsService.getStudentsMarksDate(date, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/marks-date/{date}", produces = NDJSON)
+	StreamingResponseBody streamStudentsMarksDate(@PathVariable @DateTimeFormat(iso = ISO.DATE) LocalDate date) {
+		return ndjson(() -> studentsService.streamStudentsMarksDate(date));
+	}
+
+	@GetMapping("marks-month-year")
+	List<Student> getStudentsMarksMonthYear(@RequestParam int month, @RequestParam int year,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsMarksMonthYear(month, year)
+				: studentsService.getStudentsMarksMonthYear(month, year, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/marks-month-year", produces = NDJSON)
+	StreamingResponseBody streamStudentsMarksMonthYear(@RequestParam int month, @RequestParam int year) {
+		return ndjson(() -> studentsService.streamStudentsMarksMonthYear(month, year));
+	}
+
+	@GetMapping("good-subject-mark")
+	List<Student> getStudentsGoodSubjectMark(@RequestParam String subject, @RequestParam int threshold,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsGoodSubjectMark(subject, threshold)
+				: studentsService.getStudentsGoodSubjectMark(subject, threshold, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/good-subject-mark", produces = NDJSON)
+	StreamingResponseBody streamStudentsGoodSubjectMark(@RequestParam String subject, @RequestParam int threshold) {
+		return ndjson(() -> studentsService.streamStudentsGoodSubjectMark(subject, threshold));
+	}
+
+	@GetMapping("all-good-marks")
+	List<Student> getStudentsAllGoodMarks(@RequestParam int threshold,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsAllGoodMarks(threshold)
+				: studentsService.getStudentsAllGoodMarks(threshold, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/all-good-marks", produces = NDJSON)
+	StreamingResponseBody streamStudentsAllGoodMarks(@RequestParam int threshold) {
+		return ndjson(() -> studentsService.streamStudentsAllGoodMarks(threshold));
+	}
+
+	@GetMapping("few-marks")
+	List<Student> getStudentsFewMarks(@RequestParam int n,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsFewMarks(n)
+				: studentsService.getStudentsFewMarks(n, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/few-marks", produces = NDJSON)
+	StreamingResponseBody streamStudentsFewMarks(@RequestParam int n) {
+		return ndjson(() -> studentsService.streamStudentsFewMarks(n));
+	}
+
+	@GetMapping("all-good-marks-subject")
+	List<Student> getStudentsAllGoodMarksSubject(@RequestParam String subject, @RequestParam int threshold,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsAllGoodMarksSubject(subject, threshold)
+				: studentsService.getStudentsAllGoodMarksSubject(subject, threshold, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/all-good-marks-subject", produces = NDJSON)
+	StreamingResponseBody streamStudentsAllGoodMarksSubject(@RequestParam String subject,
+			@RequestParam int threshold) {
+		return ndjson(() -> studentsService.streamStudentsAllGoodMarksSubject(subject, threshold));
+	}
+
+	@GetMapping("marks-amount")
+	List<Student> getStudentsMarksAmountBetween(@RequestParam int min, @RequestParam int max,
+			@RequestParam(defaultValue = Long.MIN_VALUE + "") long afterId,
+			@RequestParam(required = false) Integer limit) {
+		return limit == null ? studentsService.getStudentsMarksAmountBetween(min, max)
+				: studentsService.getStudentsMarksAmountBetween(min, max, afterId, limit);
+	}
+
+	@GetMapping(value = "stream/marks-amount", produces = NDJSON)
+	StreamingResponseBody streamStudentsMarksAmountBetween(@RequestParam int min, @RequestParam int max) {
+		return ndjson(() -> studentsService.streamStudentsMarksAmountBetween(min, max));
+	}
+
+	@GetMapping("avg-score-greater")
+	List<StudentAvgScore> getStudentsAvgScoreGreater(@RequestParam int threshold) {
+		return studentsService.getStudentsAvgScoreGreater(threshold);
+	}
+
+	@GetMapping(value = "stream/avg-score-greater", produces = NDJSON)
+	StreamingResponseBody streamStudentsAvgScoreGreater(@RequestParam int threshold) {
+		return ndjson(() -> studentsService.streamStudentsAvgScoreGreater(threshold));
+	}
+
+	@GetMapping("best")
+	List<Long> getBestStudents(@RequestParam int n) {
+		return studentsService.getBestStudents(n);
+	}
+
+	@GetMapping("worst")
+	List<Long> getWorstStudents(@RequestParam int n) {
+		return studentsService.getWorstStudents(n);
+	}
+
+	@GetMapping("marks-stats")
+	MarksStats getMarksStats(@RequestParam(required = false) String subject, @RequestParam int month,
+			@RequestParam int year) {
+		return subject == null ? studentsService.getMarksStats(month, year)
+				: studentsService.getSubjectMarksStats(subject, month, year);
+	}
+
+	@GetMapping("score-percentile")
+	Integer getScorePercentile(@RequestParam(required = false) String subject,
+			@RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth from,
+			@RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth to, @RequestParam double percentile) {
+		return studentsService.getScorePercentile(subject, from, to, percentile);
+	}
+
+	@GetMapping("score-histogram")
+	List<Long> getScoreHistogram(@RequestParam(required = false) String subject,
+			@RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth from,
+			@RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth to,
+			@RequestParam(defaultValue = "10") int bucketWidth) {
+		return studentsService.getScoreHistogram(subject, from, to, bucketWidth);
+	}
+
+	/**
+	 * 
+	 * @param streamSupplier
+	 * @return body writing the stream elements as JSON lines; the stream is opened
+	 *         and closed by the thread writing the response
+	 */
+	private StreamingResponseBody ndjson(Supplier<? extends Stream<?>> streamSupplier) {
+		ObjectWriter writer = objectMapper.writer();
+		return output -> {
+			try (Stream<?> stream = streamSupplier.get()) {
+				Iterator<?> it = stream.iterator();
+				while (it.hasNext()) {
+					writeLine(writer, it.next(), output);
+				}
+			}
+		};
+	}
+
+	private void writeLine(ObjectWriter writer, Object value, OutputStream output) throws IOException {
+		output.write(writer.writeValueAsBytes(value));
+		output.write('\n');
+	}
+}
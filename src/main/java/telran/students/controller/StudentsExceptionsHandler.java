@@ -0,0 +1,44 @@
+package telran.students.controller;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import telran.exceptions.NotFoundException;
+import telran.students.exceptions.MarksBufferFullException;
+import telran.students.exceptions.StudentIllegalStateException;
+import telran.students.service.ServiceErrorMessages;
+
+@RestControllerAdvice
+public class StudentsExceptionsHandler {
+	@ExceptionHandler(NotFoundException.class)
+	ResponseEntity<String> notFoundHandler(NotFoundException e) {
+		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+	}
+
+	@ExceptionHandler(StudentIllegalStateException.class)
+	ResponseEntity<String> illegalStateHandler(StudentIllegalStateException e) {
+		return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+	}
+
+	/**
+	 * unique index violations not translated by the service, e.g. concurrent
+	 * upserts; the driver message naming the index isn't exposed
+	 */
+	@ExceptionHandler(DuplicateKeyException.class)
+	ResponseEntity<String> duplicateKeyHandler(DuplicateKeyException e) {
+		return ResponseEntity.status(HttpStatus.CONFLICT).body(ServiceErrorMessages.CONFLICTING_WRITE);
+	}
+
+	@ExceptionHandler(MarksBufferFullException.class)
+	ResponseEntity<String> bufferFullHandler(MarksBufferFullException e) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	ResponseEntity<String> illegalArgumentHandler(IllegalArgumentException e) {
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+	}
+}
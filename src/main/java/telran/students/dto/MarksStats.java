@@ -0,0 +1,13 @@
+package telran.students.dto;
+
+import java.util.List;
+
+/**
+ * statistics of the marks of a subject (null for all subjects) given in a
+ * month. min, max are null if there are no marks, histogram contains amounts
+ * of scores in the buckets [0, 10), [10, 20), ..., [90, 100]
+ */
+public record MarksStats(String subject, int year, int month, long count, long sum, Integer min, Integer max,
+		double avg, List<Long> histogram) {
+
+}
@@ -0,0 +1,12 @@
+package telran.students.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * values found by ids in the order of the requested ids and the ids of not
+ * existing students
+ */
+public record MultiGetResult<T>(Map<Long, T> found, List<Long> missingIds) {
+
+}
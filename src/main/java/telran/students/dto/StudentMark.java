@@ -0,0 +1,5 @@
+package telran.students.dto;
+
+public record StudentMark(long id, Mark mark) {
+
+}
@@ -0,0 +1,15 @@
+package telran.students.encoding;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+@Configuration
+@ConditionalOnProperty(name = "app.marks.encoding", havingValue = "compact")
+public class CompactEncodingConfig {
+	@Bean
+	MongoCustomConversions mongoCustomConversions(SubjectDictionary subjectDictionary) {
+		return new MongoCustomConversions(MarkConverters.getConverters(subjectDictionary));
+	}
+}
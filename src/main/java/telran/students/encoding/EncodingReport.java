@@ -0,0 +1,11 @@
+package telran.students.encoding;
+
+/**
+ * sizes in bytes of the students collection before and after re-encoding of
+ * the marks. storageSize shrinks only after the storage engine reuses or
+ * compacts the freed space
+ */
+public record EncodingReport(long nDocuments, long sizeBefore, long sizeAfter, long storageSizeBefore,
+		long storageSizeAfter) {
+
+}
@@ -0,0 +1,59 @@
+package telran.students.encoding;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import lombok.RequiredArgsConstructor;
+import telran.students.dto.Mark;
+
+/**
+ * Converters of the compact marks encoding: subject as id of
+ * {@link SubjectDictionary}, date as epoch day. Marks of the standard encoding
+ * are read as well. Only marks are converted, so the query values of the
+ * stored marks are encoded by {@link SubjectDictionary} criteria
+ */
+public class MarkConverters {
+	private MarkConverters() {
+	}
+
+	public static List<Converter<?, ?>> getConverters(SubjectDictionary subjectDictionary) {
+		return List.of(new MarkWritingConverter(subjectDictionary), new MarkReadingConverter(subjectDictionary));
+	}
+
+	@WritingConverter
+	@RequiredArgsConstructor
+	static class MarkWritingConverter implements Converter<Mark, Document> {
+		final SubjectDictionary subjectDictionary;
+
+		@Override
+		public Document convert(Mark mark) {
+			return new Document("subject", subjectDictionary.getId(mark.subject())).append("score", mark.score())
+					.append("date", (int) mark.date().toEpochDay());
+		}
+	}
+
+	@ReadingConverter
+	@RequiredArgsConstructor
+	static class MarkReadingConverter implements Converter<Document, Mark> {
+		final SubjectDictionary subjectDictionary;
+
+		@Override
+		public Mark convert(Document document) {
+			Object subject = document.get("subject");
+			Object date = document.get("date");
+			return new Mark(
+					subject instanceof Integer subjectId ? subjectDictionary.getName(subjectId) : (String) subject,
+					document.getInteger("score"),
+					date instanceof Date legacyDate
+							? legacyDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
+							: LocalDate.ofEpochDay(((Number) date).longValue()));
+		}
+	}
+}
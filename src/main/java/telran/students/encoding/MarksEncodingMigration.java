@@ -0,0 +1,105 @@
+package telran.students.encoding;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.StudentDoc;
+
+/**
+ * Rewrites the marks of all students, embedded or in buckets, in the current
+ * encoding
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MarksEncodingMigration {
+	static final int BSON_STRING_TYPE = 2;
+	final MongoTemplate mongoTemplate;
+	final SubjectDictionary subjectDictionary;
+
+	/**
+	 * finds out whether there are marks of the standard encoding in the compact
+	 * one, the criteria of {@link SubjectDictionary} match them until they are
+	 * re-encoded
+	 */
+	@PostConstruct
+	public void detectLegacyMarks() {
+		if (subjectDictionary.isEnabled()) {
+			Query query = new Query(
+					Criteria.where("marks").elemMatch(Criteria.where("subject").type(BSON_STRING_TYPE)));
+			boolean legacyMarks = mongoTemplate.exists(query, StudentDoc.class)
+					|| mongoTemplate.exists(query, MarksBucketDoc.class);
+			subjectDictionary.setLegacyMarks(legacyMarks);
+			if (legacyMarks) {
+				log.warn("there are marks of the standard encoding, they are matched by slower criteria "
+						+ "until they are re-encoded");
+			}
+		}
+	}
+
+	/**
+	 * re-encodes the marks of all students and marks buckets. A document is
+	 * rewritten only if its marks are still equal to the read ones, so a document
+	 * whose marks have been changed during the migration is skipped
+	 * 
+	 * @return amount of re-encoded documents and students collection sizes before
+	 *         and after
+	 */
+	public EncodingReport reencode() {
+		Document statsBefore = collStats();
+		long nDocuments = reencode(mongoTemplate.getCollectionName(StudentDoc.class))
+				+ reencode(mongoTemplate.getCollectionName(MarksBucketDoc.class));
+		detectLegacyMarks();
+		Document statsAfter = collStats();
+		EncodingReport res = new EncodingReport(nDocuments, getLong(statsBefore, "size"), getLong(statsAfter, "size"),
+				getLong(statsBefore, "storageSize"), getLong(statsAfter, "storageSize"));
+		log.info("marks encoding report: {}", res);
+		return res;
+	}
+
+	private long reencode(String collectionName) {
+		MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName);
+		MongoConverter converter = mongoTemplate.getConverter();
+		long res = 0;
+		try (MongoCursor<Document> cursor = collection.find(Filters.exists("marks.0"))
+				.projection(Projections.include("marks")).iterator()) {
+			while (cursor.hasNext()) {
+				Document document = cursor.next();
+				List<Document> marks = document.getList("marks", Document.class);
+				List<Object> encodedMarks = marks.stream()
+						.map(mark -> converter.convertToMongoType(converter.read(Mark.class, mark))).toList();
+				res += collection.updateOne(
+						Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq("marks", marks)),
+						Updates.set("marks", encodedMarks)).getModifiedCount();
+			}
+		}
+		log.debug("marks of {} documents of {} have been re-encoded", res, collectionName);
+		return res;
+	}
+
+	private Document collStats() {
+		return mongoTemplate
+				.executeCommand(new Document("collStats", mongoTemplate.getCollectionName(StudentDoc.class)));
+	}
+
+	private long getLong(Document document, String key) {
+		return ((Number) document.get(key)).longValue();
+	}
+}
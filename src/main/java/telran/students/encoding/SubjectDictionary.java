@@ -0,0 +1,269 @@
+package telran.students.encoding;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+
+/**
+ * Dictionary subject name <-> small integer id kept in the subjects collection
+ * and cached in memory for the compact marks encoding
+ * (app.marks.encoding=compact). It works on the database factory rather than
+ * MongoTemplate because the template's converter depends on it. It also builds
+ * the criteria on the stored marks: while there are marks of the standard
+ * encoding not re-encoded by {@link MarksEncodingMigration}, they match both
+ * shapes of a mark
+ */
+@Component
+@Slf4j
+public class SubjectDictionary {
+	static final String SUBJECTS = "subjects";
+	static final String COUNTERS = "counters";
+	static final int NOT_EXISTING_ID = -1;
+	final MongoDatabaseFactory databaseFactory;
+	@Getter
+	final boolean enabled;
+	final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	final Map<Integer, String> names = new ConcurrentHashMap<>();
+	@Getter
+	@Setter
+	volatile boolean legacyMarks;
+
+	public SubjectDictionary(MongoDatabaseFactory databaseFactory,
+			@Value("#{'${app.marks.encoding:standard}' == 'compact'}") boolean enabled) {
+		this.databaseFactory = databaseFactory;
+		this.enabled = enabled;
+	}
+
+	@PostConstruct
+	void createIndex() {
+		if (enabled) {
+			subjects().createIndex(Indexes.ascending("name"), new IndexOptions().unique(true));
+		}
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @return id of a given subject, the subject is added if it doesn't exist
+	 */
+	public int getId(String name) {
+		Integer res = findId(name);
+		return res != null ? res : create(name);
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @return id of a given subject or null if there is no such subject
+	 */
+	public Integer findId(String name) {
+		Integer res = ids.get(name);
+		if (res == null) {
+			Document subject = subjects().find(Filters.eq("name", name)).first();
+			if (subject != null) {
+				res = put(subject);
+			}
+		}
+		return res;
+	}
+
+	public String getName(int id) {
+		String res = names.get(id);
+		if (res == null) {
+			Document subject = subjects().find(Filters.eq("_id", id)).first();
+			if (subject == null) {
+				throw new IllegalStateException("Unknown subject id " + id);
+			}
+			put(subject);
+			res = subject.getString("name");
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param field path of the subject of a mark
+	 * @return criteria of the marks of a given subject
+	 */
+	public Criteria subjectCriteria(String field, String subject) {
+		Criteria res = Criteria.where(field);
+		return enabled && legacyMarks ? res.in(subjectValues(subject)) : res.is(subjectValue(subject));
+	}
+
+	/**
+	 * 
+	 * @param field path of the date of a mark
+	 * @return criteria of the marks given at a given date
+	 */
+	public Criteria dateCriteria(String field, LocalDate date) {
+		Criteria res = Criteria.where(field);
+		if (enabled) {
+			res = legacyMarks ? res.in(date.toEpochDay(), date) : res.is(date.toEpochDay());
+		} else {
+			res.is(date);
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param field path of the date of a mark
+	 * @return criteria of the marks given in the dates from - to inclusive
+	 */
+	public Criteria datesCriteria(String field, LocalDate from, LocalDate to) {
+		Criteria res = Criteria.where(field).gte(from).lte(to);
+		if (enabled) {
+			Criteria compact = Criteria.where(field).gte(from.toEpochDay()).lte(to.toEpochDay());
+			res = legacyMarks ? new Criteria().orOperator(compact, res) : compact;
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param field path of the subject of a mark
+	 * @return expression checking the subject of a mark, e.g. in $filter
+	 */
+	public AggregationExpression subjectExpression(String field, String subject) {
+		return enabled && legacyMarks
+				? BooleanOperators.Or.or(subjectValues(subject).stream()
+						.map(value -> (AggregationExpression) ComparisonOperators.Eq.valueOf(field).equalToValue(value))
+						.toArray(AggregationExpression[]::new))
+				: ComparisonOperators.Eq.valueOf(field).equalToValue(subjectValue(subject));
+	}
+
+	/**
+	 * 
+	 * @param field path of the date of a mark
+	 * @return expression checking that the date of a mark is in the dates from -
+	 *         to inclusive. A number and a date are never in the same range, so
+	 *         the ranges of both shapes may be combined by $or
+	 */
+	public AggregationExpression datesExpression(String field, LocalDate from, LocalDate to) {
+		AggregationExpression res = datesRange(field, toDate(from), toDate(to));
+		if (enabled) {
+			AggregationExpression compact = datesRange(field, from.toEpochDay(), to.toEpochDay());
+			res = legacyMarks ? BooleanOperators.Or.or(compact, res) : compact;
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param mark path of a mark, e.g. "$$mark" in $map
+	 * @return expression checking that a mark equals a given one, for the raw
+	 *         update pipelines
+	 */
+	public Document markExpression(String mark, Mark value) {
+		String subject = mark + ".subject";
+		String date = mark + ".date";
+		Document subjectExpression = enabled && legacyMarks
+				? new Document("$in", List.of(subject, subjectValues(value.subject())))
+				: new Document("$eq", List.of(subject, subjectValue(value.subject())));
+		Document dateExpression;
+		if (enabled) {
+			dateExpression = legacyMarks
+					? new Document("$in", List.of(date, List.of(value.date().toEpochDay(), toDate(value.date()))))
+					: new Document("$eq", List.of(date, value.date().toEpochDay()));
+		} else {
+			dateExpression = new Document("$eq", List.of(date, toDate(value.date())));
+		}
+		return new Document("$and", List.of(subjectExpression,
+				new Document("$eq", List.of(mark + ".score", value.score())), dateExpression));
+	}
+
+	/**
+	 * 
+	 * @param field path of the date of a mark
+	 * @return expression of the epoch day of a mark. The dates of the legacy
+	 *         marks are converted by $dateDiff from the epoch in the zone they
+	 *         are stored in, so the marks of both shapes may be sorted together
+	 */
+	public AggregationExpression epochDayExpression(String field) {
+		String path = "$" + field;
+		return context -> new Document("$cond", List.of(new Document("$isNumber", path), path,
+				new Document("$dateDiff", new Document("startDate", toDate(LocalDate.EPOCH)).append("endDate", path)
+						.append("unit", "day").append("timezone", ZoneId.systemDefault().getId()))));
+	}
+
+	private AggregationExpression datesRange(String field, Object from, Object to) {
+		return BooleanOperators.And.and(ComparisonOperators.Gte.valueOf(field).greaterThanEqualToValue(from),
+				ComparisonOperators.Lte.valueOf(field).lessThanEqualToValue(to));
+	}
+
+	private Date toDate(LocalDate date) {
+		return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	private Object subjectValue(String name) {
+		return enabled ? Objects.requireNonNullElse(findId(name), NOT_EXISTING_ID) : name;
+	}
+
+	private List<Object> subjectValues(String name) {
+		Integer id = findId(name);
+		return id == null ? List.of(name) : List.of(id, name);
+	}
+
+	private synchronized int create(String name) {
+		Integer res = findId(name);
+		if (res == null) {
+			Document counter = databaseFactory.getMongoDatabase().getCollection(COUNTERS).findOneAndUpdate(
+					Filters.eq("_id", SUBJECTS), Updates.inc("seq", 1),
+					new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+			Document subject = new Document("_id", counter.getInteger("seq")).append("name", name);
+			try {
+				subjects().insertOne(subject);
+				res = put(subject);
+				log.debug("subject {} has been added with id {}", name, res);
+			} catch (MongoWriteException e) {
+				if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+					throw e;
+				}
+				// added concurrently by another instance
+				res = findId(name);
+			}
+		}
+		return res;
+	}
+
+	private int put(Document subject) {
+		int id = subject.getInteger("_id");
+		String name = subject.getString("name");
+		ids.put(name, id);
+		names.put(id, name);
+		return id;
+	}
+
+	private MongoCollection<Document> subjects() {
+		return databaseFactory.getMongoDatabase().getCollection(SUBJECTS);
+	}
+}
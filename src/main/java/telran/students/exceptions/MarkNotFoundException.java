@@ -0,0 +1,13 @@
+package telran.students.exceptions;
+
+import telran.exceptions.NotFoundException;
+import telran.students.service.ServiceErrorMessages;
+
+@SuppressWarnings("serial")
+public class MarkNotFoundException extends NotFoundException {
+
+	public MarkNotFoundException() {
+		super(ServiceErrorMessages.MARK_NOT_FOUND);
+	}
+
+}
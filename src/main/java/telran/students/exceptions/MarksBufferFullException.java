@@ -0,0 +1,27 @@
+package telran.students.exceptions;
+
+import telran.students.service.ServiceErrorMessages;
+
+/**
+ * The marks buffer can't take or acknowledge a mark now: it is full, stopped or
+ * the write of the mark takes too long. Mapped to 503
+ */
+@SuppressWarnings("serial")
+public class MarksBufferFullException extends IllegalStateException {
+	public MarksBufferFullException() {
+		super(ServiceErrorMessages.MARKS_BUFFER_FULL);
+	}
+
+	public MarksBufferFullException(String message) {
+		super(message);
+	}
+
+	/**
+	 * thrown on every rejected write under overload, so filling the stack trace
+	 * would only add to the load
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
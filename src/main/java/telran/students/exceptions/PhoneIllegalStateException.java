@@ -0,0 +1,10 @@
+package telran.students.exceptions;
+
+import telran.students.service.ServiceErrorMessages;
+
+@SuppressWarnings("serial")
+public class PhoneIllegalStateException extends StudentIllegalStateException {
+	public PhoneIllegalStateException() {
+		super(ServiceErrorMessages.PHONE_ALREADY_EXISTS);
+	}
+}
@@ -7,4 +7,16 @@ public class StudentIllegalStateException extends IllegalStateException {
 	public StudentIllegalStateException() {
 		super(ServiceErrorMessages.STUDENT_ALREADY_EXISTS);
 	}
-}
\ No newline at end of file
+
+	protected StudentIllegalStateException(String message) {
+		super(message);
+	}
+
+	/**
+	 * a conflict with the stored students is mapped to 409, it has no stack trace
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
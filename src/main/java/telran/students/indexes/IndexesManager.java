@@ -0,0 +1,111 @@
+package telran.students.indexes;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.MarksRollupDoc;
+import telran.students.model.StudentDoc;
+
+/**
+ * Creates or validates the indexes declared on {@link StudentDoc},
+ * {@link MarksBucketDoc} and {@link MarksRollupDoc} at startup.
+ * In the strict mode a missing index fails the application start, otherwise
+ * missing indexes are created asynchronously
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IndexesManager {
+	static final List<Class<?>> INDEXED_DOCUMENTS = List.of(StudentDoc.class, MarksBucketDoc.class,
+			MarksRollupDoc.class);
+	final MongoTemplate mongoTemplate;
+	@Value("${app.indexes.strict:false}")
+	boolean strict;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onStartup() {
+		if (strict) {
+			validateIndexes();
+			log.info("index sizes of the students collection: {}", getIndexSizes());
+		} else {
+			CompletableFuture.runAsync(this::createIndexes).whenComplete((res, e) -> {
+				if (e != null) {
+					log.error("indexes creation failed", e);
+				} else {
+					log.info("index sizes of the students collection: {}", getIndexSizes());
+				}
+			});
+		}
+	}
+
+	public void createIndexes() {
+		INDEXED_DOCUMENTS.forEach(
+				documentClass -> ensureIndexes(documentClass, mongoTemplate.getCollectionName(documentClass)));
+	}
+
+	/**
+	 * creates the indexes declared on a given document class in a given
+	 * collection, e.g. in a collection being built to replace the collection of
+	 * the class
+	 */
+	public void ensureIndexes(Class<?> documentClass, String collectionName) {
+		IndexOperations indexOperations = mongoTemplate.indexOps(collectionName);
+		getDeclaredIndexes(documentClass).forEach(index -> {
+			String name = indexOperations.ensureIndex(index);
+			log.debug("index {} of {} has been ensured", name, collectionName);
+		});
+	}
+
+	public void validateIndexes() {
+		List<String> missingNames = new ArrayList<>();
+		INDEXED_DOCUMENTS.forEach(documentClass -> {
+			Set<String> existingNames = new HashSet<>();
+			mongoTemplate.indexOps(documentClass).getIndexInfo().stream().map(IndexInfo::getName)
+					.forEach(existingNames::add);
+			getDeclaredIndexes(documentClass).stream().map(index -> index.getIndexOptions().getString("name"))
+					.filter(name -> !existingNames.contains(name)).forEach(missingNames::add);
+		});
+		if (!missingNames.isEmpty()) {
+			log.error("missing indexes: {}", missingNames);
+			throw new IllegalStateException("Missing indexes " + missingNames);
+		}
+		log.debug("all declared indexes exist");
+	}
+
+	/**
+	 * 
+	 * @return sizes in bytes of all indexes of the students collection mapped by
+	 *         index name
+	 */
+	public Map<String, Long> getIndexSizes() {
+		Document stats = mongoTemplate
+				.executeCommand(new Document("collStats", mongoTemplate.getCollectionName(StudentDoc.class)));
+		Document indexSizes = stats.get("indexSizes", Document.class);
+		Map<String, Long> res = new LinkedHashMap<>();
+		if (indexSizes != null) {
+			indexSizes.forEach((name, size) -> res.put(name, ((Number) size).longValue()));
+		}
+		return res;
+	}
+
+	private List<IndexDefinition> getDeclaredIndexes(Class<?> documentClass) {
+		IndexResolver resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+		List<IndexDefinition> res = new ArrayList<>();
+		resolver.resolveIndexFor(documentClass).forEach(res::add);
+		return res;
+	}
+}
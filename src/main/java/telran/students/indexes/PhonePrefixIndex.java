@@ -0,0 +1,96 @@
+package telran.students.indexes;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Student;
+import telran.students.model.StudentDoc;
+
+/**
+ * In-process sorted index phone -> student id. Being enabled it is loaded once
+ * at startup and then kept in sync by the service write paths, so phone
+ * lookups, including negative ones, don't hit the database
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PhonePrefixIndex {
+	final MongoTemplate mongoTemplate;
+	@Value("${app.phone-index.enabled:false}")
+	@Getter
+	boolean enabled;
+	final NavigableMap<String, Long> phones = new ConcurrentSkipListMap<>();
+
+	/**
+	 * (re)loads the index from the students collection
+	 */
+	@PostConstruct
+	public void load() {
+		if (enabled) {
+			phones.clear();
+			Query query = new Query();
+			query.fields().include("id", "phone");
+			try (Stream<StudentDoc> docs = mongoTemplate.stream(query, StudentDoc.class)) {
+				docs.forEach(doc -> phones.put(doc.getPhone(), doc.getId()));
+			}
+			log.info("phone prefix index has been loaded with {} phones", phones.size());
+		}
+	}
+
+	/**
+	 * 
+	 * @param phone
+	 * @return id of the student having a given phone or null if there is no such
+	 *         student
+	 */
+	public Long getId(String phone) {
+		return phones.get(phone);
+	}
+
+	/**
+	 * 
+	 * @param prefix
+	 * @return students having phones starting with a given prefix and longer than
+	 *         it, sorted by phone
+	 */
+	public List<Student> getStudents(String prefix) {
+		NavigableMap<String, Long> tail = phones.tailMap(prefix, false);
+		List<Student> res = new ArrayList<>();
+		for (Map.Entry<String, Long> entry : tail.entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			res.add(new Student(entry.getValue(), entry.getKey()));
+		}
+		return res;
+	}
+
+	public void add(Student student) {
+		if (enabled) {
+			phones.put(student.phone(), student.id());
+		}
+	}
+
+	public void update(String oldPhone, Student student) {
+		if (enabled) {
+			phones.remove(oldPhone, student.id());
+			phones.put(student.phone(), student.id());
+		}
+	}
+
+	public void remove(Student student) {
+		if (enabled) {
+			phones.remove(student.phone(), student.id());
+		}
+	}
+}
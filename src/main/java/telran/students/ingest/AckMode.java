@@ -0,0 +1,11 @@
+package telran.students.ingest;
+
+/**
+ * moment a buffered mark is acknowledged to the caller
+ */
+public enum AckMode {
+	// the mark has been queued, a failed write is only logged
+	BUFFERED,
+	// the mark has been written to the database
+	WRITTEN
+}
@@ -0,0 +1,236 @@
+package telran.students.ingest;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.exceptions.MarksBufferFullException;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.service.ServiceErrorMessages;
+import telran.students.service.StudentsService;
+import telran.students.service.StudentsServiceImpl;
+
+/**
+ * Optional write-behind ingestion of marks (app.marks.write-buffer.enabled).
+ * Marks are queued in a bounded buffer and written by a single flusher thread
+ * with {@link StudentsService#addMarks(Map)}, so that the marks of a student
+ * queued between two flushes are pushed with one $push/$each. A flush happens
+ * once batch-size marks are queued or flush-interval has passed. The capacity
+ * includes the marks being written, a caller waits for free space at most
+ * offer-timeout and then gets {@link MarksBufferFullException}. A caller waiting
+ * for the write gets it after write-timeout as well. Marks are rejected once
+ * the buffer is stopped, the queued ones are written by the stop
+ */
+@Component
+@Slf4j
+public class MarksWriteBuffer {
+	final StudentsService studentsService;
+	@Getter
+	final boolean enabled;
+	final int capacity;
+	final int batchSize;
+	final Duration flushInterval;
+	final Duration offerTimeout;
+	final Duration writeTimeout;
+	final ReentrantLock lock = new ReentrantLock();
+	final Condition notFull = lock.newCondition();
+	final Condition batchReady = lock.newCondition();
+	// serializes the writes keeping the order of the marks of a student
+	final ReentrantLock flushLock = new ReentrantLock();
+	Map<Long, List<PendingMark>> pending = new LinkedHashMap<>();
+	int nPending;
+	int nWriting;
+	volatile boolean running;
+	Thread flusher;
+
+	record PendingMark(Mark mark, CompletableFuture<Void> written) {
+	}
+
+	public MarksWriteBuffer(StudentsService studentsService,
+			@Value("${app.marks.write-buffer.enabled:false}") boolean enabled,
+			@Value("${app.marks.write-buffer.capacity:10000}") int capacity,
+			@Value("${app.marks.write-buffer.batch-size:1000}") int batchSize,
+			@Value("${app.marks.write-buffer.flush-interval:50ms}") Duration flushInterval,
+			@Value("${app.marks.write-buffer.offer-timeout:5s}") Duration offerTimeout,
+			@Value("${app.marks.write-buffer.write-timeout:30s}") Duration writeTimeout) {
+		this.studentsService = studentsService;
+		this.enabled = enabled;
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.offerTimeout = offerTimeout;
+		this.writeTimeout = writeTimeout;
+	}
+
+	@PostConstruct
+	void start() {
+		if (enabled) {
+			running = true;
+			flusher = Thread.ofPlatform().name("marks-write-buffer").daemon().start(this::flushLoop);
+		}
+	}
+
+	@PreDestroy
+	void stop() throws InterruptedException {
+		if (enabled) {
+			lock.lock();
+			try {
+				running = false;
+				batchReady.signal();
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			flusher.join();
+			flush();
+		}
+	}
+
+	/**
+	 * queues a mark waiting while the buffer is full
+	 * 
+	 * @param ackMode WRITTEN - waits for the write and throws the exception of the
+	 *                write, e.g. {@link StudentNotFoundException}
+	 * @return given mark
+	 */
+	public Mark addMark(long id, Mark mark, AckMode ackMode) {
+		// an invalid mark would fail the whole batch it is merged into
+		StudentsServiceImpl.checkScores(List.of(mark));
+		CompletableFuture<Void> written = new CompletableFuture<>();
+		lock.lock();
+		try {
+			long nanos = offerTimeout.toNanos();
+			while (running && nPending + nWriting >= capacity) {
+				if (nanos <= 0) {
+					log.error("marks buffer is full, mark {} of student with id {} is rejected", mark, id);
+					throw new MarksBufferFullException();
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			if (!running) {
+				log.error("marks buffer is stopped, mark {} of student with id {} is rejected", mark, id);
+				throw new MarksBufferFullException(ServiceErrorMessages.MARKS_BUFFER_STOPPED);
+			}
+			pending.computeIfAbsent(id, k -> new ArrayList<>()).add(new PendingMark(mark, written));
+			if (++nPending >= batchSize) {
+				batchReady.signal();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} finally {
+			lock.unlock();
+		}
+		log.trace("mark {} of student with id {} has been queued", mark, id);
+		if (ackMode == AckMode.WRITTEN) {
+			awaitWritten(written, id, mark);
+		}
+		return mark;
+	}
+
+	/**
+	 * writes the queued marks
+	 * 
+	 * @return amount of the written marks
+	 */
+	public int flush() {
+		flushLock.lock();
+		try {
+			Map<Long, List<PendingMark>> batch;
+			lock.lock();
+			try {
+				batch = pending;
+				nWriting = nPending;
+				pending = new LinkedHashMap<>();
+				nPending = 0;
+			} finally {
+				lock.unlock();
+			}
+			int res = nWriting;
+			if (res > 0) {
+				try {
+					write(batch);
+				} finally {
+					lock.lock();
+					try {
+						nWriting = 0;
+						notFull.signalAll();
+					} finally {
+						lock.unlock();
+					}
+				}
+			}
+			return res;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void flushLoop() {
+		while (running) {
+			lock.lock();
+			try {
+				long nanos = flushInterval.toNanos();
+				while (running && nPending < batchSize && nanos > 0) {
+					nanos = batchReady.awaitNanos(nanos);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+			flush();
+		}
+	}
+
+	private void write(Map<Long, List<PendingMark>> batch) {
+		Map<Long, List<Mark>> marks = new LinkedHashMap<>();
+		batch.forEach((id, pendingMarks) -> marks.put(id, pendingMarks.stream().map(PendingMark::mark).toList()));
+		try {
+			Set<Long> notFoundIds = new HashSet<>(studentsService.addMarks(marks));
+			batch.forEach((id, pendingMarks) -> pendingMarks.forEach(pendingMark -> {
+				if (notFoundIds.contains(id)) {
+					pendingMark.written().completeExceptionally(new StudentNotFoundException());
+				} else {
+					pendingMark.written().complete(null);
+				}
+			}));
+			log.debug("buffered marks of {} students have been written", marks.size() - notFoundIds.size());
+		} catch (RuntimeException e) {
+			log.error("buffered marks of {} students have not been written", marks.size(), e);
+			batch.values().forEach(pendingMarks -> pendingMarks
+					.forEach(pendingMark -> pendingMark.written().completeExceptionally(e)));
+		}
+	}
+
+	private void awaitWritten(CompletableFuture<Void> written, long id, Mark mark) {
+		try {
+			written.get(writeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			log.error("write of mark {} of student with id {} has not been acknowledged in time", mark, id);
+			throw new MarksBufferFullException(ServiceErrorMessages.MARK_WRITE_TIMEOUT);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
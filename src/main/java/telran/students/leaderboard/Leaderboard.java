@@ -0,0 +1,177 @@
+package telran.students.leaderboard;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.model.StudentDoc;
+
+/**
+ * In-memory leaderboard of the students. Best students are the ones having most
+ * scores greater than {@link StudentDoc#GOOD_SCORE}, worst students are the ones
+ * having least sum of scores. Being enabled it is built once at startup and then
+ * kept up to date by the service write paths: after a write the totals of the
+ * student are re-read from the database under a lock of the id, so concurrent
+ * writes of a student can't leave older totals applied last
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class Leaderboard {
+	static final int N_ID_LOCKS = 64;
+	final MongoTemplate mongoTemplate;
+	@Value("${app.leaderboard.enabled:false}")
+	@Getter
+	boolean enabled;
+	TotalsTable totals = new TotalsTable();
+	// key is negated goodMarksCount for the descending order
+	RankTree bestTree = new RankTree();
+	RankTree worstTree = new RankTree();
+	final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// serialize the refreshes of the same student, striped by id
+	final ReentrantLock[] idLocks = Stream.generate(ReentrantLock::new).limit(N_ID_LOCKS)
+			.toArray(ReentrantLock[]::new);
+
+	/**
+	 * (re)builds the leaderboard from the students collection
+	 */
+	@PostConstruct
+	public void load() {
+		if (enabled) {
+			Query query = new Query();
+			query.fields().include("id", "goodMarksCount", "scoreSum");
+			lock.writeLock().lock();
+			try (Stream<StudentDoc> docs = mongoTemplate.stream(query, StudentDoc.class)) {
+				totals = new TotalsTable();
+				bestTree = new RankTree();
+				worstTree = new RankTree();
+				docs.forEach(doc -> put(doc.getId(), doc.getGoodMarksCount(), doc.getScoreSum()));
+			} finally {
+				lock.writeLock().unlock();
+			}
+			log.info("leaderboard has been loaded with {} students", totals.size());
+		}
+	}
+
+	/**
+	 * applies the current totals of a given student after it has been written:
+	 * adds, updates or, if the student doesn't exist anymore, removes it
+	 */
+	public void refresh(long id) {
+		refresh(List.of(id));
+	}
+
+	/**
+	 * applies the current totals of given students read by one query
+	 */
+	public void refresh(Collection<Long> ids) {
+		if (enabled && !ids.isEmpty()) {
+			int[] lockIndexes = ids.stream().mapToInt(Leaderboard::lockIndex).distinct().sorted().toArray();
+			for (int lockIndex : lockIndexes) {
+				idLocks[lockIndex].lock();
+			}
+			try {
+				Query query = new Query(Criteria.where("id").in(ids));
+				query.fields().include("id", "goodMarksCount", "scoreSum");
+				List<StudentDoc> docs = mongoTemplate.find(query, StudentDoc.class);
+				lock.writeLock().lock();
+				try {
+					ids.forEach(this::remove);
+					docs.forEach(doc -> put(doc.getId(), doc.getGoodMarksCount(), doc.getScoreSum()));
+				} finally {
+					lock.writeLock().unlock();
+				}
+			} finally {
+				for (int lockIndex : lockIndexes) {
+					idLocks[lockIndex].unlock();
+				}
+			}
+		}
+	}
+
+	private static int lockIndex(long id) {
+		return Math.floorMod(Long.hashCode(id), N_ID_LOCKS);
+	}
+
+	/**
+	 * adds a student or updates the totals of an existing one under the write lock
+	 */
+	private void put(long id, int goodMarksCount, long scoreSum) {
+		remove(id);
+		totals.put(id, goodMarksCount, scoreSum);
+		bestTree.insert(-goodMarksCount, id);
+		worstTree.insert(scoreSum, id);
+	}
+
+	/**
+	 * removes a student if it exists under the write lock
+	 */
+	private void remove(long id) {
+		int slot = totals.find(id);
+		if (slot >= 0) {
+			bestTree.remove(-totals.goodMarksCount(slot), id);
+			worstTree.remove(totals.scoreSum(slot), id);
+			totals.remove(id);
+		}
+	}
+
+	/**
+	 * 
+	 * @param nStudents
+	 * @return ids of at most nStudents best students having at least one good score
+	 */
+	public List<Long> getBest(int nStudents) {
+		lock.readLock().lock();
+		try {
+			return toList(bestTree.firstIds(nStudents, -1));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 
+	 * @param nStudents
+	 * @return ids of at most nStudents worst students
+	 */
+	public List<Long> getWorst(int nStudents) {
+		lock.readLock().lock();
+		try {
+			return toList(worstTree.firstIds(nStudents, Long.MAX_VALUE));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @return rank starting from 1 in the order of the best students or null if
+	 *         there is no such student
+	 */
+	public Integer getRank(long id) {
+		lock.readLock().lock();
+		try {
+			int slot = totals.find(id);
+			return slot < 0 ? null : bestTree.rank(-totals.goodMarksCount(slot), id) + 1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<Long> toList(long[] ids) {
+		return Arrays.stream(ids).boxed().toList();
+	}
+}
@@ -0,0 +1,160 @@
+package telran.students.leaderboard;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order statistic treap of the unique pairs (key, id) sorted by key and then by
+ * id. Insertion, removal, rank and access to the n first elements take
+ * logarithmic time (plus n)
+ */
+class RankTree {
+	private static class Node {
+		final long key;
+		final long id;
+		final int priority = ThreadLocalRandom.current().nextInt();
+		int size = 1;
+		Node left;
+		Node right;
+
+		Node(long key, long id) {
+			this.key = key;
+			this.id = id;
+		}
+	}
+
+	private Node root;
+
+	int size() {
+		return size(root);
+	}
+
+	void insert(long key, long id) {
+		Node[] parts = split(root, key, id);
+		root = merge(merge(parts[0], new Node(key, id)), parts[1]);
+	}
+
+	void remove(long key, long id) {
+		root = remove(root, key, id);
+	}
+
+	/**
+	 * 
+	 * @return number of the elements less than a given pair
+	 */
+	int rank(long key, long id) {
+		int res = 0;
+		Node current = root;
+		while (current != null) {
+			int comp = compare(key, id, current);
+			if (comp > 0) {
+				res += size(current.left) + 1;
+				current = current.right;
+			} else {
+				current = current.left;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param n
+	 * @param maxKey
+	 * @return ids of at most n first elements having key not greater than maxKey
+	 */
+	long[] firstIds(int n, long maxKey) {
+		long[] buffer = new long[Math.min(n, size())];
+		int count = 0;
+		Deque<Node> stack = new ArrayDeque<>();
+		Node current = root;
+		while (count < buffer.length && (current != null || !stack.isEmpty())) {
+			while (current != null) {
+				stack.push(current);
+				current = current.left;
+			}
+			current = stack.pop();
+			if (current.key > maxKey) {
+				break;
+			}
+			buffer[count++] = current.id;
+			current = current.right;
+		}
+		return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static void update(Node node) {
+		node.size = size(node.left) + size(node.right) + 1;
+	}
+
+	private static int compare(long key, long id, Node node) {
+		int res = Long.compare(key, node.key);
+		return res != 0 ? res : Long.compare(id, node.id);
+	}
+
+	/**
+	 * 
+	 * @return two treaps: elements less than a given pair and the rest ones
+	 */
+	private static Node[] split(Node node, long key, long id) {
+		Node[] res = new Node[2];
+		if (node != null) {
+			if (compare(key, id, node) > 0) {
+				Node[] parts = split(node.right, key, id);
+				node.right = parts[0];
+				update(node);
+				res[0] = node;
+				res[1] = parts[1];
+			} else {
+				Node[] parts = split(node.left, key, id);
+				node.left = parts[1];
+				update(node);
+				res[0] = parts[0];
+				res[1] = node;
+			}
+		}
+		return res;
+	}
+
+	private static Node merge(Node left, Node right) {
+		Node res;
+		if (left == null) {
+			res = right;
+		} else if (right == null) {
+			res = left;
+		} else if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			update(left);
+			res = left;
+		} else {
+			right.left = merge(left, right.left);
+			update(right);
+			res = right;
+		}
+		return res;
+	}
+
+	private static Node remove(Node node, long key, long id) {
+		Node res = node;
+		if (node != null) {
+			int comp = compare(key, id, node);
+			if (comp == 0) {
+				res = merge(node.left, node.right);
+			} else {
+				if (comp < 0) {
+					node.left = remove(node.left, key, id);
+				} else {
+					node.right = remove(node.right, key, id);
+				}
+				update(node);
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,110 @@
+package telran.students.leaderboard;
+
+/**
+ * Hash table student id -> {goodMarksCount, scoreSum} on primitive arrays with
+ * open addressing and linear probing, so neither ids nor totals are boxed.
+ * Removal shifts the following entries back instead of leaving tombstones. Not
+ * thread-safe
+ */
+class TotalsTable {
+	static final int INITIAL_CAPACITY = 16;
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private int[] goodMarksCounts = new int[INITIAL_CAPACITY];
+	private long[] scoreSums = new long[INITIAL_CAPACITY];
+	private boolean[] occupied = new boolean[INITIAL_CAPACITY];
+	private int size;
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @return slot of a given id or -1 if there is no such id. The slot is valid
+	 *         until the next put or remove
+	 */
+	int find(long id) {
+		int mask = ids.length - 1;
+		int slot = hash(id) & mask;
+		while (occupied[slot] && ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return occupied[slot] ? slot : -1;
+	}
+
+	int goodMarksCount(int slot) {
+		return goodMarksCounts[slot];
+	}
+
+	long scoreSum(int slot) {
+		return scoreSums[slot];
+	}
+
+	void put(long id, int goodMarksCount, long scoreSum) {
+		if ((size + 1) * 4L > ids.length * 3L) {
+			resize(ids.length * 2);
+		}
+		int mask = ids.length - 1;
+		int slot = hash(id) & mask;
+		while (occupied[slot] && ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		if (!occupied[slot]) {
+			occupied[slot] = true;
+			ids[slot] = id;
+			size++;
+		}
+		goodMarksCounts[slot] = goodMarksCount;
+		scoreSums[slot] = scoreSum;
+	}
+
+	boolean remove(long id) {
+		int gap = find(id);
+		if (gap < 0) {
+			return false;
+		}
+		int mask = ids.length - 1;
+		int next = (gap + 1) & mask;
+		while (occupied[next]) {
+			int home = hash(ids[next]) & mask;
+			// an entry may fill the gap if the gap is between its home slot and its slot
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				move(next, gap);
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		occupied[gap] = false;
+		size--;
+		return true;
+	}
+
+	private void move(int from, int to) {
+		ids[to] = ids[from];
+		goodMarksCounts[to] = goodMarksCounts[from];
+		scoreSums[to] = scoreSums[from];
+	}
+
+	private void resize(int capacity) {
+		long[] oldIds = ids;
+		int[] oldGoodMarksCounts = goodMarksCounts;
+		long[] oldScoreSums = scoreSums;
+		boolean[] oldOccupied = occupied;
+		ids = new long[capacity];
+		goodMarksCounts = new int[capacity];
+		scoreSums = new long[capacity];
+		occupied = new boolean[capacity];
+		size = 0;
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldOccupied[i]) {
+				put(oldIds[i], oldGoodMarksCounts[i], oldScoreSums[i]);
+			}
+		}
+	}
+
+	private static int hash(long id) {
+		long res = id * 0x9E3779B97F4A7C15L;
+		return (int) (res ^ (res >>> 32));
+	}
+}
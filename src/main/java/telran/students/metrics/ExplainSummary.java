@@ -0,0 +1,117 @@
+package telran.students.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+/**
+ * Summary of the explain output with the executionStats verbosity
+ * 
+ * @param stages             stages of the winning plan from the root down
+ * @param indexes            indexes used by the winning plan
+ * @param docsExamined       documents examined by the plan
+ * @param keysExamined       index keys examined by the plan
+ * @param nReturned          documents returned by the plan. For a pipeline it
+ *                           is of the $cursor stage, not the pipeline result
+ * @param executionTimeMillis
+ */
+public record ExplainSummary(List<String> stages, Set<String> indexes, long docsExamined, long keysExamined,
+		long nReturned, long executionTimeMillis) {
+	public static final String COLLSCAN = "COLLSCAN";
+	public static final String IXSCAN = "IXSCAN";
+	// fields added to the commands by the driver
+	public static final Set<String> DRIVER_KEYS = Set.of("$db", "lsid", "$clusterTime", "$readPreference",
+			"txnNumber", "apiVersion");
+
+	/**
+	 * 
+	 * @param command command sent by the driver
+	 * @return explain command with the executionStats verbosity for a given
+	 *         command
+	 */
+	public static Document explainCommand(BsonDocument command) {
+		BsonDocument explained = new BsonDocument();
+		command.forEach((key, value) -> {
+			if (!DRIVER_KEYS.contains(key)) {
+				explained.put(key, value);
+			}
+		});
+		return new Document("explain", explained).append("verbosity", "executionStats");
+	}
+
+	/**
+	 * 
+	 * @param explain output of the explain command for find, count, distinct or
+	 *                aggregate. For a pipeline the plan of its $cursor stage is
+	 *                summarized
+	 * @return summary
+	 */
+	public static ExplainSummary of(Document explain) {
+		List<String> stages = new ArrayList<>();
+		Set<String> indexes = new LinkedHashSet<>();
+		Document queryPlanner = find(explain, "queryPlanner");
+		if (queryPlanner != null) {
+			Document winningPlan = queryPlanner.get("winningPlan", Document.class);
+			// the classic plan or the plan of the slot based engine
+			collectStages(winningPlan.containsKey("queryPlan") ? winningPlan.get("queryPlan", Document.class)
+					: winningPlan, stages, indexes);
+		}
+		Document executionStats = find(explain, "executionStats");
+		return executionStats == null ? new ExplainSummary(stages, indexes, 0, 0, 0, 0)
+				: new ExplainSummary(stages, indexes, getLong(executionStats, "totalDocsExamined"),
+						getLong(executionStats, "totalKeysExamined"), getLong(executionStats, "nReturned"),
+						getLong(executionStats, "executionTimeMillis"));
+	}
+
+	public boolean isCollectionScan() {
+		return stages.contains(COLLSCAN);
+	}
+
+	public boolean isIndexScan() {
+		return stages.contains(IXSCAN);
+	}
+
+	private static void collectStages(Document plan, List<String> stages, Set<String> indexes) {
+		stages.add(plan.getString("stage"));
+		String indexName = plan.getString("indexName");
+		if (indexName != null) {
+			indexes.add(indexName);
+		}
+		Document inputStage = plan.get("inputStage", Document.class);
+		if (inputStage != null) {
+			collectStages(inputStage, stages, indexes);
+		}
+		List<Document> inputStages = plan.getList("inputStages", Document.class);
+		if (inputStages != null) {
+			inputStages.forEach(stage -> collectStages(stage, stages, indexes));
+		}
+	}
+
+	/**
+	 * 
+	 * @return first document of a given key found depth-first
+	 */
+	private static Document find(Object node, String key) {
+		Document res = null;
+		if (node instanceof Document document) {
+			res = document.get(key) instanceof Document found ? found : find(document.values(), key);
+		} else if (node instanceof Iterable<?> values) {
+			for (Object value : values) {
+				res = find(value, key);
+				if (res != null) {
+					break;
+				}
+			}
+		}
+		return res;
+	}
+
+	private static long getLong(Document document, String key) {
+		Object value = document.get(key);
+		return value instanceof Number number ? number.longValue() : 0;
+	}
+}
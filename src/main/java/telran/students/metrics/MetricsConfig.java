@@ -0,0 +1,24 @@
+package telran.students.metrics;
+
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class MetricsConfig {
+	/**
+	 * enables @Timed on the service classes
+	 */
+	@Bean
+	TimedAspect timedAspect(MeterRegistry meterRegistry) {
+		return new TimedAspect(meterRegistry);
+	}
+
+	@Bean
+	MongoClientSettingsBuilderCustomizer commandMetricsCustomizer(MongoCommandMetricsListener listener) {
+		return builder -> builder.addCommandListener(listener);
+	}
+}
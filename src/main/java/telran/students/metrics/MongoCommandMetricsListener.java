@@ -0,0 +1,187 @@
+package telran.students.metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records latency, returned documents and request/reply sizes of the Mongo
+ * commands tagged by command name and collection. A query command slower than
+ * app.mongo.slow-query.threshold is logged with its shape (values replaced by
+ * "?") and, being enabled by app.mongo.slow-query.explain, with the summary of
+ * its explain. The explain runs on a separate thread; the commands waiting for
+ * it beyond the queue capacity are logged without explain
+ */
+@Component
+@Slf4j
+public class MongoCommandMetricsListener implements CommandListener {
+	static final Set<String> QUERY_COMMANDS = Set.of("find", "aggregate", "count", "distinct");
+	static final int EXPLAIN_QUEUE_CAPACITY = 100;
+	static final BsonString VALUE = new BsonString("?");
+	final MeterRegistry meterRegistry;
+	final ObjectProvider<MongoDatabaseFactory> databaseFactoryProvider;
+	final Duration slowQueryThreshold;
+	final boolean explainSlowQueries;
+	final Map<Integer, StartedCommand> startedCommands = new ConcurrentHashMap<>();
+	final ExecutorService explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(EXPLAIN_QUEUE_CAPACITY), new ThreadPoolExecutor.DiscardPolicy());
+
+	record StartedCommand(String collection, int size, RawBsonDocument command) {
+	}
+
+	public MongoCommandMetricsListener(MeterRegistry meterRegistry,
+			ObjectProvider<MongoDatabaseFactory> databaseFactoryProvider,
+			@Value("${app.mongo.slow-query.threshold:100ms}") Duration slowQueryThreshold,
+			@Value("${app.mongo.slow-query.explain:false}") boolean explainSlowQueries) {
+		this.meterRegistry = meterRegistry;
+		this.databaseFactoryProvider = databaseFactoryProvider;
+		this.slowQueryThreshold = slowQueryThreshold;
+		this.explainSlowQueries = explainSlowQueries;
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		// the command is valid only inside the callback, so it is copied
+		RawBsonDocument command = new RawBsonDocument(event.getCommand(), new BsonDocumentCodec());
+		String commandName = event.getCommandName();
+		BsonValue collection = command.get(commandName);
+		startedCommands.put(event.getRequestId(),
+				new StartedCommand(collection != null && collection.isString() ? collection.asString().getValue() : "",
+						command.getByteBuffer().remaining(),
+						QUERY_COMMANDS.contains(commandName) ? command : null));
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		StartedCommand started = startedCommands.remove(event.getRequestId());
+		if (started != null) {
+			String commandName = event.getCommandName();
+			BsonDocument response = event.getResponse();
+			long elapsedNanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+			record(commandName, started, elapsedNanos, "success");
+			summary("mongodb.command.reply.bytes", commandName, started)
+					.record(new RawBsonDocument(response, new BsonDocumentCodec()).getByteBuffer().remaining());
+			summary("mongodb.command.documents", commandName, started).record(getDocumentsCount(response));
+			if (started.command() != null && elapsedNanos > slowQueryThreshold.toNanos()) {
+				onSlowQuery(event.getDatabaseName(), started.command(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+			}
+		}
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		StartedCommand started = startedCommands.remove(event.getRequestId());
+		if (started != null) {
+			record(event.getCommandName(), started, event.getElapsedTime(TimeUnit.NANOSECONDS), "failure");
+		}
+	}
+
+	private void record(String commandName, StartedCommand started, long elapsedNanos, String status) {
+		Timer.builder("mongodb.command").tag("command", commandName).tag("collection", started.collection())
+				.tag("status", status).register(meterRegistry).record(elapsedNanos, TimeUnit.NANOSECONDS);
+		summary("mongodb.command.request.bytes", commandName, started).record(started.size());
+	}
+
+	private DistributionSummary summary(String name, String commandName, StartedCommand started) {
+		return DistributionSummary.builder(name).tag("command", commandName).tag("collection", started.collection())
+				.register(meterRegistry);
+	}
+
+	/**
+	 * 
+	 * @param response
+	 * @return amount of documents in the first or next batch of a cursor, amount
+	 *         of values of distinct or n of the count and write commands
+	 */
+	public static int getDocumentsCount(BsonDocument response) {
+		int res = 0;
+		BsonDocument cursor = response.getDocument("cursor", null);
+		if (cursor != null) {
+			BsonArray batch = cursor.getArray("firstBatch", cursor.getArray("nextBatch", new BsonArray()));
+			res = batch.size();
+		} else if (response.containsKey("values")) {
+			res = response.getArray("values").size();
+		} else if (response.isNumber("n")) {
+			res = response.getNumber("n").intValue();
+		}
+		return res;
+	}
+
+	private void onSlowQuery(String databaseName, RawBsonDocument command, long elapsedMillis) {
+		BsonValue shape = shape(command);
+		if (explainSlowQueries) {
+			explainExecutor.execute(() -> explain(databaseName, command, shape, elapsedMillis));
+		} else {
+			log.warn("slow query {} ms: {}", elapsedMillis, shape);
+		}
+	}
+
+	private void explain(String databaseName, RawBsonDocument command, BsonValue shape, long elapsedMillis) {
+		try {
+			Document explain = databaseFactoryProvider.getObject().getMongoDatabase(databaseName)
+					.runCommand(ExplainSummary.explainCommand(command));
+			log.warn("slow query {} ms: {}, explain: {}", elapsedMillis, shape, ExplainSummary.of(explain));
+		} catch (RuntimeException e) {
+			log.warn("slow query {} ms: {}, explain failed: {}", elapsedMillis, shape, e.getMessage());
+		}
+	}
+
+	/**
+	 * 
+	 * @param value
+	 * @return the value with scalars replaced by "?" and arrays of scalars (e.g.
+	 *         of $in) collapsed to ["?"]
+	 */
+	static BsonValue shape(BsonValue value) {
+		BsonValue res = VALUE;
+		if (value.isDocument()) {
+			BsonDocument document = new BsonDocument();
+			value.asDocument().forEach((key, fieldValue) -> {
+				if (!ExplainSummary.DRIVER_KEYS.contains(key)) {
+					// the collection name is kept
+					document.put(key, QUERY_COMMANDS.contains(key) ? fieldValue : shape(fieldValue));
+				}
+			});
+			res = document;
+		} else if (value.isArray()) {
+			List<BsonValue> values = value.asArray().stream().filter(v -> v.isDocument() || v.isArray())
+					.map(MongoCommandMetricsListener::shape).toList();
+			res = new BsonArray(values.isEmpty() ? List.of(VALUE) : values);
+		}
+		return res;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		explainExecutor.shutdownNow();
+	}
+}
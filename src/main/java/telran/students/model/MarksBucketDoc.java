@@ -0,0 +1,47 @@
+package telran.students.model;
+
+import java.util.*;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import telran.students.dto.Mark;
+
+/**
+ * Fixed-size bucket of the marks of a student given in a period (yyyyMM) for
+ * the bucket storage mode
+ */
+@Document(collection = "student_marks")
+@CompoundIndexes({ @CompoundIndex(name = "student_period", def = "{'studentId': 1, 'period': 1}"),
+		@CompoundIndex(name = "bucket_marks_subject_score", def = "{'marks.subject': 1, 'marks.score': 1}"),
+		@CompoundIndex(name = "bucket_marks_date", def = "{'marks.date': 1}") })
+@Getter
+@NoArgsConstructor
+public class MarksBucketDoc {
+	@Id
+	ObjectId id;
+	long studentId;
+	int period;
+	// amount of marks, limits filling of the bucket
+	int count;
+	List<Mark> marks = new ArrayList<>();
+	// true while the embedded marks the bucket is migrated from haven't been cleared
+	Boolean pending;
+
+	public MarksBucketDoc(long studentId, int period, List<Mark> marks, boolean pending) {
+		this.studentId = studentId;
+		this.period = period;
+		this.marks = new ArrayList<>(marks);
+		count = marks.size();
+		this.pending = pending ? true : null;
+	}
+
+	public static int period(Mark mark) {
+		return mark.date().getYear() * 100 + mark.date().getMonthValue();
+	}
+}
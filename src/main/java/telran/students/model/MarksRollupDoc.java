@@ -0,0 +1,119 @@
+package telran.students.model;
+
+import java.util.*;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import telran.students.dto.MarksStats;
+
+/**
+ * Statistics of the marks of a subject given in a month, one document per
+ * subject per period. As scores are integers 0 - 100, the distribution is kept
+ * exactly as amounts of each score: it takes at most 101 entries, it is
+ * mergeable over subjects and periods and gives percentiles and histograms
+ * without an error
+ */
+@Document(collection = "marks_rollups")
+@CompoundIndex(name = "period_subject", def = "{'period': 1, 'subject': 1}", unique = true)
+@Getter
+@NoArgsConstructor
+public class MarksRollupDoc {
+	public static final int MAX_SCORE = 100;
+	public static final int HISTOGRAM_BUCKET_WIDTH = 10;
+	@Id
+	ObjectId id;
+	String subject;
+	// year * 100 + month, see MarksBucketDoc#period
+	int period;
+	long count;
+	long sum;
+	int min = Integer.MAX_VALUE;
+	int max = Integer.MIN_VALUE;
+	// score -> amount of the score, only given scores are stored
+	Map<String, Long> scores = new HashMap<>();
+
+	public MarksRollupDoc(String subject, int period) {
+		this.subject = subject;
+		this.period = period;
+	}
+
+	public void add(int score) {
+		add(score, 1);
+	}
+
+	public void add(int score, long amount) {
+		count += amount;
+		sum += score * amount;
+		min = Math.min(min, score);
+		max = Math.max(max, score);
+		scores.merge(Integer.toString(score), amount, Long::sum);
+	}
+
+	public void merge(MarksRollupDoc other) {
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		other.scores.forEach((score, amount) -> scores.merge(score, amount, Long::sum));
+	}
+
+	/**
+	 * 
+	 * @param percentile 0 - 100
+	 * @return the least score such that at least a given percent of the scores
+	 *         are less or equal to it (nearest rank), null if there are no scores
+	 */
+	public Integer percentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be in the range 0 - 100");
+		}
+		Integer res = null;
+		if (count > 0) {
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			Iterator<Map.Entry<Integer, Long>> it = sortedScores().entrySet().iterator();
+			long nScores = 0;
+			while (nScores < rank) {
+				Map.Entry<Integer, Long> entry = it.next();
+				nScores += entry.getValue();
+				res = entry.getKey();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param bucketWidth
+	 * @return amounts of the scores in the buckets [0, bucketWidth), [bucketWidth,
+	 *         2 * bucketWidth), ..., the last bucket includes MAX_SCORE
+	 */
+	public List<Long> histogram(int bucketWidth) {
+		if (bucketWidth <= 0) {
+			throw new IllegalArgumentException("bucket width must be positive");
+		}
+		int nBuckets = Math.max(1, (MAX_SCORE + bucketWidth - 1) / bucketWidth);
+		long[] res = new long[nBuckets];
+		scores.forEach((score, amount) -> {
+			int bucket = Math.min(Math.max(Integer.parseInt(score), 0) / bucketWidth, nBuckets - 1);
+			res[bucket] += amount;
+		});
+		return Arrays.stream(res).boxed().toList();
+	}
+
+	public MarksStats build() {
+		boolean empty = count == 0;
+		return new MarksStats(subject, period / 100, period % 100, count, sum, empty ? null : min,
+				empty ? null : max, empty ? 0 : (double) sum / count, histogram(HISTOGRAM_BUCKET_WIDTH));
+	}
+
+	private SortedMap<Integer, Long> sortedScores() {
+		SortedMap<Integer, Long> res = new TreeMap<>();
+		scores.forEach((score, amount) -> res.put(Integer.parseInt(score), amount));
+		return res;
+	}
+}
@@ -3,6 +3,9 @@ package telran.students.model;
 import java.util.*;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import lombok.Getter;
@@ -11,17 +14,35 @@ import lombok.Setter;
 import telran.students.dto.*;
 
 @Document(collection = "students")
+@CompoundIndexes({ @CompoundIndex(name = "marks_subject_score", def = "{'marks.subject': 1, 'marks.score': 1}"),
+		@CompoundIndex(name = "marks_date", def = "{'marks.date': 1}"),
+		@CompoundIndex(name = "good_marks_count", def = "{'goodMarksCount': -1, '_id': 1}"),
+		@CompoundIndex(name = "score_sum", def = "{'scoreSum': 1, '_id': 1}"),
+		@CompoundIndex(name = "min_score", def = "{'minScore': 1, '_id': 1}") })
 @Getter
 @NoArgsConstructor
 public class StudentDoc {
+	public static final int GOOD_SCORE = 80;
+	public static final int MAX_SCORE = 100;
+	public static final String PHONE_INDEX = "phone";
 	@Id
 	long id;
 	
 	@Setter
+	@Indexed(name = PHONE_INDEX, unique = true)
 	String phone;
 	
 	List<Mark> marks = new ArrayList<>();
 
+	// summary of marks maintained by the write paths
+	@Indexed(name = "marks_count")
+	int marksCount;
+	long scoreSum;
+	// amount of scores greater than GOOD_SCORE
+	int goodMarksCount;
+	Integer minScore;
+	Integer maxScore;
+
 	public StudentDoc(Student student) {
 		id = student.id();
 		phone = student.phone();
@@ -0,0 +1,25 @@
+package telran.students.repo;
+
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import telran.students.dto.reflections.IdPhone;
+import telran.students.model.StudentDoc;
+
+public interface ReactiveStudentRepo extends ReactiveMongoRepository<StudentDoc, Long> {
+	@Query(value = "{id:?0}", fields = "{id:1, phone:1}")
+	Mono<StudentDoc> findStudentNoMarks(long id);
+
+	@Query(value = "{id:?0}", fields = "{id:0, marks:1}")
+	Mono<StudentDoc> findStudentOnlyMarks(long id);
+
+	Mono<IdPhone> findByPhone(String phone);
+
+	@Query("{marksCount: {$lt: ?0}}")
+	Flux<IdPhone> findFewMarks(int nMarks);
+
+	@Query("{marksCount: {$gte: ?0, $lte: ?1}}")
+	Flux<IdPhone> findMarksAmountBetween(int from, int to);
+}
@@ -0,0 +1,31 @@
+package telran.students.repo;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import telran.students.dto.reflections.IdPhone;
+
+/**
+ * Queries of the students by the subjects and dates of their marks. They are
+ * implemented on the criteria of the subject dictionary, so they match the
+ * marks of both encodings
+ */
+public interface StudentMarksRepo {
+	List<IdPhone> findStudentByMarkDate(LocalDate date);
+
+	List<IdPhone> findStudentsGoodSubjectMark(String subject, int markThreshold);
+
+	List<IdPhone> findStudentsBetweenDates(LocalDate start, LocalDate end);
+
+	List<IdPhone> findByMarksDate(LocalDate date);
+
+	/**
+	 * 
+	 * @return students having a mark after firstDate and before lastDate
+	 */
+	List<IdPhone> findByMarksDateBetween(LocalDate firstDate, LocalDate lastDate);
+
+	List<IdPhone> findByMarksSubjectAndMarksScoreGreaterThan(String subject, int markThreshold);
+
+	List<IdPhone> findAllGoodMarksInSubject(String subject, int markThreshold);
+}
@@ -0,0 +1,65 @@
+package telran.students.repo;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import lombok.RequiredArgsConstructor;
+import telran.students.dto.reflections.IdPhone;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.model.StudentDoc;
+
+@RequiredArgsConstructor
+public class StudentMarksRepoImpl implements StudentMarksRepo {
+	final MongoTemplate mongoTemplate;
+	final SubjectDictionary subjectDictionary;
+
+	@Override
+	public List<IdPhone> findStudentByMarkDate(LocalDate date) {
+		return findIdPhones(subjectDictionary.dateCriteria("marks.date", date));
+	}
+
+	@Override
+	public List<IdPhone> findStudentsGoodSubjectMark(String subject, int markThreshold) {
+		return findIdPhones(Criteria.where("marks").elemMatch(new Criteria().andOperator(
+				subjectDictionary.subjectCriteria("subject", subject), Criteria.where("score").gte(markThreshold))));
+	}
+
+	@Override
+	public List<IdPhone> findStudentsBetweenDates(LocalDate start, LocalDate end) {
+		return findIdPhones(Criteria.where("marks").elemMatch(subjectDictionary.datesCriteria("date", start, end)));
+	}
+
+	@Override
+	public List<IdPhone> findByMarksDate(LocalDate date) {
+		return findIdPhones(subjectDictionary.dateCriteria("marks.date", date));
+	}
+
+	@Override
+	public List<IdPhone> findByMarksDateBetween(LocalDate firstDate, LocalDate lastDate) {
+		// the dates have no time, so the exclusive range is the inclusive one of the days between
+		return findIdPhones(Criteria.where("marks")
+				.elemMatch(subjectDictionary.datesCriteria("date", firstDate.plusDays(1), lastDate.minusDays(1))));
+	}
+
+	@Override
+	public List<IdPhone> findByMarksSubjectAndMarksScoreGreaterThan(String subject, int markThreshold) {
+		return findIdPhones(new Criteria().andOperator(subjectDictionary.subjectCriteria("marks.subject", subject),
+				Criteria.where("marks.score").gt(markThreshold)));
+	}
+
+	@Override
+	public List<IdPhone> findAllGoodMarksInSubject(String subject, int markThreshold) {
+		return findIdPhones(new Criteria().andOperator(Criteria.where("minScore").gt(markThreshold),
+				subjectDictionary.subjectCriteria("marks.subject", subject)));
+	}
+
+	private List<IdPhone> findIdPhones(Criteria criteria) {
+		Query query = new Query(criteria);
+		query.fields().include("id", "phone");
+		return mongoTemplate.query(StudentDoc.class).as(IdPhone.class).matching(query).all();
+	}
+}
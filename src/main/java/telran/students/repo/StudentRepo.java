@@ -1,6 +1,5 @@
 package telran.students.repo;
 
-import java.time.LocalDate;
 import java.util.List;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
@@ -9,7 +8,11 @@ import org.springframework.data.mongodb.repository.Query;
 import telran.students.dto.reflections.IdPhone;
 import telran.students.model.StudentDoc;
 
-public interface StudentRepo extends MongoRepository<StudentDoc, Long> {
+/**
+ * The queries by the subjects and dates of the marks are in
+ * {@link StudentMarksRepo}, as they depend on the marks encoding
+ */
+public interface StudentRepo extends MongoRepository<StudentDoc, Long>, StudentMarksRepo {
 	@Query(value = "{id:?0}", fields = "{id:1, phone:1}")
 	StudentDoc findStudentNoMarks(long id);
 
@@ -20,43 +23,16 @@ public interface StudentRepo extends MongoRepository<StudentDoc, Long> {
 
 	List<IdPhone> findByPhoneRegex(String regex);
 
-	@Query(value = "{'marks.date':?0}", fields = "{phone:1}") // id:1 by default
-	List<IdPhone> findStudentByMarkDate(LocalDate date);
-
-	@Query(value = "{'marks': {$elemMatch: {subject:?0, score: {$gte:?1} }}}", fields = "{id:1, phone:1}")
-	List<IdPhone> findStudentsGoodSubjectMark(String subject, int markThreshold);
-
-	@Query(value = "{'marks': {$elemMatch: {date:{$gte:?0}, date:{$lte:?1} }}}", fields = "{id:1, phone:1}")
-	List<IdPhone> findStudentsBetweenDates(LocalDate start, LocalDate end);
-
-	List<IdPhone> findByMarksDate(LocalDate date);
-
-	List<IdPhone> findByMarksDateBetween(LocalDate firstDate, LocalDate lastDate);
-
-	List<IdPhone> findByMarksSubjectAndMarksScoreGreaterThan(String subject, int markThreshold);
-
 	/*******************/
-	@Query("{$and:[{marks:{$elemMatch:{score:{$gt:?0}}}},{marks:{$not:{$elemMatch:{score:{$lte:?0}}}}}]}")
+	@Query("{minScore: {$gt: ?0}}")
 	List<IdPhone> findAllGoodMarks(int markThreshold);
 
-	/*******************/
-	@Query("{$and:[{marks:{$elemMatch:{score:{$gt:?1}}}},{marks:{$not:{$elemMatch:{score:{$lte:?1}}}}}, {marks:{$elemMatch:{subject: ?0}}}]}")
-	List<IdPhone> findAllGoodMarksInSubject(String subject, int markThreshold);
-
 	/**********************************************************/
-	@Query("{$expr:{$lt:[{$size:$marks}, ?0]}}")
+	@Query("{marksCount: {$lt: ?0}}")
 	List<IdPhone> findFewMarks(int nMarks);
 
 	/**********************************************************/
-	@Query("""
-			{$expr:{
-					$and:[
-							{$lte:[{$size:$marks}, ?1]},
-							{$gte:[{$size:$marks}, ?0]}
-						]
-					}
-			}
-			""")
+	@Query("{marksCount: {$gte: ?0, $lte: ?1}}")
 	List<IdPhone> findMarksAmountBetween(int from, int to);
 
 }
\ No newline at end of file
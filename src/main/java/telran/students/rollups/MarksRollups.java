@@ -0,0 +1,316 @@
+package telran.students.rollups;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.dto.MarksStats;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.indexes.IndexesManager;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.MarksRollupDoc;
+import telran.students.model.StudentDoc;
+import telran.students.service.MarksBucketStore;
+
+/**
+ * Per-subject, per-month statistics and score distributions of the marks
+ * materialized in the marks_rollups collection (app.rollups.enabled). Added
+ * marks are applied with $inc/$min/$max upserts, replaced or removed marks with
+ * negative $inc, so no write overwrites another one. As min and max can't be
+ * narrowed by $inc, they are then recalculated from the exact distribution in
+ * the document by a pipeline update. Being disabled the statistics are
+ * aggregated from the stored marks on each request
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MarksRollups {
+	static final String REBUILD_SUFFIX = "_rebuild";
+	static final Document SCORES = new Document("$objectToArray", "$scores");
+	static final Document SCORE_VALUES = new Document("$map",
+			new Document("input", SCORES).append("as", "score").append("in", new Document("$toInt", "$$score.k")));
+	// drops the scores having no marks, then sets min and max of the remaining ones
+	static final List<Bson> NARROW_PIPELINE = List.of(
+			new Document("$set", new Document("scores", new Document("$arrayToObject",
+					new Document("$filter", new Document("input", SCORES).append("as", "score").append("cond",
+							new Document("$gt", List.of("$$score.v", 0))))))),
+			new Document("$set", new Document("min", new Document("$min", SCORE_VALUES)).append("max",
+					new Document("$max", SCORE_VALUES))));
+	final MongoTemplate mongoTemplate;
+	final SubjectDictionary subjectDictionary;
+	final MarksBucketStore marksBucketStore;
+	final IndexesManager indexesManager;
+	@Value("${app.rollups.enabled:false}")
+	@Getter
+	boolean enabled;
+	@Value("${app.rollups.rebuild-on-startup:false}")
+	boolean rebuildOnStartup;
+
+	record RollupKey(String subject, int period) {
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onStartup() {
+		if (enabled && rebuildOnStartup) {
+			rebuild();
+		}
+	}
+
+	public void addMarks(Collection<Mark> marks) {
+		if (enabled && !marks.isEmpty()) {
+			Map<RollupKey, MarksRollupDoc> rollups = new HashMap<>();
+			accumulate(marks.stream(), rollups);
+			BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, MarksRollupDoc.class);
+			rollups.forEach((key, rollup) -> bulkOperations.upsert(keyQuery(key), incUpdate(rollup)));
+			bulkOperations.execute();
+		}
+	}
+
+	/**
+	 * subtracts given replaced or removed marks from their rollups, narrows min
+	 * and max of the rollups and removes the rollups left without marks. The
+	 * writes of a rollup are ordered
+	 */
+	public void removeMarks(Collection<Mark> marks) {
+		if (enabled && !marks.isEmpty()) {
+			Map<RollupKey, MarksRollupDoc> rollups = new HashMap<>();
+			accumulate(marks.stream(), rollups);
+			List<WriteModel<Document>> writes = new ArrayList<>();
+			rollups.forEach((key, rollup) -> {
+				Bson filter = Filters.and(Filters.eq("period", key.period()), Filters.eq("subject", key.subject()));
+				writes.add(new UpdateOneModel<>(filter, decUpdate(rollup)));
+				writes.add(new UpdateOneModel<>(filter, NARROW_PIPELINE));
+				writes.add(new DeleteOneModel<>(Filters.and(filter, Filters.lte("count", 0))));
+			});
+			mongoTemplate.getCollection(mongoTemplate.getCollectionName(MarksRollupDoc.class)).bulkWrite(writes);
+		}
+	}
+
+	/**
+	 * regenerates all rollups from the stored marks into a new collection with
+	 * the declared indexes, which then replaces the rollups collection at once.
+	 * So the readers never see missing rollups and the unique index holds for
+	 * concurrent upserts. Marks added during the rebuild may be missed
+	 * 
+	 * @return amount of the rollups
+	 */
+	public int rebuild() {
+		Map<RollupKey, MarksRollupDoc> rollups = new HashMap<>();
+		Query query = new Query();
+		query.fields().include("marks");
+		if (marksBucketStore.isEnabled()) {
+			try (Stream<MarksBucketDoc> docs = mongoTemplate.stream(query, MarksBucketDoc.class)) {
+				accumulate(docs.flatMap(doc -> doc.getMarks().stream()), rollups);
+			}
+		} else {
+			try (Stream<StudentDoc> docs = mongoTemplate.stream(query, StudentDoc.class)) {
+				accumulate(docs.flatMap(doc -> doc.getMarks().stream()), rollups);
+			}
+		}
+		String collectionName = mongoTemplate.getCollectionName(MarksRollupDoc.class);
+		String rebuildName = collectionName + REBUILD_SUFFIX;
+		mongoTemplate.dropCollection(rebuildName);
+		indexesManager.ensureIndexes(MarksRollupDoc.class, rebuildName);
+		if (!rollups.isEmpty()) {
+			mongoTemplate.insert(rollups.values(), rebuildName);
+		}
+		mongoTemplate.getCollection(rebuildName).renameCollection(
+				new MongoNamespace(mongoTemplate.getDb().getName(), collectionName),
+				new RenameCollectionOptions().dropTarget(true));
+		log.info("{} marks rollups have been rebuilt", rollups.size());
+		return rollups.size();
+	}
+
+	public MarksStats getStats(String subject, int month, int year) {
+		int period = period(YearMonth.of(year, month));
+		return getRollup(subject, period, period).build();
+	}
+
+	/**
+	 * 
+	 * @return statistics of the marks of all subjects given in a month
+	 */
+	public MarksStats getStats(int month, int year) {
+		int period = period(YearMonth.of(year, month));
+		return getRollup(null, period, period).build();
+	}
+
+	/**
+	 * 
+	 * @param subject    null for all subjects
+	 * @param percentile 0 - 100
+	 * @return percentile of the scores given in the months from - to, null if
+	 *         there are no scores
+	 */
+	public Integer getPercentile(String subject, YearMonth from, YearMonth to, double percentile) {
+		return getRollup(subject, period(from), period(to)).percentile(percentile);
+	}
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return amounts of the scores given in the months from - to in the buckets
+	 *         of a given width
+	 */
+	public List<Long> getHistogram(String subject, YearMonth from, YearMonth to, int bucketWidth) {
+		return getRollup(subject, period(from), period(to)).histogram(bucketWidth);
+	}
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return merged rollup of the marks given in the months from - to. Rollups of
+	 *         several databases are mergeable by {@link MarksRollupDoc#merge}
+	 */
+	public MarksRollupDoc getRollup(String subject, YearMonth from, YearMonth to) {
+		return getRollup(subject, period(from), period(to));
+	}
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return merged rollup of the marks given in the periods from - to
+	 */
+	private MarksRollupDoc getRollup(String subject, int fromPeriod, int toPeriod) {
+		List<MarksRollupDoc> rollups;
+		if (enabled) {
+			Criteria criteria = Criteria.where("period").gte(fromPeriod).lte(toPeriod);
+			if (subject != null) {
+				criteria.and("subject").is(subject);
+			}
+			rollups = mongoTemplate.find(new Query(criteria), MarksRollupDoc.class);
+		} else {
+			rollups = aggregateRollups(subject, fromPeriod, toPeriod);
+		}
+		MarksRollupDoc res = new MarksRollupDoc(subject, fromPeriod);
+		rollups.forEach(res::merge);
+		return res;
+	}
+
+	private int period(YearMonth yearMonth) {
+		return yearMonth.getYear() * 100 + yearMonth.getMonthValue();
+	}
+
+	private void accumulate(Stream<Mark> marks, Map<RollupKey, MarksRollupDoc> rollups) {
+		marks.forEach(mark -> rollups.computeIfAbsent(new RollupKey(mark.subject(), MarksBucketDoc.period(mark)),
+				key -> new MarksRollupDoc(key.subject(), key.period())).add(mark.score()));
+	}
+
+	private Query keyQuery(RollupKey key) {
+		return new Query(Criteria.where("period").is(key.period()).and("subject").is(key.subject()));
+	}
+
+	private Update incUpdate(MarksRollupDoc rollup) {
+		Update res = new Update().inc("count", rollup.getCount()).inc("sum", rollup.getSum())
+				.min("min", rollup.getMin()).max("max", rollup.getMax());
+		rollup.getScores().forEach((score, amount) -> res.inc("scores." + score, amount));
+		return res;
+	}
+
+	private Document decUpdate(MarksRollupDoc rollup) {
+		Document inc = new Document("count", -rollup.getCount()).append("sum", -rollup.getSum());
+		rollup.getScores().forEach((score, amount) -> inc.append("scores." + score, -amount));
+		return new Document("$inc", inc);
+	}
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return pipeline grouping the scores of the stored embedded marks given in
+	 *         the months from - to by subject, e.g. for a reactive template. Its
+	 *         results are merged by {@link #mergeRollups}
+	 */
+	public Aggregation rollupsPipeline(String subject, YearMonth from, YearMonth to) {
+		return rollupsPipeline(subject, period(from), period(to));
+	}
+
+	/**
+	 * 
+	 * @param subject   null for all subjects
+	 * @param documents results of {@link #rollupsPipeline}
+	 * @return rollup of the marks given in the months starting from a given one
+	 */
+	public MarksRollupDoc mergeRollups(String subject, YearMonth from, List<Document> documents) {
+		MarksRollupDoc res = new MarksRollupDoc(subject, period(from));
+		documents.forEach(document -> res.merge(toRollup(document, res.getPeriod())));
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return rollups of the stored marks given in the periods from - to, one per
+	 *         subject, having period fromPeriod
+	 */
+	private List<MarksRollupDoc> aggregateRollups(String subject, int fromPeriod, int toPeriod) {
+		Aggregation pipeline = rollupsPipeline(subject, fromPeriod, toPeriod);
+		Class<?> marksType = marksBucketStore.isEnabled() ? MarksBucketDoc.class : StudentDoc.class;
+		// marks of the standard encoding not re-encoded yet are grouped by the subject name
+		Map<String, MarksRollupDoc> res = new LinkedHashMap<>();
+		mongoTemplate.aggregate(pipeline, marksType, Document.class).getMappedResults().forEach(document -> {
+			MarksRollupDoc rollup = toRollup(document, fromPeriod);
+			res.merge(rollup.getSubject(), rollup, (rollup1, rollup2) -> {
+				rollup1.merge(rollup2);
+				return rollup1;
+			});
+		});
+		return new ArrayList<>(res.values());
+	}
+
+	private Aggregation rollupsPipeline(String subject, int fromPeriod, int toPeriod) {
+		LocalDate from = LocalDate.of(fromPeriod / 100, fromPeriod % 100, 1);
+		LocalDate to = LocalDate.of(toPeriod / 100, toPeriod % 100, 1).with(TemporalAdjusters.lastDayOfMonth());
+		Criteria markCriteria = subjectDictionary.datesCriteria("date", from, to);
+		Criteria unwoundMarkCriteria = subjectDictionary.datesCriteria("marks.date", from, to);
+		if (subject != null) {
+			markCriteria = new Criteria().andOperator(markCriteria,
+					subjectDictionary.subjectCriteria("subject", subject));
+			unwoundMarkCriteria = new Criteria().andOperator(unwoundMarkCriteria,
+					subjectDictionary.subjectCriteria("marks.subject", subject));
+		}
+		return Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("marks").elemMatch(markCriteria)), Aggregation.unwind("marks"),
+				Aggregation.match(unwoundMarkCriteria),
+				Aggregation.group("marks.subject", "marks.score").count().as("amount"),
+				Aggregation.group("subject").push(new Document("score", "$_id.score").append("amount", "$amount"))
+						.as("scores"));
+	}
+
+	private MarksRollupDoc toRollup(Document document, int period) {
+		Object subject = document.get("_id");
+		MarksRollupDoc res = new MarksRollupDoc(
+				subject instanceof Number subjectId ? subjectDictionary.getName(subjectId.intValue())
+						: (String) subject,
+				period);
+		document.getList("scores", Document.class).forEach(
+				score -> res.add(((Number) score.get("score")).intValue(), ((Number) score.get("amount")).longValue()));
+		return res;
+	}
+}
@@ -0,0 +1,330 @@
+package telran.students.service;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.StudentDoc;
+
+/**
+ * Storage of marks in the fixed-size buckets of the student_marks collection
+ * (app.marks.storage=bucket). The marks summary stays in {@link StudentDoc}.
+ * Embedded marks aren't read in this mode, so they are migrated at startup
+ * before the application serves requests
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MarksBucketStore {
+	final MongoTemplate mongoTemplate;
+	final SubjectDictionary subjectDictionary;
+	@Value("#{'${app.marks.storage:embedded}' == 'bucket'}")
+	@Getter
+	boolean enabled;
+	@Value("${app.marks.bucket.size:200}")
+	int bucketSize;
+	@Value("${app.marks.bucket.migrate-on-startup:false}")
+	boolean migrateOnStartup;
+
+	@PostConstruct
+	public void onStartup() {
+		if (enabled) {
+			if (migrateOnStartup) {
+				migrate();
+			} else if (mongoTemplate.exists(embeddedMarksQuery(), StudentDoc.class)) {
+				log.warn("there are students with embedded marks not visible in the bucket mode, "
+						+ "they are moved by app.marks.bucket.migrate-on-startup=true");
+			}
+		}
+	}
+
+	/**
+	 * pushes marks of the existing students into the buckets, the marks of a
+	 * student given in a period by one $push $each upsert per bucket size. Such
+	 * an upsert fills a bucket having room for all its marks or creates a new one
+	 * 
+	 * @param marks marks mapped by student id
+	 */
+	public void addMarks(Map<Long, List<Mark>> marks) {
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.ORDERED, MarksBucketDoc.class);
+		marks.forEach((id, studentMarks) -> periodMarks(studentMarks).forEach((period, chunk) -> {
+			for (int from = 0; from < chunk.size(); from += bucketSize) {
+				List<Mark> bucketMarks = chunk.subList(from, Math.min(from + bucketSize, chunk.size()));
+				bulkOperations.upsert(
+						new Query(Criteria.where("studentId").is(id).and("period").is(period).and("count")
+								.lte(bucketSize - bucketMarks.size())),
+						new Update().push("marks").each(bucketMarks.toArray()).inc("count", bucketMarks.size()));
+			}
+		}));
+		bulkOperations.execute();
+	}
+
+	private Map<Integer, List<Mark>> periodMarks(List<Mark> marks) {
+		Map<Integer, List<Mark>> res = new TreeMap<>();
+		marks.forEach(mark -> res.computeIfAbsent(MarksBucketDoc.period(mark), k -> new ArrayList<>()).add(mark));
+		return res;
+	}
+
+	public List<Mark> getMarks(long id) {
+		Query query = new Query(Criteria.where("studentId").is(id)).with(Sort.by("period", "id"));
+		query.fields().include("marks");
+		return mongoTemplate.find(query, MarksBucketDoc.class).stream()
+				.flatMap(bucket -> bucket.getMarks().stream()).toList();
+	}
+
+	/**
+	 * 
+	 * @return nMarks latest marks of a student. The counts of the buckets are read
+	 *         from the newest one, so only the buckets holding these marks are
+	 *         read
+	 */
+	public List<Mark> getLatestMarks(long id, int nMarks) {
+		Query countsQuery = new Query(Criteria.where("studentId").is(id))
+				.with(Sort.by(Direction.DESC, "period", "id"));
+		countsQuery.fields().include("count");
+		int nBuckets = 0;
+		int nBucketsMarks = 0;
+		for (MarksBucketDoc bucket : mongoTemplate.find(countsQuery, MarksBucketDoc.class)) {
+			if (nBucketsMarks >= nMarks) {
+				break;
+			}
+			nBuckets++;
+			nBucketsMarks += bucket.getCount();
+		}
+		List<Mark> res = List.of();
+		if (nBuckets > 0) {
+			Query query = new Query(Criteria.where("studentId").is(id))
+					.with(Sort.by(Direction.DESC, "period", "id")).limit(nBuckets);
+			query.fields().include("marks");
+			List<MarksBucketDoc> buckets = new ArrayList<>(mongoTemplate.find(query, MarksBucketDoc.class));
+			Collections.reverse(buckets);
+			List<Mark> marks = buckets.stream().flatMap(bucket -> bucket.getMarks().stream()).toList();
+			res = marks.subList(Math.max(0, marks.size() - nMarks), marks.size());
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return slice of the marks of a student sorted by date, the marks given at
+	 *         the same date are in the order of the buckets
+	 */
+	public List<Mark> getMarksSortedByDate(long id, int offset, int limit) {
+		Aggregation pipeline = StudentsServiceImpl.sortedMarksPipeline(subjectDictionary,
+				Criteria.where("studentId").is(id), Sort.by("period", "id", "index"), offset, limit);
+		return mongoTemplate.aggregate(pipeline, MarksBucketDoc.class, Mark.class).getMappedResults();
+	}
+
+	/**
+	 * 
+	 * @return marks of given students mapped by student id, students without
+	 *         marks are missing
+	 */
+	public Map<Long, List<Mark>> getMarks(Collection<Long> ids) {
+		Query query = new Query(Criteria.where("studentId").in(ids)).with(Sort.by("studentId", "period", "id"));
+		query.fields().include("studentId", "marks");
+		Map<Long, List<Mark>> res = new HashMap<>();
+		mongoTemplate.find(query, MarksBucketDoc.class).forEach(bucket -> res
+				.computeIfAbsent(bucket.getStudentId(), id -> new ArrayList<>()).addAll(bucket.getMarks()));
+		return res;
+	}
+
+	public List<Mark> getMarksSubject(long id, String subject) {
+		return getMarks(id, subjectDictionary.subjectCriteria("marks.subject", subject));
+	}
+
+	public List<Mark> getMarksAtDates(long id, LocalDate from, LocalDate to) {
+		return getMarks(id, subjectDictionary.datesCriteria("marks.date", from, to));
+	}
+
+	private List<Mark> getMarks(long id, Criteria unwoundMarkCriteria) {
+		Aggregation pipeline = Aggregation.newAggregation(Aggregation.match(Criteria.where("studentId").is(id)),
+				Aggregation.sort(Sort.by("period", "id")), Aggregation.unwind("marks"),
+				Aggregation.match(unwoundMarkCriteria), Aggregation.replaceRoot("marks"));
+		return mongoTemplate.aggregate(pipeline, MarksBucketDoc.class, Mark.class).getMappedResults();
+	}
+
+	/**
+	 * 
+	 * @param markCriteria    criteria of a mark
+	 * @param studentCriteria criteria of the students documents
+	 * @param afterId         only the students having greater ids are returned
+	 * @param limit           maximal amount of the students, must be positive
+	 * @return pipeline over the buckets returning the id and phone of the students
+	 *         having at least one mark matching markCriteria in the id order. The
+	 *         ids of the matching buckets are grouped and joined with the students
+	 *         collection by $lookup, so the result is streamed by a cursor
+	 */
+	public Aggregation studentsPipeline(Criteria markCriteria, Criteria studentCriteria, long afterId, int limit) {
+		StudentsServiceImpl.checkLimit(limit);
+		return studentsPipeline(markCriteria, studentCriteria, afterId, OptionalInt.of(limit));
+	}
+
+	/**
+	 * 
+	 * @return pipeline of all students having at least one mark matching
+	 *         markCriteria, see
+	 *         {@link #studentsPipeline(Criteria, Criteria, long, int)}
+	 */
+	public Aggregation studentsPipeline(Criteria markCriteria, Criteria studentCriteria) {
+		return studentsPipeline(markCriteria, studentCriteria, Long.MIN_VALUE, OptionalInt.empty());
+	}
+
+	private Aggregation studentsPipeline(Criteria markCriteria, Criteria studentCriteria, long afterId,
+			OptionalInt limit) {
+		List<AggregationOperation> operations = new ArrayList<>(List.of(
+				Aggregation.match(Criteria.where("studentId").gt(afterId).and("marks").elemMatch(markCriteria)),
+				Aggregation.group("studentId"), Aggregation.sort(Sort.by("_id")),
+				Aggregation.lookup(mongoTemplate.getCollectionName(StudentDoc.class), "_id", "_id", "student"),
+				Aggregation.unwind("student"), Aggregation.replaceRoot("student"),
+				Aggregation.match(studentCriteria)));
+		limit.ifPresent(value -> operations.add(Aggregation.limit(value)));
+		operations.add(Aggregation.project("phone"));
+		return Aggregation.newAggregation(operations)
+				.withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+	}
+
+	/**
+	 * 
+	 * @return true if a mark equal to oldMark has been found and replaced
+	 */
+	public boolean updateMark(long id, Criteria oldMarkCriteria, Mark newMark) {
+		Query query = new Query(Criteria.where("studentId").is(id).and("marks").elemMatch(oldMarkCriteria));
+		return mongoTemplate.updateFirst(query, new Update().set("marks.$", newMark), MarksBucketDoc.class)
+				.getMatchedCount() > 0;
+	}
+
+	/**
+	 * removes one mark equal to a given mark by one pipeline update of its bucket.
+	 * The count of the bucket is decremented by the same update, so the bucket may
+	 * be filled again
+	 * 
+	 * @return true if a mark equal to a given mark has been found and removed
+	 */
+	public boolean removeMark(long id, Mark mark) {
+		Document markIndex = StudentsServiceImpl.markIndexExpression(subjectDictionary, mark);
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(MarksBucketDoc.class))
+				.updateOne(StudentsServiceImpl.removeMarkFilter("studentId", id, markIndex),
+						StudentsServiceImpl.removeMarkPipeline(markIndex, "count"))
+				.getMatchedCount() > 0;
+	}
+
+	public void removeAll(long id) {
+		mongoTemplate.remove(new Query(Criteria.where("studentId").is(id)), MarksBucketDoc.class);
+	}
+
+	/**
+	 * 
+	 * @param studentCriteria criteria of the buckets (studentId)
+	 * @return stream of documents {_id: student id, marksCount, scoreSum,
+	 *         goodMarksCount, minScore, maxScore}, it must be closed after use
+	 */
+	public Stream<Document> streamSummaries(Criteria studentCriteria) {
+		GroupOperation groupOperation = Aggregation.group("studentId").count().as("marksCount").sum("marks.score")
+				.as("scoreSum")
+				.sum(ConditionalOperators.when(Criteria.where("marks.score").gt(StudentDoc.GOOD_SCORE)).then(1)
+						.otherwise(0))
+				.as("goodMarksCount").min("marks.score").as("minScore").max("marks.score").as("maxScore");
+		Aggregation pipeline = Aggregation.newAggregation(Aggregation.match(studentCriteria),
+				Aggregation.unwind("marks"), groupOperation);
+		return mongoTemplate.aggregateStream(pipeline, MarksBucketDoc.class, Document.class);
+	}
+
+	/**
+	 * moves the embedded marks arrays of all students into the buckets. The buckets
+	 * are inserted as pending and become regular ones after the embedded array
+	 * has been cleared, so a migration interrupted between these steps is
+	 * completed or rolled back by the next one instead of duplicating the marks.
+	 * A student whose marks have been changed during the migration keeps the
+	 * embedded array
+	 * 
+	 * @return amount of migrated students
+	 */
+	public long migrate() {
+		resolvePendingBuckets();
+		Query query = embeddedMarksQuery();
+		query.fields().include("id", "marks");
+		long res = 0;
+		try (Stream<StudentDoc> docs = mongoTemplate.stream(query, StudentDoc.class)) {
+			Iterator<StudentDoc> it = docs.iterator();
+			while (it.hasNext()) {
+				if (migrate(it.next())) {
+					res++;
+				}
+			}
+		}
+		log.info("marks of {} students have been moved into buckets", res);
+		return res;
+	}
+
+	private Query embeddedMarksQuery() {
+		return new Query(Criteria.where("marks.0").exists(true));
+	}
+
+	/**
+	 * the pending buckets of a student whose embedded marks have been cleared
+	 * become regular, otherwise they are removed and migrated again
+	 */
+	private void resolvePendingBuckets() {
+		Query pendingQuery = new Query(Criteria.where("pending").is(true));
+		List<Long> ids = mongoTemplate.findDistinct(pendingQuery, "studentId", MarksBucketDoc.class, Long.class);
+		for (long id : ids) {
+			Query bucketsQuery = new Query(Criteria.where("studentId").is(id).and("pending").is(true));
+			if (mongoTemplate.exists(new Query(Criteria.where("id").is(id).and("marks.0").exists(true)),
+					StudentDoc.class)) {
+				mongoTemplate.remove(bucketsQuery, MarksBucketDoc.class);
+			} else {
+				mongoTemplate.updateMulti(bucketsQuery, new Update().unset("pending"), MarksBucketDoc.class);
+			}
+			log.warn("pending buckets of student with id {} left by an interrupted migration have been resolved",
+					id);
+		}
+	}
+
+	private boolean migrate(StudentDoc studentDoc) {
+		List<MarksBucketDoc> buckets = new ArrayList<>();
+		periodMarks(studentDoc.getMarks()).forEach((period, marks) -> {
+			for (int from = 0; from < marks.size(); from += bucketSize) {
+				buckets.add(new MarksBucketDoc(studentDoc.getId(), period,
+						marks.subList(from, Math.min(from + bucketSize, marks.size())), true));
+			}
+		});
+		mongoTemplate.insert(buckets, MarksBucketDoc.class);
+		Query query = new Query(
+				Criteria.where("id").is(studentDoc.getId()).and("marks").size(studentDoc.getMarks().size()));
+		boolean res = mongoTemplate.updateFirst(query, new Update().set("marks", List.of()), StudentDoc.class)
+				.getMatchedCount() > 0;
+		Query bucketsQuery = new Query(Criteria.where("studentId").is(studentDoc.getId()).and("pending").is(true));
+		if (res) {
+			mongoTemplate.updateMulti(bucketsQuery, new Update().unset("pending"), MarksBucketDoc.class);
+		} else {
+			log.warn("marks of student with id {} have been changed during migration", studentDoc.getId());
+			mongoTemplate.remove(bucketsQuery, MarksBucketDoc.class);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,114 @@
+package telran.students.service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.UpdateResult;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.model.StudentDoc;
+
+/**
+ * Recalculates the marks summary fields of {@link StudentDoc} from the marks
+ * array on the server side or from the marks buckets in the bucket storage
+ * mode. Used for the backfill of existing documents and after mutations that
+ * can't be expressed with $inc/$min/$max
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MarksSummaryUpdater {
+	static final Document MARKS = new Document("$ifNull", List.of("$marks", List.of()));
+	static final List<Document> RECALCULATE_PIPELINE = List.of(new Document("$set", new Document()
+			.append("marksCount", new Document("$size", MARKS))
+			.append("scoreSum", new Document("$sum", "$marks.score"))
+			.append("goodMarksCount",
+					new Document("$size",
+							new Document("$filter", new Document("input", MARKS).append("as", "mark").append("cond",
+									new Document("$gt", List.of("$$mark.score", StudentDoc.GOOD_SCORE))))))
+			.append("minScore", new Document("$min", "$marks.score"))
+			.append("maxScore", new Document("$max", "$marks.score"))));
+
+	static final List<String> SUMMARY_FIELDS = List.of("marksCount", "scoreSum", "goodMarksCount", "minScore",
+			"maxScore");
+	static final Document EMPTY_SUMMARY = new Document("marksCount", 0).append("scoreSum", 0L)
+			.append("goodMarksCount", 0).append("minScore", null).append("maxScore", null);
+
+	final MongoTemplate mongoTemplate;
+	final MarksBucketStore marksBucketStore;
+	@Value("${app.marks-summary.backfill-on-startup:false}")
+	boolean backfillOnStartup;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onStartup() {
+		if (backfillOnStartup) {
+			backfill();
+		}
+	}
+
+	/**
+	 * recalculates the marks summary of all students. In the bucket storage mode
+	 * only students having buckets are updated
+	 * 
+	 * @return amount of modified documents
+	 */
+	public long backfill() {
+		if (marksBucketStore.isEnabled()) {
+			long res = 0;
+			try (Stream<Document> summaries = marksBucketStore.streamSummaries(new Criteria())) {
+				Iterator<Document> it = summaries.iterator();
+				while (it.hasNext()) {
+					Document summary = it.next();
+					if (setSummary(summary.getLong("_id"), summary)) {
+						res++;
+					}
+				}
+			}
+			log.debug("marks summary of {} students has been backfilled from buckets", res);
+			return res;
+		}
+		UpdateResult result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.updateMany(new Document(), RECALCULATE_PIPELINE);
+		log.debug("marks summary of {} students has been backfilled", result.getModifiedCount());
+		return result.getModifiedCount();
+	}
+
+	/**
+	 * recalculates the marks summary of a given student
+	 * 
+	 * @param id
+	 * @return true if the student exists
+	 */
+	public boolean recalculate(long id) {
+		if (marksBucketStore.isEnabled()) {
+			Document summary;
+			try (Stream<Document> summaries = marksBucketStore.streamSummaries(Criteria.where("studentId").is(id))) {
+				summary = summaries.findFirst().orElse(EMPTY_SUMMARY);
+			}
+			return setSummary(id, summary);
+		}
+		UpdateResult result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.updateOne(Filters.eq("_id", id), RECALCULATE_PIPELINE);
+		return result.getMatchedCount() > 0;
+	}
+
+	private boolean setSummary(long id, Document summary) {
+		Update update = new Update();
+		SUMMARY_FIELDS.forEach(field -> update.set(field, summary.get(field)));
+		return mongoTemplate.updateFirst(new Query(Criteria.where("id").is(id)), update, StudentDoc.class)
+				.getMatchedCount() > 0;
+	}
+}
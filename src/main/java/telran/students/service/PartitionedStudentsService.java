@@ -0,0 +1,729 @@
+package telran.students.service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.analytics.MarksAnalytics;
+import telran.students.cache.StudentsCache;
+import telran.students.dto.*;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.exceptions.PhoneIllegalStateException;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.indexes.IndexesManager;
+import telran.students.indexes.PhonePrefixIndex;
+import telran.students.leaderboard.Leaderboard;
+import telran.students.model.MarksRollupDoc;
+import telran.students.model.StudentDoc;
+import telran.students.repo.StudentMarksRepoImpl;
+import telran.students.repo.StudentRepo;
+import telran.students.rollups.MarksRollups;
+
+/**
+ * Students service over the students partitioned by a hash of the id across
+ * the databases of app.partitions.uris. A student with all its marks lives in
+ * one partition, so the operations on a student are routed to its partition.
+ * Global queries are scattered to all partitions in parallel and gathered by
+ * merging the partial results: top-N lists are merged by a heap, statistics
+ * are merged from the partial counts and sums. Each partition is served by a
+ * StudentsServiceImpl having embedded marks of the standard encoding and no
+ * in-memory views. The clients of the partitions get the settings of the
+ * default client with the hosts and credentials of their URIs. Each partition
+ * database stores its index and the amount of the partitions, so a changed
+ * list of URIs, which would route the ids to other partitions, fails the
+ * startup. Phone numbers are unique per partition by the index and across the
+ * partitions by a check of the other partitions before a write; concurrent
+ * writes of the same phone number to different partitions aren't excluded
+ */
+@Service
+@Primary
+@ConditionalOnProperty("app.partitions.uris")
+@Slf4j
+@Timed(value = "students.service", histogram = true)
+public class PartitionedStudentsService implements StudentsService {
+	// Fibonacci hashing spreads sequential ids evenly over the partitions
+	static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+	static final String LAYOUT_COLLECTION = "partitions";
+	static final String LAYOUT_ID = "layout";
+	final List<Partition> partitions;
+	final int marksBatchSize;
+
+	record Partition(int index, MongoClient mongoClient, MongoTemplate mongoTemplate, StudentsServiceImpl service,
+			MarksRollups marksRollups) {
+	}
+
+	public PartitionedStudentsService(@Value("${app.partitions.uris}") List<String> uris,
+			MongoTemplate mongoTemplate, MongoClientSettings mongoClientSettings,
+			ObjectProvider<MongoClientSettingsBuilderCustomizer> settingsCustomizers,
+			SubjectDictionary subjectDictionary, MarksBucketStore marksBucketStore, MarksRollups marksRollups,
+			MarksAnalytics marksAnalytics, Leaderboard leaderboard, PhonePrefixIndex phonePrefixIndex,
+			@Value("${app.marks.batch.size:1000}") int marksBatchSize,
+			@Value("${app.students.batch.size:1000}") int studentsBatchSize,
+			@Value("${app.multi-get.chunk-size:500}") int multiGetChunkSize) {
+		if (subjectDictionary.isEnabled() || marksBucketStore.isEnabled()) {
+			throw new IllegalStateException(
+					"partitioned mode requires app.marks.storage=embedded and app.marks.encoding=standard");
+		}
+		// the views of the default beans would be loaded and rebuilt from the default database
+		if (marksRollups.isEnabled() || marksAnalytics.isEnabled() || leaderboard.isEnabled()
+				|| phonePrefixIndex.isEnabled()) {
+			throw new IllegalStateException("partitioned mode doesn't support app.rollups.enabled, "
+					+ "app.analytics.enabled, app.leaderboard.enabled and app.phone-index.enabled");
+		}
+		this.marksBatchSize = marksBatchSize;
+		List<Partition> partitions = new ArrayList<>();
+		try {
+			for (String uri : uris) {
+				MongoClientSettings settings = clientSettings(uri, mongoClientSettings, settingsCustomizers);
+				partitions.add(createPartition(partitions.size(), uris.size(), uri, settings,
+						mongoTemplate.getConverter(), marksBatchSize, studentsBatchSize, multiGetChunkSize));
+			}
+		} catch (RuntimeException e) {
+			partitions.forEach(partition -> partition.mongoClient().close());
+			throw e;
+		}
+		this.partitions = partitions;
+		log.info("students are partitioned across {} databases", partitions.size());
+	}
+
+	/**
+	 * 
+	 * @return settings of the default client, such as the command listeners, the
+	 *         timeouts and the pool, with the hosts and credentials of a given
+	 *         partition URI
+	 */
+	private static MongoClientSettings clientSettings(String uri, MongoClientSettings mongoClientSettings,
+			ObjectProvider<MongoClientSettingsBuilderCustomizer> settingsCustomizers) {
+		MongoClientSettings.Builder builder = MongoClientSettings.builder(mongoClientSettings);
+		settingsCustomizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+		// applied after the customizers, as one of them applies the URI of spring.data.mongodb
+		return builder.applyConnectionString(new ConnectionString(uri)).build();
+	}
+
+	private static Partition createPartition(int index, int nPartitions, String uri, MongoClientSettings settings,
+			MongoConverter converter, int marksBatchSize, int studentsBatchSize, int multiGetChunkSize) {
+		String database = new ConnectionString(uri).getDatabase();
+		if (database == null) {
+			throw new IllegalArgumentException("database isn't specified in partition URI " + uri);
+		}
+		MongoClient mongoClient = MongoClients.create(settings);
+		MongoDatabaseFactory databaseFactory = new SimpleMongoClientDatabaseFactory(mongoClient, database);
+		MongoTemplate template = new MongoTemplate(databaseFactory, converter);
+		SubjectDictionary subjectDictionary = new SubjectDictionary(databaseFactory, false);
+		StudentRepo studentRepo = new MongoRepositoryFactory(template).getRepository(StudentRepo.class,
+				new StudentMarksRepoImpl(template, subjectDictionary));
+		MarksBucketStore marksBucketStore = new MarksBucketStore(template, subjectDictionary);
+		IndexesManager indexesManager = new IndexesManager(template);
+		MarksRollups marksRollups = new MarksRollups(template, subjectDictionary, marksBucketStore, indexesManager);
+		StudentsServiceImpl service = new StudentsServiceImpl(studentRepo, template, new PhonePrefixIndex(template),
+				new Leaderboard(template), new StudentsCache(false, 1, 1, Duration.ofMinutes(1)),
+				new MarksSummaryUpdater(template, marksBucketStore), marksBucketStore, subjectDictionary,
+				new MarksAnalytics(template, false, false, null), marksRollups);
+		service.marksBatchSize = marksBatchSize;
+		service.studentsBatchSize = studentsBatchSize;
+		service.multiGetChunkSize = multiGetChunkSize;
+		try {
+			checkLayout(template, index, nPartitions);
+			indexesManager.createIndexes();
+		} catch (RuntimeException e) {
+			mongoClient.close();
+			throw e;
+		}
+		log.debug("partition {} is database {}", index, database);
+		return new Partition(index, mongoClient, template, service, marksRollups);
+	}
+
+	/**
+	 * stores a given index and amount of the partitions in the database of a
+	 * partition at its first start
+	 * 
+	 * @throws IllegalStateException if the database has been another partition
+	 *                               or a partition of another amount
+	 */
+	private static void checkLayout(MongoTemplate template, int index, int nPartitions) {
+		Document layout = template.findAndModify(new Query(Criteria.where("_id").is(LAYOUT_ID)),
+				new Update().setOnInsert("index", index).setOnInsert("count", nPartitions),
+				FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, LAYOUT_COLLECTION);
+		int storedIndex = layout.getInteger("index");
+		int storedCount = layout.getInteger("count");
+		if (storedIndex != index || storedCount != nPartitions) {
+			throw new IllegalStateException(("database %s is partition %d of %d, but it's configured as partition"
+					+ " %d of %d: the students would be routed to other partitions").formatted(
+							template.getDb().getName(), storedIndex, storedCount, index, nPartitions));
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		partitions.forEach(partition -> partition.mongoClient().close());
+	}
+
+	Partition partition(long id) {
+		return partitions.get(Math.floorMod(Long.hashCode(id * HASH_MULTIPLIER), partitions.size()));
+	}
+
+	private StudentsServiceImpl service(long id) {
+		return partition(id).service();
+	}
+
+	/**
+	 * runs a given query on given partitions in parallel on virtual threads
+	 * 
+	 * @return results in the order of the partitions
+	 */
+	private <T> List<T> scatter(Collection<Partition> targets, Function<Partition, T> query) {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<T>> futures = targets.stream().map(partition -> executor.submit(() -> query.apply(partition)))
+					.toList();
+			return futures.stream().map(StudentsServiceImpl::await).toList();
+		}
+	}
+
+	private <T> List<T> scatter(Function<Partition, T> query) {
+		return scatter(partitions, query);
+	}
+
+	/**
+	 * 
+	 * @return given values grouped by the partitions of their ids
+	 */
+	private <T> Map<Partition, List<T>> groupByPartition(Collection<T> values, Function<T, Long> idMapper) {
+		Map<Partition, List<T>> res = new LinkedHashMap<>();
+		values.forEach(value -> res.computeIfAbsent(partition(idMapper.apply(value)), k -> new ArrayList<>())
+				.add(value));
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param lists      lists sorted by a given comparator
+	 * @param comparator
+	 * @param limit
+	 * @return at most limit least elements of all lists, the lists are merged by a
+	 *         heap of their heads
+	 */
+	static <T> List<T> mergeSorted(List<List<T>> lists, Comparator<? super T> comparator, int limit) {
+		Iterator<T> it = mergeIterators(lists.stream().map(List::iterator).toList(), comparator);
+		List<T> res = new ArrayList<>();
+		while (it.hasNext() && res.size() < limit) {
+			res.add(it.next());
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param iterators  iterators sorted by a given comparator
+	 * @param comparator
+	 * @return iterator over the elements of all iterators merged lazily by a heap
+	 *         of their heads
+	 */
+	static <T> Iterator<T> mergeIterators(List<Iterator<T>> iterators, Comparator<? super T> comparator) {
+		record Head<E>(E value, Iterator<E> rest) {
+		}
+		PriorityQueue<Head<T>> heap = new PriorityQueue<>((head1, head2) -> comparator.compare(head1.value(),
+				head2.value()));
+		iterators.forEach(it -> {
+			if (it.hasNext()) {
+				heap.add(new Head<>(it.next(), it));
+			}
+		});
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return !heap.isEmpty();
+			}
+
+			@Override
+			public T next() {
+				if (heap.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Head<T> head = heap.poll();
+				if (head.rest().hasNext()) {
+					heap.add(new Head<>(head.rest().next(), head.rest()));
+				}
+				return head.value();
+			}
+		};
+	}
+
+	/**
+	 * 
+	 * @param query      query sorted by a given comparator
+	 * @param comparator
+	 * @return documents of a given query of all partitions merged by a given
+	 *         comparator, the stream must be closed
+	 */
+	public <T> Stream<T> stream(Query query, Class<T> documentClass, Comparator<? super T> comparator) {
+		List<Stream<T>> streams = new ArrayList<>();
+		try {
+			partitions.forEach(partition -> streams.add(partition.mongoTemplate().stream(query, documentClass)));
+		} catch (RuntimeException e) {
+			streams.forEach(Stream::close);
+			throw e;
+		}
+		Iterator<T> it = mergeIterators(streams.stream().map(Stream::iterator).toList(), comparator);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false)
+				.onClose(() -> streams.forEach(Stream::close));
+	}
+
+	/**
+	 * 
+	 * @return documents of a given query of all partitions in the order of the
+	 *         partitions
+	 */
+	public <T> List<T> find(Query query, Class<T> documentClass) {
+		List<T> res = new ArrayList<>();
+		scatter(partition -> partition.mongoTemplate().find(query, documentClass)).forEach(res::addAll);
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return map phone number -> index of the partition having a student with it,
+	 *         for given phone numbers
+	 */
+	private Map<String, Integer> findPhonePartitions(Collection<String> phones) {
+		Query query = new Query(Criteria.where("phone").in(phones));
+		query.fields().include("phone");
+		Map<String, Integer> res = new HashMap<>();
+		scatter(partition -> partition.mongoTemplate().find(query, StudentDoc.class).stream()
+				.map(doc -> Map.entry(doc.getPhone(), partition.index())).toList())
+				.forEach(entries -> entries.forEach(entry -> res.put(entry.getKey(), entry.getValue())));
+		return res;
+	}
+
+	/**
+	 * 
+	 * @throws PhoneIllegalStateException if a given phone number belongs to a
+	 *                                    student of a partition other than the
+	 *                                    partition of a given id
+	 */
+	private void checkPhone(long id, String phoneNumber) {
+		Integer phonePartition = findPhonePartitions(List.of(phoneNumber)).get(phoneNumber);
+		if (phonePartition != null && phonePartition != partition(id).index()) {
+			log.error("phone number {} belongs to a student of partition {}", phoneNumber, phonePartition);
+			throw new PhoneIllegalStateException();
+		}
+	}
+
+	private List<Student> gatherStudents(Function<StudentsServiceImpl, List<Student>> query) {
+		return gatherStudents(query, Comparator.comparingLong(Student::id));
+	}
+
+	private List<Student> gatherStudents(Function<StudentsServiceImpl, List<Student>> query,
+			Comparator<Student> comparator) {
+		List<Student> res = new ArrayList<>();
+		scatter(partition -> query.apply(partition.service())).forEach(res::addAll);
+		res.sort(comparator);
+		return res;
+	}
+
+	private List<Student> gatherStudentsPage(Function<StudentsServiceImpl, List<Student>> pageQuery, int limit) {
+		StudentsServiceImpl.checkLimit(limit);
+		return mergeSorted(scatter(partition -> pageQuery.apply(partition.service())),
+				Comparator.comparingLong(Student::id), limit);
+	}
+
+	private <T> Stream<T> concatStreams(Function<StudentsServiceImpl, Stream<T>> streamQuery) {
+		return partitions.stream().flatMap(partition -> streamQuery.apply(partition.service()));
+	}
+
+	@Override
+	public Student addStudent(Student student) {
+		checkPhone(student.id(), student.phone());
+		return service(student.id()).addStudent(student);
+	}
+
+	/**
+	 * {@inheritDoc} Students having phone numbers of the students of other
+	 * partitions, existing or preceding in the list, aren't added either
+	 */
+	@Override
+	public List<Long> addStudents(List<Student> students) {
+		Map<String, Integer> phonePartitions = findPhonePartitions(students.stream().map(Student::phone).toList());
+		List<Student> checkedStudents = new ArrayList<>();
+		List<Long> phoneDuplicateIds = new ArrayList<>();
+		for (Student student : students) {
+			int index = partition(student.id()).index();
+			if (phonePartitions.computeIfAbsent(student.phone(), phone -> index) == index) {
+				checkedStudents.add(student);
+			} else {
+				phoneDuplicateIds.add(student.id());
+			}
+		}
+		Map<Partition, List<Student>> groups = groupByPartition(checkedStudents, Student::id);
+		List<Long> res = new ArrayList<>();
+		scatter(groups.keySet(), partition -> partition.service().addStudents(groups.get(partition)))
+				.forEach(res::addAll);
+		if (!phoneDuplicateIds.isEmpty()) {
+			log.error("students with ids: {} have phone numbers of the students of other partitions",
+					phoneDuplicateIds);
+			throw new PhoneIllegalStateException();
+		}
+		return res;
+	}
+
+	@Override
+	public Mark addMark(long id, Mark mark) {
+		return service(id).addMark(id, mark);
+	}
+
+	@Override
+	public List<Long> addMarks(Map<Long, List<Mark>> marks) {
+		// checked before any partition is written
+		marks.values().forEach(StudentsServiceImpl::checkScores);
+		Map<Partition, List<Long>> groups = groupByPartition(marks.keySet(), id -> id);
+		List<Long> res = new ArrayList<>();
+		scatter(groups.keySet(), partition -> {
+			Map<Long, List<Mark>> partitionMarks = new LinkedHashMap<>();
+			groups.get(partition).forEach(id -> partitionMarks.put(id, marks.get(id)));
+			return partition.service().addMarks(partitionMarks);
+		}).forEach(res::addAll);
+		return res;
+	}
+
+	@Override
+	public List<Long> addMarks(Stream<StudentMark> marks) {
+		return StudentsServiceImpl.addMarksInBatches(marks, marksBatchSize, this::addMarks);
+	}
+
+	@Override
+	public Student updatePhoneNumber(long id, String phoneNumber) {
+		checkPhone(id, phoneNumber);
+		return service(id).updatePhoneNumber(id, phoneNumber);
+	}
+
+	@Override
+	public Mark updateMark(long id, Mark oldMark, Mark newMark) {
+		return service(id).updateMark(id, oldMark, newMark);
+	}
+
+	@Override
+	public Mark removeMark(long id, Mark mark) {
+		return service(id).removeMark(id, mark);
+	}
+
+	@Override
+	public Student removeStudent(long id) {
+		return service(id).removeStudent(id);
+	}
+
+	@Override
+	public Student getStudent(long id) {
+		return service(id).getStudent(id);
+	}
+
+	@Override
+	public List<Mark> getMarks(long id) {
+		return service(id).getMarks(id);
+	}
+
+	@Override
+	public MultiGetResult<Student> getStudents(Collection<Long> ids) {
+		return multiGet(ids, (service, partitionIds) -> service.getStudents(partitionIds));
+	}
+
+	@Override
+	public MultiGetResult<List<Mark>> getMarks(Collection<Long> ids) {
+		return multiGet(ids, (service, partitionIds) -> service.getMarks(partitionIds));
+	}
+
+	private <T> MultiGetResult<T> multiGet(Collection<Long> ids,
+			BiFunction<StudentsServiceImpl, List<Long>, MultiGetResult<T>> partitionGetter) {
+		Map<Partition, List<Long>> groups = groupByPartition(new LinkedHashSet<>(ids), id -> id);
+		Map<Long, T> found = new HashMap<>();
+		scatter(groups.keySet(), partition -> partitionGetter.apply(partition.service(), groups.get(partition)))
+				.forEach(partitionResult -> found.putAll(partitionResult.found()));
+		MultiGetResult<T> res = StudentsServiceImpl.multiGetResult(ids, found);
+		log.debug("found {} values in {} partitions, not found ids {}", res.found().size(), groups.size(),
+				res.missingIds());
+		return res;
+	}
+
+	@Override
+	public List<Mark> getMarks(long id, int offset, int limit) {
+		return service(id).getMarks(id, offset, limit);
+	}
+
+	@Override
+	public List<Mark> getLatestMarks(long id, int nMarks) {
+		return service(id).getLatestMarks(id, nMarks);
+	}
+
+	@Override
+	public List<Mark> getMarksSortedByDate(long id, int offset, int limit) {
+		return service(id).getMarksSortedByDate(id, offset, limit);
+	}
+
+	@Override
+	public Student getStudentByPhoneNumber(String phoneNumber) {
+		Student res = scatter(partition -> partition.service().getStudentByPhoneNumber(phoneNumber)).stream()
+				.filter(Objects::nonNull).findFirst().orElse(null);
+		log.debug("student {}", res);
+		return res;
+	}
+
+	@Override
+	public List<Student> getStudentsByPhonePrefix(String prefix) {
+		return gatherStudents(service -> service.getStudentsByPhonePrefix(prefix),
+				Comparator.comparing(Student::phone));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksDate(LocalDate date) {
+		return gatherStudents(service -> service.getStudentsMarksDate(date));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksMonthYear(int month, int year) {
+		return gatherStudents(service -> service.getStudentsMarksMonthYear(month, year));
+	}
+
+	@Override
+	public List<Student> getStudentsGoodSubjectMark(String subject, int markThreshold) {
+		return gatherStudents(service -> service.getStudentsGoodSubjectMark(subject, markThreshold));
+	}
+
+	@Override
+	public List<Student> getStudentsAllGoodMarks(int markThreshold) {
+		return gatherStudents(service -> service.getStudentsAllGoodMarks(markThreshold));
+	}
+
+	@Override
+	public List<Student> getStudentsFewMarks(int nMarks) {
+		return gatherStudents(service -> service.getStudentsFewMarks(nMarks));
+	}
+
+	@Override
+	public List<Mark> getStudentMarksSubject(long id, String subject) {
+		return service(id).getStudentMarksSubject(id, subject);
+	}
+
+	/**
+	 * average scores of a student are computed in its partition. The partial lists
+	 * are merged by the exact average before it is truncated to int
+	 */
+	@Override
+	public List<StudentAvgScore> getStudentsAvgScoreGreater(int avgThreshold) {
+		List<List<Document>> partialResults = scatter(partition -> partition.mongoTemplate()
+				.aggregate(StudentsServiceImpl.avgScoreGreaterPipeline(avgThreshold), StudentDoc.class, Document.class)
+				.getMappedResults());
+		List<StudentAvgScore> res = mergeSorted(partialResults,
+				Comparator.comparing((Document document) -> document.getDouble("avgScore")).reversed(),
+				Integer.MAX_VALUE).stream().map(StudentsServiceImpl::toStudentAvgScore).toList();
+		log.debug("students with avg scores greater than {} are {}", avgThreshold, res);
+		return res;
+	}
+
+	@Override
+	public List<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore) {
+		return gatherStudents(service -> service.getStudentsAllGoodMarksSubject(subject, thresholdScore));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksAmountBetween(int min, int max) {
+		return gatherStudents(service -> service.getStudentsMarksAmountBetween(min, max));
+	}
+
+	@Override
+	public List<Mark> getStudentMarksAtDates(long id, LocalDate from, LocalDate to) {
+		return service(id).getStudentMarksAtDates(id, from, to);
+	}
+
+	@Override
+	public List<Long> getBestStudents(int nStudents) {
+		List<List<StudentDoc>> partialResults = scatter(partition -> partition.mongoTemplate()
+				.find(StudentsServiceImpl.bestStudentsQuery(nStudents), StudentDoc.class));
+		List<Long> res = mergeSorted(partialResults,
+				Comparator.comparingInt(StudentDoc::getGoodMarksCount).reversed().thenComparingLong(StudentDoc::getId),
+				nStudents).stream().map(StudentDoc::getId).toList();
+		log.debug("{} best students  are {}", nStudents, res);
+		return res;
+	}
+
+	@Override
+	public List<Long> getWorstStudents(int nStudents) {
+		List<List<StudentDoc>> partialResults = scatter(partition -> partition.mongoTemplate()
+				.find(StudentsServiceImpl.worstStudentsQuery(nStudents), StudentDoc.class));
+		List<Long> res = mergeSorted(partialResults,
+				Comparator.comparingLong(StudentDoc::getScoreSum).thenComparingLong(StudentDoc::getId), nStudents)
+				.stream().map(StudentDoc::getId).toList();
+		log.debug("{} worst students are {}", nStudents, res);
+		return res;
+	}
+
+	@Override
+	public int getRank(long id) {
+		Query studentQuery = new Query(Criteria.where("id").is(id));
+		studentQuery.fields().include("id", "goodMarksCount");
+		StudentDoc studentDoc = partition(id).mongoTemplate().findOne(studentQuery, StudentDoc.class);
+		if (studentDoc == null) {
+			log.error("Student with id: {} not found", id);
+			throw new StudentNotFoundException();
+		}
+		int goodMarksCount = studentDoc.getGoodMarksCount();
+		int res = scatter(partition -> partition.mongoTemplate()
+				.count(StudentsServiceImpl.aheadQuery(id, goodMarksCount), StudentDoc.class)).stream()
+				.mapToInt(Long::intValue).sum() + 1;
+		log.debug("rank of student with id {} is {}", id, res);
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return rollup of the marks of all partitions merged from the partial
+	 *         counts, sums and amounts of each score
+	 */
+	private MarksRollupDoc gatherRollup(String subject, YearMonth from, YearMonth to) {
+		MarksRollupDoc res = new MarksRollupDoc(subject, from.getYear() * 100 + from.getMonthValue());
+		scatter(partition -> partition.marksRollups().getRollup(subject, from, to)).forEach(res::merge);
+		return res;
+	}
+
+	@Override
+	public MarksStats getSubjectMarksStats(String subject, int month, int year) {
+		YearMonth yearMonth = YearMonth.of(year, month);
+		return gatherRollup(subject, yearMonth, yearMonth).build();
+	}
+
+	@Override
+	public MarksStats getMarksStats(int month, int year) {
+		YearMonth yearMonth = YearMonth.of(year, month);
+		return gatherRollup(null, yearMonth, yearMonth).build();
+	}
+
+	@Override
+	public Integer getScorePercentile(String subject, YearMonth from, YearMonth to, double percentile) {
+		return gatherRollup(subject, from, to).percentile(percentile);
+	}
+
+	@Override
+	public List<Long> getScoreHistogram(String subject, YearMonth from, YearMonth to, int bucketWidth) {
+		return gatherRollup(subject, from, to).histogram(bucketWidth);
+	}
+
+	// streams of the partitions are concatenated, so they aren't ordered across the
+	// partitions; pages are merged by id
+	@Override
+	public Stream<Student> streamStudentsByPhonePrefix(String prefix) {
+		return concatStreams(service -> service.streamStudentsByPhonePrefix(prefix));
+	}
+
+	@Override
+	public List<Student> getStudentsByPhonePrefix(String prefix, long afterId, int limit) {
+		return gatherStudentsPage(service -> service.getStudentsByPhonePrefix(prefix, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsMarksDate(LocalDate date) {
+		return concatStreams(service -> service.streamStudentsMarksDate(date));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksDate(LocalDate date, long afterId, int limit) {
+		return gatherStudentsPage(service -> service.getStudentsMarksDate(date, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsMarksMonthYear(int month, int year) {
+		return concatStreams(service -> service.streamStudentsMarksMonthYear(month, year));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksMonthYear(int month, int year, long afterId, int limit) {
+		return gatherStudentsPage(service -> service.getStudentsMarksMonthYear(month, year, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsGoodSubjectMark(String subject, int markThreshold) {
+		return concatStreams(service -> service.streamStudentsGoodSubjectMark(subject, markThreshold));
+	}
+
+	@Override
+	public List<Student> getStudentsGoodSubjectMark(String subject, int markThreshold, long afterId, int limit) {
+		return gatherStudentsPage(
+				service -> service.getStudentsGoodSubjectMark(subject, markThreshold, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsAllGoodMarks(int markThreshold) {
+		return concatStreams(service -> service.streamStudentsAllGoodMarks(markThreshold));
+	}
+
+	@Override
+	public List<Student> getStudentsAllGoodMarks(int markThreshold, long afterId, int limit) {
+		return gatherStudentsPage(service -> service.getStudentsAllGoodMarks(markThreshold, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsFewMarks(int nMarks) {
+		return concatStreams(service -> service.streamStudentsFewMarks(nMarks));
+	}
+
+	@Override
+	public List<Student> getStudentsFewMarks(int nMarks, long afterId, int limit) {
+		return gatherStudentsPage(service -> service.getStudentsFewMarks(nMarks, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsAllGoodMarksSubject(String subject, int thresholdScore) {
+		return concatStreams(service -> service.streamStudentsAllGoodMarksSubject(subject, thresholdScore));
+	}
+
+	@Override
+	public List<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore, long afterId,
+			int limit) {
+		return gatherStudentsPage(
+				service -> service.getStudentsAllGoodMarksSubject(subject, thresholdScore, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsMarksAmountBetween(int min, int max) {
+		return concatStreams(service -> service.streamStudentsMarksAmountBetween(min, max));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksAmountBetween(int min, int max, long afterId, int limit) {
+		return gatherStudentsPage(service -> service.getStudentsMarksAmountBetween(min, max, afterId, limit), limit);
+	}
+
+	@Override
+	public Stream<StudentAvgScore> streamStudentsAvgScoreGreater(int avgThreshold) {
+		return concatStreams(service -> service.streamStudentsAvgScoreGreater(avgThreshold));
+	}
+}
@@ -0,0 +1,155 @@
+package telran.students.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import telran.students.dto.*;
+
+/**
+ * Non-blocking counterpart of {@link StudentsService}. The methods returning
+ * Mono fail with the same exceptions as the blocking ones, the list queries
+ * are streamed from the cursor with back-pressure. For that reason the keyset
+ * pages and the streams of the blocking service have no counterparts here
+ */
+public interface ReactiveStudentsService {
+	Mono<Student> addStudent(Student student);
+
+	/**
+	 * 
+	 * @param students students to be added
+	 * @return ids of the students that already exist. All other students are
+	 *         added, students having phone numbers of other students aren't added
+	 *         either: after all other students are added the Flux fails with
+	 *         PhoneIllegalStateException
+	 */
+	Flux<Long> addStudents(List<Student> students);
+
+	Mono<Mark> addMark(long id, Mark mark);
+
+	/**
+	 * 
+	 * @param marks marks grouped by student id. A score out of 0 - 100 rejects
+	 *              all the marks with IllegalArgumentException
+	 * @return ids of the students that have not been found. Marks of all other
+	 *         students are added
+	 */
+	Flux<Long> addMarks(Map<Long, List<Mark>> marks);
+
+	/**
+	 * 
+	 * @param marks marks consumed in batches as the writes complete
+	 * @return ids of the students that have not been found. Marks of all other
+	 *         students are added
+	 */
+	Flux<Long> addMarks(Flux<StudentMark> marks);
+
+	Mono<Student> updatePhoneNumber(long id, String phoneNumber);
+
+	Mono<Mark> updateMark(long id, Mark oldMark, Mark newMark);
+
+	Mono<Mark> removeMark(long id, Mark mark);
+
+	Mono<Student> removeStudent(long id);
+
+	Mono<Student> getStudent(long id);
+
+	Flux<Mark> getMarks(long id);
+
+	/**
+	 * 
+	 * @return students found by given ids in the order of the ids and the ids of
+	 *         not existing students
+	 */
+	Mono<MultiGetResult<Student>> getStudents(Collection<Long> ids);
+
+	/**
+	 * 
+	 * @return marks of the students found by given ids in the order of the ids
+	 *         and the ids of not existing students
+	 */
+	Mono<MultiGetResult<List<Mark>>> getMarks(Collection<Long> ids);
+
+	Flux<Mark> getMarks(long id, int offset, int limit);
+
+	Flux<Mark> getLatestMarks(long id, int nMarks);
+
+	/**
+	 * 
+	 * @return at most limit marks of a given student starting from offset in the
+	 *         order of dates. Negative offset or not positive limit fails with
+	 *         IllegalArgumentException
+	 */
+	Flux<Mark> getMarksSortedByDate(long id, int offset, int limit);
+
+	/**
+	 * 
+	 * @param phoneNumber
+	 * @return student having a given phone number or empty
+	 */
+	Mono<Student> getStudentByPhoneNumber(String phoneNumber);
+
+	Flux<Student> getStudentsByPhonePrefix(String prefix);
+
+	Flux<Student> getStudentsMarksDate(LocalDate date);
+
+	Flux<Student> getStudentsMarksMonthYear(int month, int year);
+
+	Flux<Student> getStudentsGoodSubjectMark(String subject, int markThreshold);
+
+	Flux<Student> getStudentsAllGoodMarks(int markThreshold);
+
+	Flux<Student> getStudentsFewMarks(int nMarks);
+
+	Flux<Mark> getStudentMarksSubject(long id, String subject);
+
+	Flux<StudentAvgScore> getStudentsAvgScoreGreater(int avgThreshold);
+
+	Flux<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore);
+
+	Flux<Student> getStudentsMarksAmountBetween(int min, int max);
+
+	Flux<Mark> getStudentMarksAtDates(long id, LocalDate from, LocalDate to);
+
+	Flux<Long> getBestStudents(int nStudents);
+
+	Flux<Long> getWorstStudents(int nStudents);
+
+	Mono<Integer> getRank(long id);
+
+	/**
+	 * 
+	 * @return count, sum, min, max, average and histogram of the scores of a given
+	 *         subject in a given month
+	 */
+	Mono<MarksStats> getSubjectMarksStats(String subject, int month, int year);
+
+	/**
+	 * 
+	 * @return statistics of the scores of all subjects in a given month
+	 */
+	Mono<MarksStats> getMarksStats(int month, int year);
+
+	/**
+	 * 
+	 * @param subject    null for all subjects
+	 * @param percentile 0 - 100
+	 * @return the least score such that at least a given percent of the scores of
+	 *         a given subject in the months from - to are less or equal to it,
+	 *         empty if there are no such scores
+	 */
+	Mono<Integer> getScorePercentile(String subject, YearMonth from, YearMonth to, double percentile);
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return amounts of the scores of a given subject in the months from - to in
+	 *         the buckets of a given width, see
+	 *         {@link StudentsService#getScoreHistogram}
+	 */
+	Flux<Long> getScoreHistogram(String subject, YearMonth from, YearMonth to, int bucketWidth);
+}
@@ -0,0 +1,495 @@
+package telran.students.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import telran.students.analytics.MarksAnalytics;
+import telran.students.cache.StudentsCache;
+import telran.students.dto.*;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.exceptions.MarkNotFoundException;
+import telran.students.exceptions.PhoneIllegalStateException;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.indexes.PhonePrefixIndex;
+import telran.students.leaderboard.Leaderboard;
+import telran.students.model.MarksRollupDoc;
+import telran.students.model.StudentDoc;
+import telran.students.repo.ReactiveStudentRepo;
+import telran.students.rollups.MarksRollups;
+
+/**
+ * Implementation of {@link ReactiveStudentsService} active in the profile
+ * "reactive". It works on the embedded marks of the standard encoding only,
+ * the in-memory phone index, leaderboard and cache aren't maintained by it and
+ * must be disabled
+ */
+@Service
+@Profile("reactive")
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveStudentsServiceImpl implements ReactiveStudentsService {
+	final ReactiveStudentRepo studentRepo;
+	final ReactiveMongoTemplate mongoTemplate;
+	final MarksBucketStore marksBucketStore;
+	final SubjectDictionary subjectDictionary;
+	final PhonePrefixIndex phonePrefixIndex;
+	final Leaderboard leaderboard;
+	final StudentsCache studentsCache;
+	final MarksAnalytics marksAnalytics;
+	final MarksRollups marksRollups;
+	FindAndModifyOptions options = new FindAndModifyOptions().returnNew(true).upsert(false);
+	@Value("${app.marks.batch.size:1000}")
+	int marksBatchSize;
+	@Value("${app.students.batch.size:1000}")
+	int studentsBatchSize;
+	@Value("${app.multi-get.chunk-size:500}")
+	int multiGetChunkSize;
+	@Value("${app.multi-get.parallelism:8}")
+	int multiGetParallelism = 8;
+
+	@PostConstruct
+	void checkConfiguration() {
+		if (marksBucketStore.isEnabled() || subjectDictionary.isEnabled() || phonePrefixIndex.isEnabled()
+				|| leaderboard.isEnabled() || studentsCache.isEnabled() || marksAnalytics.isEnabled()
+				|| marksRollups.isEnabled()) {
+			throw new IllegalStateException("reactive students service requires app.marks.storage=embedded, "
+					+ "app.marks.encoding=standard and disabled phone index, leaderboard, cache, analytics "
+					+ "and rollups");
+		}
+	}
+
+	@Override
+	public Mono<Student> addStudent(Student student) {
+		return mongoTemplate.insert(new StudentDoc(student)).map(doc -> student)
+				.onErrorMap(DuplicateKeyException.class, e -> StudentsServiceImpl.duplicateStudentException(e, student))
+				.doOnNext(s -> log.debug("student: {} has been added", s));
+	}
+
+	/**
+	 * {@inheritDoc} The students are inserted by unordered bulk inserts of
+	 * app.students.batch.size one after another
+	 */
+	@Override
+	public Flux<Long> addStudents(List<Student> students) {
+		return Flux.defer(() -> {
+			List<Long> phoneDuplicateIds = new ArrayList<>();
+			return Flux.range(0, (students.size() + studentsBatchSize - 1) / studentsBatchSize)
+					.concatMap(i -> insertStudents(students.subList(i * studentsBatchSize,
+							Math.min((i + 1) * studentsBatchSize, students.size())), phoneDuplicateIds))
+					.concatWith(Mono.<Long>defer(() -> {
+						if (phoneDuplicateIds.isEmpty()) {
+							return Mono.empty();
+						}
+						log.error("students with ids: {} have phone numbers of other students", phoneDuplicateIds);
+						return Mono.error(new PhoneIllegalStateException());
+					}));
+		});
+	}
+
+	/**
+	 * 
+	 * @param phoneDuplicateIds collects ids of the students having phone numbers
+	 *                          of other students
+	 * @return ids of the students that already exist
+	 */
+	private Flux<Long> insertStudents(List<Student> students, List<Long> phoneDuplicateIds) {
+		List<Document> documents = students.stream().map(student -> {
+			Document document = new Document();
+			mongoTemplate.getConverter().write(new StudentDoc(student), document);
+			return document;
+		}).toList();
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.flatMap(collection -> Mono
+						.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+				.thenMany(Flux.<Long>empty()).onErrorResume(MongoBulkWriteException.class, e -> {
+					List<Long> res = new ArrayList<>();
+					for (BulkWriteError error : e.getWriteErrors()) {
+						if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+							return Flux.error(e);
+						}
+						long id = students.get(error.getIndex()).id();
+						(StudentsServiceImpl.isPhoneDuplicate(error.getMessage()) ? phoneDuplicateIds : res).add(id);
+					}
+					if (!res.isEmpty()) {
+						log.error("students with ids: {} already exist", res);
+					}
+					return Flux.fromIterable(res);
+				});
+	}
+
+	@Override
+	public Mono<Mark> addMark(long id, Mark mark) {
+		try {
+			StudentsServiceImpl.checkScores(List.of(mark));
+		} catch (IllegalArgumentException e) {
+			return Mono.error(e);
+		}
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().include("id");
+		Update update = StudentsServiceImpl.marksSummaryUpdate(List.of(mark)).push("marks", mark);
+		return mongoTemplate.findAndModify(query, update, options, StudentDoc.class)
+				.switchIfEmpty(studentNotFound(id)).map(doc -> mark)
+				.doOnNext(m -> log.debug("mark {} has been added for student with id: {}", m, id));
+	}
+
+	@Override
+	public Flux<Long> addMarks(Flux<StudentMark> marks) {
+		return marks.buffer(marksBatchSize).concatMap(this::addMarksBatch).distinct();
+	}
+
+	private Flux<Long> addMarksBatch(List<StudentMark> batch) {
+		Map<Long, List<Mark>> marks = new LinkedHashMap<>();
+		batch.forEach(sm -> marks.computeIfAbsent(sm.id(), k -> new ArrayList<>()).add(sm.mark()));
+		return addMarks(marks);
+	}
+
+	@Override
+	public Flux<Long> addMarks(Map<Long, List<Mark>> marks) {
+		try {
+			marks.values().forEach(StudentsServiceImpl::checkScores);
+		} catch (IllegalArgumentException e) {
+			return Flux.error(e);
+		}
+		Map<Long, List<Mark>> notEmptyMarks = new LinkedHashMap<>(marks);
+		notEmptyMarks.values().removeIf(List::isEmpty);
+		return notEmptyMarks.isEmpty() ? Flux.empty() : pushMarks(notEmptyMarks);
+	}
+
+	private Flux<Long> pushMarks(Map<Long, List<Mark>> marks) {
+		ReactiveBulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentDoc.class);
+		marks.forEach((id, studentMarks) -> bulkOperations.updateOne(new Query(Criteria.where("id").is(id)),
+				StudentsServiceImpl.marksSummaryUpdate(studentMarks).push("marks").each(studentMarks.toArray())));
+		return bulkOperations.execute().flatMapMany(result -> {
+			log.debug("marks for {} students have been added", result.getModifiedCount());
+			return result.getMatchedCount() < marks.size() ? findNotExistingIds(marks.keySet()) : Flux.empty();
+		});
+	}
+
+	private Flux<Long> findNotExistingIds(Collection<Long> ids) {
+		Query query = new Query(Criteria.where("id").in(ids));
+		query.fields().include("id");
+		return mongoTemplate.find(query, StudentDoc.class).map(StudentDoc::getId).collect(Collectors.toSet())
+				.flatMapIterable(existingIds -> ids.stream().filter(id -> !existingIds.contains(id)).toList())
+				.doOnNext(id -> log.error("student with id: {} not found", id));
+	}
+
+	@Override
+	public Mono<Student> updatePhoneNumber(long id, String phoneNumber) {
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().include("id");
+		return mongoTemplate.findAndModify(query, new Update().set("phone", phoneNumber), StudentDoc.class)
+				.onErrorMap(DuplicateKeyException.class, e -> {
+					log.error("phone number {} belongs to another student", phoneNumber);
+					return new PhoneIllegalStateException();
+				}).switchIfEmpty(studentNotFound(id)).map(doc -> new Student(id, phoneNumber))
+				.doOnNext(s -> log.debug("Student {} has been saved ", s));
+	}
+
+	@Override
+	public Mono<Mark> updateMark(long id, Mark oldMark, Mark newMark) {
+		try {
+			StudentsServiceImpl.checkScores(List.of(newMark));
+		} catch (IllegalArgumentException e) {
+			return Mono.error(e);
+		}
+		Query query = new Query(Criteria.where("id").is(id).and("marks")
+				.elemMatch(StudentsServiceImpl.markCriteria(subjectDictionary, oldMark)));
+		return mongoTemplate.updateFirst(query, new Update().set("marks.$", newMark), StudentDoc.class)
+				.flatMap(result -> result.getMatchedCount() > 0 ? recalculateSummary(id).thenReturn(newMark)
+						: markNotFound(id, oldMark))
+				.doOnNext(m -> log.debug("mark {} of student with id {} has been replaced with {}", oldMark, id, m));
+	}
+
+	@Override
+	public Mono<Mark> removeMark(long id, Mark mark) {
+		Document markIndex = StudentsServiceImpl.markIndexExpression(subjectDictionary, mark);
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.flatMap(collection -> Mono.from(collection.updateOne(
+						StudentsServiceImpl.removeMarkFilter("_id", id, markIndex),
+						StudentsServiceImpl.removeMarkPipeline(markIndex))))
+				.flatMap(result -> result.getMatchedCount() > 0 ? recalculateSummary(id).thenReturn(mark)
+						: markNotFound(id, mark))
+				.doOnNext(m -> log.debug("mark {} of student with id {} has been removed", m, id));
+	}
+
+	private <T> Mono<T> markNotFound(long id, Mark mark) {
+		return studentRepo.existsById(id).flatMap(exists -> {
+			if (!exists) {
+				log.error("Student with id: {} not found", id);
+				return Mono.error(new StudentNotFoundException());
+			}
+			log.error("mark {} of student with id {} not found", mark, id);
+			return Mono.error(new MarkNotFoundException());
+		});
+	}
+
+	private Mono<Void> recalculateSummary(long id) {
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+				.flatMap(collection -> Mono.from(
+						collection.updateOne(Filters.eq("_id", id), MarksSummaryUpdater.RECALCULATE_PIPELINE)))
+				.then();
+	}
+
+	@Override
+	public Mono<Student> removeStudent(long id) {
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().include("id", "phone");
+		return mongoTemplate.findAndRemove(query, StudentDoc.class).switchIfEmpty(studentNotFound(id))
+				.map(StudentDoc::build).doOnNext(s -> log.debug("student with id {} has been removed", id));
+	}
+
+	@Override
+	public Mono<Student> getStudent(long id) {
+		return studentRepo.findStudentNoMarks(id).switchIfEmpty(studentNotFound(id)).map(StudentDoc::build)
+				.doOnNext(s -> log.debug("found student {}", s));
+	}
+
+	@Override
+	public Flux<Mark> getMarks(long id) {
+		return studentRepo.findStudentOnlyMarks(id).switchIfEmpty(studentNotFound(id))
+				.flatMapIterable(StudentDoc::getMarks);
+	}
+
+	@Override
+	public Mono<MultiGetResult<Student>> getStudents(Collection<Long> ids) {
+		return findByIds(ids, "id", "phone").collectMap(StudentDoc::getId, StudentDoc::build)
+				.map(found -> StudentsServiceImpl.multiGetResult(ids, found))
+				.doOnNext(res -> log.debug("found {} students, not found ids {}", res.found().size(),
+						res.missingIds()));
+	}
+
+	@Override
+	public Mono<MultiGetResult<List<Mark>>> getMarks(Collection<Long> ids) {
+		return findByIds(ids, "id", "marks").collectMap(StudentDoc::getId, StudentDoc::getMarks)
+				.map(found -> StudentsServiceImpl.multiGetResult(ids, found))
+				.doOnNext(res -> log.debug("found marks of {} students, not found ids {}", res.found().size(),
+						res.missingIds()));
+	}
+
+	/**
+	 * finds the students by chunks of app.multi-get.chunk-size ids, at most
+	 * app.multi-get.parallelism chunks are queried at once
+	 */
+	private Flux<StudentDoc> findByIds(Collection<Long> ids, String... fields) {
+		List<Long> idsList = List.copyOf(new LinkedHashSet<>(ids));
+		return Flux.range(0, (idsList.size() + multiGetChunkSize - 1) / multiGetChunkSize).flatMap(i -> {
+			Query query = new Query(Criteria.where("id").in(idsList.subList(i * multiGetChunkSize,
+					Math.min((i + 1) * multiGetChunkSize, idsList.size()))));
+			query.fields().include(fields);
+			return mongoTemplate.find(query, StudentDoc.class);
+		}, multiGetParallelism);
+	}
+
+	@Override
+	public Flux<Mark> getMarks(long id, int offset, int limit) {
+		try {
+			StudentsServiceImpl.checkSlice(offset, limit);
+		} catch (IllegalArgumentException e) {
+			return Flux.error(e);
+		}
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().slice("marks", offset, limit);
+		return findProjectedMarks(id, query);
+	}
+
+	@Override
+	public Flux<Mark> getLatestMarks(long id, int nMarks) {
+		if (nMarks < 0) {
+			return Flux.error(new IllegalArgumentException("amount of marks must not be negative"));
+		}
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().slice("marks", -nMarks);
+		return findProjectedMarks(id, query);
+	}
+
+	@Override
+	public Flux<Mark> getMarksSortedByDate(long id, int offset, int limit) {
+		try {
+			StudentsServiceImpl.checkSlice(offset, limit);
+		} catch (IllegalArgumentException e) {
+			return Flux.error(e);
+		}
+		return mongoTemplate.aggregate(StudentsServiceImpl.sortedMarksPipeline(subjectDictionary,
+				Criteria.where("id").is(id), Sort.by("index"), offset, limit), StudentDoc.class, Mark.class)
+				.switchIfEmpty(studentRepo.existsById(id)
+						.flatMapMany(exists -> exists ? Mono.<Mark>empty() : this.<Mark>studentNotFound(id)));
+	}
+
+	@Override
+	public Mono<Student> getStudentByPhoneNumber(String phoneNumber) {
+		return studentRepo.findByPhone(phoneNumber).map(ip -> new Student(ip.getId(), ip.getPhone()))
+				.doOnNext(s -> log.debug("student {}", s));
+	}
+
+	@Override
+	public Flux<Student> getStudentsByPhonePrefix(String prefix) {
+		Query query = new Query(StudentsServiceImpl.phonePrefixCriteria(prefix)).with(Sort.by("phone"));
+		query.fields().include("id", "phone");
+		return mongoTemplate.find(query, StudentDoc.class).map(StudentDoc::build);
+	}
+
+	@Override
+	public Flux<Student> getStudentsMarksDate(LocalDate date) {
+		return findStudentsAnyMark(StudentsServiceImpl.markDateCriteria(subjectDictionary, date), new Criteria());
+	}
+
+	@Override
+	public Flux<Student> getStudentsMarksMonthYear(int month, int year) {
+		return findStudentsAnyMark(StudentsServiceImpl.markMonthYearCriteria(subjectDictionary, month, year),
+				new Criteria());
+	}
+
+	@Override
+	public Flux<Student> getStudentsGoodSubjectMark(String subject, int markThreshold) {
+		return findStudentsAnyMark(
+				StudentsServiceImpl.goodSubjectMarkCriteria(subjectDictionary, subject, markThreshold), new Criteria());
+	}
+
+	@Override
+	public Flux<Student> getStudentsAllGoodMarks(int markThreshold) {
+		return findStudents(StudentsServiceImpl.allGoodMarksCriteria(markThreshold));
+	}
+
+	@Override
+	public Flux<Student> getStudentsFewMarks(int nMarks) {
+		return studentRepo.findFewMarks(nMarks).map(ip -> new Student(ip.getId(), ip.getPhone()));
+	}
+
+	@Override
+	public Flux<Mark> getStudentMarksSubject(long id, String subject) {
+		return findFilteredMarks(id, subjectDictionary.subjectExpression("mark.subject", subject));
+	}
+
+	@Override
+	public Flux<StudentAvgScore> getStudentsAvgScoreGreater(int avgThreshold) {
+		return mongoTemplate.aggregate(StudentsServiceImpl.avgScoreGreaterPipeline(avgThreshold), StudentDoc.class,
+				Document.class).map(StudentsServiceImpl::toStudentAvgScore);
+	}
+
+	@Override
+	public Flux<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore) {
+		return findStudentsAnyMark(StudentsServiceImpl.subjectMarkCriteria(subjectDictionary, subject),
+				StudentsServiceImpl.allGoodMarksCriteria(thresholdScore));
+	}
+
+	@Override
+	public Flux<Student> getStudentsMarksAmountBetween(int min, int max) {
+		return studentRepo.findMarksAmountBetween(min, max).map(ip -> new Student(ip.getId(), ip.getPhone()));
+	}
+
+	@Override
+	public Flux<Mark> getStudentMarksAtDates(long id, LocalDate from, LocalDate to) {
+		return findFilteredMarks(id, subjectDictionary.datesExpression("mark.date", from, to));
+	}
+
+	@Override
+	public Flux<Long> getBestStudents(int nStudents) {
+		return mongoTemplate.find(StudentsServiceImpl.bestStudentsQuery(nStudents), StudentDoc.class)
+				.map(StudentDoc::getId);
+	}
+
+	@Override
+	public Flux<Long> getWorstStudents(int nStudents) {
+		return mongoTemplate.find(StudentsServiceImpl.worstStudentsQuery(nStudents), StudentDoc.class)
+				.map(StudentDoc::getId);
+	}
+
+	@Override
+	public Mono<Integer> getRank(long id) {
+		Query studentQuery = new Query(Criteria.where("id").is(id));
+		studentQuery.fields().include("id", "goodMarksCount");
+		return mongoTemplate.findOne(studentQuery, StudentDoc.class).switchIfEmpty(studentNotFound(id))
+				.flatMap(doc -> mongoTemplate.count(StudentsServiceImpl.aheadQuery(id, doc.getGoodMarksCount()),
+						StudentDoc.class))
+				.map(count -> count.intValue() + 1);
+	}
+
+	@Override
+	public Mono<MarksStats> getSubjectMarksStats(String subject, int month, int year) {
+		YearMonth yearMonth = YearMonth.of(year, month);
+		return aggregateRollup(subject, yearMonth, yearMonth).map(MarksRollupDoc::build);
+	}
+
+	@Override
+	public Mono<MarksStats> getMarksStats(int month, int year) {
+		YearMonth yearMonth = YearMonth.of(year, month);
+		return aggregateRollup(null, yearMonth, yearMonth).map(MarksRollupDoc::build);
+	}
+
+	@Override
+	public Mono<Integer> getScorePercentile(String subject, YearMonth from, YearMonth to, double percentile) {
+		return aggregateRollup(subject, from, to).mapNotNull(rollup -> rollup.percentile(percentile));
+	}
+
+	@Override
+	public Flux<Long> getScoreHistogram(String subject, YearMonth from, YearMonth to, int bucketWidth) {
+		return aggregateRollup(subject, from, to).flatMapIterable(rollup -> rollup.histogram(bucketWidth));
+	}
+
+	/**
+	 * 
+	 * @return rollup of the marks given in the months from - to aggregated from
+	 *         the stored marks, the rollups are disabled in the reactive profile
+	 */
+	private Mono<MarksRollupDoc> aggregateRollup(String subject, YearMonth from, YearMonth to) {
+		return mongoTemplate.aggregate(marksRollups.rollupsPipeline(subject, from, to), StudentDoc.class,
+				Document.class).collectList().map(documents -> marksRollups.mergeRollups(subject, from, documents));
+	}
+
+	private Flux<Student> findStudents(Criteria criteria) {
+		Query query = new Query(criteria);
+		query.fields().include("id", "phone");
+		return mongoTemplate.find(query, StudentDoc.class).map(StudentDoc::build);
+	}
+
+	private Flux<Student> findStudentsAnyMark(Criteria markCriteria, Criteria studentCriteria) {
+		return findStudents(StudentsServiceImpl.anyMarkCriteria(markCriteria, studentCriteria));
+	}
+
+	private Flux<Mark> findFilteredMarks(long id, AggregationExpression markCondition) {
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().project(ArrayOperators.Filter.filter("marks").as("mark").by(markCondition)).as("marks");
+		return findProjectedMarks(id, query);
+	}
+
+	private Flux<Mark> findProjectedMarks(long id, Query query) {
+		return mongoTemplate.findOne(query, StudentDoc.class).switchIfEmpty(studentNotFound(id))
+				.flatMapIterable(StudentDoc::getMarks);
+	}
+
+	private <T> Mono<T> studentNotFound(long id) {
+		return Mono.defer(() -> {
+			log.error("Student with id: {} not found", id);
+			return Mono.error(new StudentNotFoundException());
+		});
+	}
+}
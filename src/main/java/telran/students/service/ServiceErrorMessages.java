@@ -2,5 +2,11 @@ package telran.students.service;
 
 public interface ServiceErrorMessages {
 	String STUDENT_ALREADY_EXISTS = "Student already exists";
+	String PHONE_ALREADY_EXISTS = "Phone number belongs to another student";
 	String STUDENT_NOT_FOUND = "Student not found";
+	String MARK_NOT_FOUND = "Mark not found";
+	String MARKS_BUFFER_FULL = "Marks buffer is full";
+	String MARKS_BUFFER_STOPPED = "Marks buffer is stopped";
+	String MARK_WRITE_TIMEOUT = "Mark is queued, but its write has not been acknowledged in time";
+	String CONFLICTING_WRITE = "Conflicting concurrent write, the request may be retried";
 }
\ No newline at end of file
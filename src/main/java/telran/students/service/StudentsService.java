@@ -1,25 +1,133 @@
 package telran.students.service;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import telran.students.dto.*;
 
 public interface StudentsService {
 	Student addStudent(Student student);
 
+	/**
+	 * 
+	 * @param students students to be added
+	 * @return ids of the students that already exist. All other students are
+	 *         added
+	 */
+	List<Long> addStudents(List<Student> students);
+
+	/**
+	 * 
+	 * @param id
+	 * @param mark mark with a score of 0 - 100, otherwise
+	 *             IllegalArgumentException is thrown
+	 * @return added mark
+	 */
 	Mark addMark(long id, Mark mark);
 
+	/**
+	 * 
+	 * @param marks marks grouped by student id. A score out of 0 - 100 rejects
+	 *              all the marks with IllegalArgumentException
+	 * @return ids of the students that have not been found. Marks of all other
+	 *         students are added
+	 */
+	List<Long> addMarks(Map<Long, List<Mark>> marks);
+
+	/**
+	 * 
+	 * @param marks stream of marks, consumed in batches. A score out of 0 - 100
+	 *              rejects its batch and the following ones
+	 * @return ids of the students that have not been found. Marks of all other
+	 *         students are added
+	 */
+	List<Long> addMarks(Stream<StudentMark> marks);
+
 	Student updatePhoneNumber(long id, String phoneNumber);
 
+	/**
+	 * replaces the first mark of a given student equal to oldMark
+	 * 
+	 * @param id
+	 * @param oldMark
+	 * @param newMark mark with a score of 0 - 100
+	 * @return newMark
+	 */
+	Mark updateMark(long id, Mark oldMark, Mark newMark);
+
+	/**
+	 * removes the first mark of a given student equal to a given mark
+	 * 
+	 * @param id
+	 * @param mark
+	 * @return removed mark
+	 */
+	Mark removeMark(long id, Mark mark);
+
 	Student removeStudent(long id);
 
 	Student getStudent(long id);
 
 	List<Mark> getMarks(long id);
 
+	/**
+	 * 
+	 * @param ids
+	 * @return students having given ids and ids of not existing students
+	 */
+	MultiGetResult<Student> getStudents(Collection<Long> ids);
+
+	/**
+	 * 
+	 * @param ids
+	 * @return marks of the students having given ids and ids of not existing
+	 *         students
+	 */
+	MultiGetResult<List<Mark>> getMarks(Collection<Long> ids);
+
+	/**
+	 * 
+	 * @param id
+	 * @param offset
+	 * @param limit
+	 * @return at most limit marks of a given student starting from offset in the
+	 *         order of adding. Negative offset or not positive limit is rejected
+	 *         with IllegalArgumentException
+	 */
+	List<Mark> getMarks(long id, int offset, int limit);
+
+	/**
+	 * 
+	 * @param id
+	 * @param nMarks
+	 * @return at most nMarks last added marks of a given student. Negative nMarks
+	 *         is rejected with IllegalArgumentException
+	 */
+	List<Mark> getLatestMarks(long id, int nMarks);
+
+	/**
+	 * 
+	 * @param id
+	 * @param offset
+	 * @param limit
+	 * @return at most limit marks of a given student starting from offset in the
+	 *         order of dates. Negative offset or not positive limit is rejected
+	 *         with IllegalArgumentException
+	 */
+	List<Mark> getMarksSortedByDate(long id, int offset, int limit);
+
 	Student getStudentByPhoneNumber(String phoneNumber);
 
+	/**
+	 * 
+	 * @param prefix
+	 * @return students having phones starting with a given prefix and longer than
+	 *         it, sorted by phone
+	 */
 	List<Student> getStudentsByPhonePrefix(String prefix);
 
 	// The methods for the HW #71
@@ -113,4 +221,83 @@ public interface StudentsService {
 	 *         scores at all should be considered as worst
 	 */
 	List<Long> getWorstStudents(int nStudents);
+
+	/**
+	 * 
+	 * @param id
+	 * @return rank of a given student starting from 1 in the order of the best
+	 *         students. Students having equal amount of scores greater than 80 are
+	 *         ordered by id
+	 */
+	int getRank(long id);
+
+	/**
+	 * 
+	 * @return count, sum, min, max, average and histogram of the scores of a given
+	 *         subject in a given month
+	 */
+	MarksStats getSubjectMarksStats(String subject, int month, int year);
+
+	/**
+	 * 
+	 * @return statistics of the scores of all subjects in a given month
+	 */
+	MarksStats getMarksStats(int month, int year);
+
+	/**
+	 * 
+	 * @param subject    null for all subjects
+	 * @param percentile 0 - 100
+	 * @return the least score such that at least a given percent of the scores of
+	 *         a given subject in the months from - to are less or equal to it, null
+	 *         if there are no such scores
+	 */
+	Integer getScorePercentile(String subject, YearMonth from, YearMonth to, double percentile);
+
+	/**
+	 * 
+	 * @param subject null for all subjects
+	 * @return amounts of the scores of a given subject in the months from - to in
+	 *         the buckets [0, bucketWidth), [bucketWidth, 2 * bucketWidth), ..., the
+	 *         last bucket includes score 100
+	 */
+	List<Long> getScoreHistogram(String subject, YearMonth from, YearMonth to, int bucketWidth);
+
+	// Streaming and keyset-paginated variants of the list queries.
+	// Streams hold a database cursor and must be closed after use.
+	// Pages are sorted by id and contain at most limit students having id greater
+	// than afterId; the id of the last student is afterId of the next page
+	Stream<Student> streamStudentsByPhonePrefix(String prefix);
+
+	List<Student> getStudentsByPhonePrefix(String prefix, long afterId, int limit);
+
+	Stream<Student> streamStudentsMarksDate(LocalDate date);
+
+	List<Student> getStudentsMarksDate(LocalDate date, long afterId, int limit);
+
+	Stream<Student> streamStudentsMarksMonthYear(int month, int year);
+
+	List<Student> getStudentsMarksMonthYear(int month, int year, long afterId, int limit);
+
+	Stream<Student> streamStudentsGoodSubjectMark(String subject, int markThreshold);
+
+	List<Student> getStudentsGoodSubjectMark(String subject, int markThreshold, long afterId, int limit);
+
+	Stream<Student> streamStudentsAllGoodMarks(int markThreshold);
+
+	List<Student> getStudentsAllGoodMarks(int markThreshold, long afterId, int limit);
+
+	Stream<Student> streamStudentsFewMarks(int nMarks);
+
+	List<Student> getStudentsFewMarks(int nMarks, long afterId, int limit);
+
+	Stream<Student> streamStudentsAllGoodMarksSubject(String subject, int thresholdScore);
+
+	List<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore, long afterId, int limit);
+
+	Stream<Student> streamStudentsMarksAmountBetween(int min, int max);
+
+	List<Student> getStudentsMarksAmountBetween(int min, int max, long afterId, int limit);
+
+	Stream<StudentAvgScore> streamStudentsAvgScoreGreater(int avgThreshold);
 }
\ No newline at end of file
@@ -1,25 +1,36 @@
 package telran.students.service;
 
 import java.time.LocalDate;
-import java.time.ZoneId;
+import java.time.YearMonth;
 import java.time.temporal.TemporalAdjusters;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.AccumulatorOperators;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
-
-import org.springframework.data.mongodb.core.aggregation.GroupOperation;
-import org.springframework.data.mongodb.core.aggregation.LimitOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
 import org.springframework.data.mongodb.core.aggregation.MatchOperation;
 import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
 import org.springframework.data.mongodb.core.aggregation.SortOperation;
-import org.springframework.data.mongodb.core.aggregation.UnwindOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -27,24 +38,61 @@ import org.springframework.stereotype.Service;
 
 
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.client.model.Filters;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import io.micrometer.core.annotation.Timed;
+
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import telran.students.analytics.MarksAnalytics;
+import telran.students.cache.StudentsCache;
 import telran.students.dto.Mark;
+import telran.students.dto.MarksStats;
+import telran.students.dto.MultiGetResult;
 import telran.students.dto.Student;
 import telran.students.dto.StudentAvgScore;
+import telran.students.dto.StudentMark;
 import telran.students.dto.reflections.IdPhone;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.exceptions.MarkNotFoundException;
+import telran.students.exceptions.PhoneIllegalStateException;
 import telran.students.exceptions.StudentIllegalStateException;
 import telran.students.exceptions.StudentNotFoundException;
+import telran.students.indexes.PhonePrefixIndex;
+import telran.students.leaderboard.Leaderboard;
+import telran.students.model.MarksBucketDoc;
 import telran.students.model.StudentDoc;
+import telran.students.rollups.MarksRollups;
 import telran.students.repo.StudentRepo;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
+@Timed(value = "students.service", histogram = true)
 public class StudentsServiceImpl implements StudentsService {
 	final StudentRepo studentRepo;
 	final MongoTemplate mongoTemplate;
+	final PhonePrefixIndex phonePrefixIndex;
+	final Leaderboard leaderboard;
+	final StudentsCache studentsCache;
+	final MarksSummaryUpdater marksSummaryUpdater;
+	final MarksBucketStore marksBucketStore;
+	final SubjectDictionary subjectDictionary;
+	final MarksAnalytics marksAnalytics;
+	final MarksRollups marksRollups;
 	FindAndModifyOptions options = new FindAndModifyOptions().returnNew(true).upsert(false);
+	@Value("${app.marks.batch.size:1000}")
+	int marksBatchSize;
+	@Value("${app.students.batch.size:1000}")
+	int studentsBatchSize;
+	@Value("${app.multi-get.chunk-size:500}")
+	int multiGetChunkSize;
+	// initialized for the instances created outside of the context
+	@Value("${app.multi-get.parallelism:8}")
+	int multiGetParallelism = 8;
 
 	@Override
 	public Student addStudent(Student student) {
@@ -52,43 +100,359 @@ public class StudentsServiceImpl implements StudentsService {
 		try {
 			mongoTemplate.insert(new StudentDoc(student));
 		} catch (DuplicateKeyException e) {
-			log.error("student with id: {} already exists", id);
-			throw new StudentIllegalStateException();
+			throw duplicateStudentException(e, student);
 		}
+		phonePrefixIndex.add(student);
+		leaderboard.refresh(id);
+		marksAnalytics.addMarks(id, List.of());
 		log.debug("student: {} has been added", student);
 		return student;
 	}
 
+	/**
+	 * {@inheritDoc} Students having phone numbers of other students aren't added
+	 * either: after all other students are added PhoneIllegalStateException is
+	 * thrown
+	 */
+	@Override
+	public List<Long> addStudents(List<Student> students) {
+		List<Long> res = new ArrayList<>();
+		List<Long> phoneDuplicateIds = new ArrayList<>();
+		for (int from = 0; from < students.size(); from += studentsBatchSize) {
+			int to = Math.min(from + studentsBatchSize, students.size());
+			res.addAll(insertStudents(students.subList(from, to), phoneDuplicateIds));
+		}
+		log.debug("{} students have been added", students.size() - res.size() - phoneDuplicateIds.size());
+		if (!phoneDuplicateIds.isEmpty()) {
+			log.error("students with ids: {} have phone numbers of other students", phoneDuplicateIds);
+			throw new PhoneIllegalStateException();
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param students
+	 * @param phoneDuplicateIds collects ids of the students having phone numbers
+	 *                          of other students
+	 * @return ids of the students that already exist
+	 */
+	private List<Long> insertStudents(List<Student> students, List<Long> phoneDuplicateIds) {
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentDoc.class);
+		bulkOperations.insert(students.stream().map(StudentDoc::new).toList());
+		List<Long> res = new ArrayList<>();
+		Set<Long> notAddedIds = new HashSet<>();
+		try {
+			bulkOperations.execute();
+		} catch (BulkOperationException e) {
+			for (BulkWriteError error : e.getErrors()) {
+				if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+					throw e;
+				}
+				long id = students.get(error.getIndex()).id();
+				(isPhoneDuplicate(error.getMessage()) ? phoneDuplicateIds : res).add(id);
+				notAddedIds.add(id);
+			}
+			if (!res.isEmpty()) {
+				log.error("students with ids: {} already exist", res);
+			}
+		}
+		if (phonePrefixIndex.isEnabled() || leaderboard.isEnabled() || marksAnalytics.isEnabled()) {
+			List<Student> added = students.stream().filter(s -> !notAddedIds.contains(s.id())).toList();
+			added.forEach(s -> {
+				phonePrefixIndex.add(s);
+				marksAnalytics.addMarks(s.id(), List.of());
+			});
+			leaderboard.refresh(added.stream().map(Student::id).toList());
+		}
+		return res;
+	}
+
 	@Override
 	public Mark addMark(long id, Mark mark) {
+		checkScores(List.of(mark));
 		Query query = new Query(Criteria.where("id").is(id));
-		Update update = new Update();
-		update.push("marks", mark);
+		query.fields().include("id", "goodMarksCount", "scoreSum");
+		Update update = addMarksUpdate(List.of(mark));
 		StudentDoc studentDoc = mongoTemplate.findAndModify(query, update, options, StudentDoc.class);
 
 		if (studentDoc == null) {
 			log.error("Student with id: {} not found", id);
 			throw new StudentNotFoundException();
 		}
+		if (marksBucketStore.isEnabled()) {
+			marksBucketStore.addMarks(Map.of(id, List.of(mark)));
+		}
+		leaderboard.refresh(id);
+		marksAnalytics.addMarks(id, List.of(mark));
+		marksRollups.addMarks(List.of(mark));
+		studentsCache.invalidateMarks(id);
 
 		log.debug("mark {} has been added for student with id: {}", mark, id);
 		return mark;
 	}
 
+	@Override
+	public List<Long> addMarks(Map<Long, List<Mark>> marks) {
+		marks.values().forEach(StudentsServiceImpl::checkScores);
+		List<Long> ids = marks.entrySet().stream().filter(e -> !e.getValue().isEmpty()).map(Map.Entry::getKey)
+				.toList();
+		if (ids.isEmpty()) {
+			return List.of();
+		}
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentDoc.class);
+		ids.forEach(id -> bulkOperations.updateOne(new Query(Criteria.where("id").is(id)),
+				addMarksUpdate(marks.get(id))));
+		BulkWriteResult result = bulkOperations.execute();
+		studentsCache.invalidateMarks(ids);
+		List<Long> res = List.of();
+		if (result.getMatchedCount() < ids.size()) {
+			res = findNotExistingIds(ids);
+			log.error("students with ids: {} not found", res);
+		}
+		if (marksBucketStore.isEnabled() || marksAnalytics.isEnabled() || marksRollups.isEnabled()) {
+			Map<Long, List<Mark>> foundMarks = new LinkedHashMap<>(marks);
+			foundMarks.keySet().removeAll(res);
+			if (marksBucketStore.isEnabled()) {
+				marksBucketStore.addMarks(foundMarks);
+			}
+			foundMarks.forEach(marksAnalytics::addMarks);
+			marksRollups.addMarks(foundMarks.values().stream().flatMap(List::stream).toList());
+		}
+		leaderboard.refresh(ids);
+		log.debug("marks for {} students have been added", ids.size() - res.size());
+		return res;
+	}
+
+	@Override
+	public List<Long> addMarks(Stream<StudentMark> marks) {
+		return addMarksInBatches(marks, marksBatchSize, this::addMarks);
+	}
+
+	/**
+	 * 
+	 * @param marks      stream of marks grouped into batches of a given size
+	 * @param batchAdder adds a batch and returns ids of not found students
+	 * @return ids of the students that have not been found
+	 */
+	static List<Long> addMarksInBatches(Stream<StudentMark> marks, int marksBatchSize,
+			Function<Map<Long, List<Mark>>, List<Long>> batchAdder) {
+		Set<Long> res = new LinkedHashSet<>();
+		Map<Long, List<Mark>> batch = new LinkedHashMap<>();
+		int batchSize = 0;
+		Iterator<StudentMark> it = marks.iterator();
+		while (it.hasNext()) {
+			StudentMark studentMark = it.next();
+			batch.computeIfAbsent(studentMark.id(), k -> new ArrayList<>()).add(studentMark.mark());
+			if (++batchSize == marksBatchSize) {
+				res.addAll(batchAdder.apply(batch));
+				batch = new LinkedHashMap<>();
+				batchSize = 0;
+			}
+		}
+		if (!batch.isEmpty()) {
+			res.addAll(batchAdder.apply(batch));
+		}
+		return new ArrayList<>(res);
+	}
+
+	/**
+	 * 
+	 * @param marks not empty list of marks
+	 * @return update maintaining the marks summary and pushing the marks unless
+	 *         they are stored in buckets
+	 */
+	private Update addMarksUpdate(List<Mark> marks) {
+		Update res = marksSummaryUpdate(marks);
+		if (!marksBucketStore.isEnabled()) {
+			res.push("marks").each(marks.toArray());
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @param marks
+	 * @return update of the marks summary fields for adding given marks
+	 */
+	static Update marksSummaryUpdate(List<Mark> marks) {
+		IntSummaryStatistics stats = marks.stream().mapToInt(Mark::score).summaryStatistics();
+		long nGoodMarks = marks.stream().filter(m -> m.score() > StudentDoc.GOOD_SCORE).count();
+		return new Update().inc("marksCount", marks.size()).inc("scoreSum", stats.getSum())
+				.inc("goodMarksCount", nGoodMarks).min("minScore", stats.getMin()).max("maxScore", stats.getMax());
+	}
+
+	/**
+	 * 
+	 * @param errorMessage message of a duplicate key error
+	 * @return true if the error is a violation of the unique phone index rather
+	 *         than of the id
+	 */
+	static boolean isPhoneDuplicate(String errorMessage) {
+		return errorMessage != null && errorMessage.contains("index: " + StudentDoc.PHONE_INDEX + " dup key");
+	}
+
+	static StudentIllegalStateException duplicateStudentException(DuplicateKeyException e, Student student) {
+		StudentIllegalStateException res;
+		if (isPhoneDuplicate(e.getMessage())) {
+			log.error("phone number {} of student with id: {} belongs to another student", student.phone(),
+					student.id());
+			res = new PhoneIllegalStateException();
+		} else {
+			log.error("student with id: {} already exists", student.id());
+			res = new StudentIllegalStateException();
+		}
+		return res;
+	}
+
+	private List<Long> findNotExistingIds(Collection<Long> ids) {
+		Query query = new Query(Criteria.where("id").in(ids));
+		query.fields().include("id");
+		Set<Long> existingIds = new HashSet<>();
+		mongoTemplate.find(query, StudentDoc.class).forEach(doc -> existingIds.add(doc.getId()));
+		return ids.stream().filter(id -> !existingIds.contains(id)).toList();
+	}
+
 	@Override
 	public Student updatePhoneNumber(long id, String phoneNumber) {
-		StudentDoc studentDoc = studentRepo.findById(id).orElseThrow(() -> new StudentNotFoundException());
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().include("id", "phone");
+		StudentDoc studentDoc;
+		try {
+			studentDoc = mongoTemplate.findAndModify(query, new Update().set("phone", phoneNumber), StudentDoc.class);
+		} catch (DuplicateKeyException e) {
+			log.error("phone number {} belongs to another student", phoneNumber);
+			throw new PhoneIllegalStateException();
+		}
+		if (studentDoc == null) {
+			log.error("Student with id: {} not found", id);
+			throw new StudentNotFoundException();
+		}
 		log.debug("student with id {}, old phone number {}, new phone number {}", id, studentDoc.getPhone(),
 				phoneNumber);
-		studentDoc.setPhone(phoneNumber);
-		Student res = studentRepo.save(studentDoc).build();
+		Student res = new Student(id, phoneNumber);
+		phonePrefixIndex.update(studentDoc.getPhone(), res);
+		studentsCache.invalidateStudent(id);
 		log.debug("Student {} has been saved ", res);
 		return res;
 	}
 
+	@Override
+	public Mark updateMark(long id, Mark oldMark, Mark newMark) {
+		checkScores(List.of(newMark));
+		boolean updated;
+		if (marksBucketStore.isEnabled()) {
+			updated = marksBucketStore.updateMark(id, markCriteria(subjectDictionary, oldMark), newMark);
+		} else {
+			Query query = new Query(Criteria.where("id").is(id).and("marks")
+					.elemMatch(markCriteria(subjectDictionary, oldMark)));
+			updated = mongoTemplate.updateFirst(query, new Update().set("marks.$", newMark), StudentDoc.class)
+					.getMatchedCount() > 0;
+		}
+		if (!updated) {
+			throwMarkNotFound(id, oldMark);
+		}
+		marksAnalytics.updateMark(id, oldMark, newMark);
+		marksRollups.removeMarks(List.of(oldMark));
+		marksRollups.addMarks(List.of(newMark));
+		onMarksChanged(id);
+		log.debug("mark {} of student with id {} has been replaced with {}", oldMark, id, newMark);
+		return newMark;
+	}
+
+	@Override
+	public Mark removeMark(long id, Mark mark) {
+		boolean removed;
+		if (marksBucketStore.isEnabled()) {
+			removed = marksBucketStore.removeMark(id, mark);
+		} else {
+			Document markIndex = markIndexExpression(subjectDictionary, mark);
+			removed = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class))
+					.updateOne(removeMarkFilter("_id", id, markIndex), removeMarkPipeline(markIndex))
+					.getMatchedCount() > 0;
+		}
+		if (!removed) {
+			throwMarkNotFound(id, mark);
+		}
+		marksAnalytics.removeMark(id, mark);
+		marksRollups.removeMarks(List.of(mark));
+		onMarksChanged(id);
+		log.debug("mark {} of student with id {} has been removed", mark, id);
+		return mark;
+	}
+
+	/**
+	 * 
+	 * @return expression of the index of the first mark equal to a given one in
+	 *         the marks array, -1 if there is no such mark
+	 */
+	static Document markIndexExpression(SubjectDictionary subjectDictionary, Mark mark) {
+		return new Document("$indexOfArray", List.of(new Document("$map", new Document("input", "$marks")
+				.append("as", "mark").append("in", subjectDictionary.markExpression("$$mark", mark))), true));
+	}
+
+	/**
+	 * 
+	 * @return filter of the document of a given owner id having a mark of a
+	 *         given index expression
+	 */
+	static Bson removeMarkFilter(String idField, long id, Document markIndex) {
+		return Filters.and(Filters.eq(idField, id), Filters.expr(new Document("$gte", List.of(markIndex, 0))));
+	}
+
+	/**
+	 * 
+	 * @param markIndex         expression of the index of the removed mark
+	 * @param decrementedFields fields decremented along with the removal, e.g.
+	 *                          the count of a bucket
+	 * @return update pipeline removing the mark from the marks array by one
+	 *         atomic write: the marks before and after it are concatenated, as
+	 *         $pull would remove all equal marks
+	 */
+	static List<Document> removeMarkPipeline(Document markIndex, String... decrementedFields) {
+		Document remaining = new Document("$concatArrays", List.of(
+				new Document("$slice", List.of("$marks", "$$index")),
+				new Document("$slice", List.of("$marks", new Document("$add", List.of("$$index", 1)),
+						new Document("$size", "$marks")))));
+		Document removal = new Document("marks",
+				new Document("$let", new Document("vars", new Document("index", markIndex)).append("in", remaining)));
+		for (String field : decrementedFields) {
+			removal.append(field, new Document("$subtract", List.of("$" + field, 1)));
+		}
+		return List.of(new Document("$set", removal));
+	}
+
+	static Criteria markCriteria(SubjectDictionary subjectDictionary, Mark mark) {
+		return new Criteria().andOperator(subjectDictionary.subjectCriteria("subject", mark.subject()),
+				Criteria.where("score").is(mark.score()), subjectDictionary.dateCriteria("date", mark.date()));
+	}
+
+	private void throwMarkNotFound(long id, Mark mark) {
+		if (!studentRepo.existsById(id)) {
+			log.error("Student with id: {} not found", id);
+			throw new StudentNotFoundException();
+		}
+		log.error("mark {} of student with id {} not found", mark, id);
+		throw new MarkNotFoundException();
+	}
+
+	/**
+	 * recalculates the marks summary after a mutation that can't maintain it with
+	 * $inc/$min/$max and refreshes the in-memory views of the student
+	 */
+	private void onMarksChanged(long id) {
+		marksSummaryUpdater.recalculate(id);
+		leaderboard.refresh(id);
+		studentsCache.invalidateMarks(id);
+	}
+
 	@Override
 	public Student removeStudent(long id) {
 		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().include("id", "phone");
+		if (marksRollups.isEnabled()) {
+			query.fields().include("marks");
+		}
 		StudentDoc studentDoc = mongoTemplate.findAndRemove(query, StudentDoc.class);
 		
 		if (studentDoc == null) {
@@ -96,43 +460,189 @@ public class StudentsServiceImpl implements StudentsService {
 			throw new StudentNotFoundException();
 		}
 		
+		Student res = studentDoc.build();
+		List<Mark> removedMarks = studentDoc.getMarks();
+		if (marksBucketStore.isEnabled()) {
+			if (marksRollups.isEnabled()) {
+				removedMarks = marksBucketStore.getMarks(id);
+			}
+			marksBucketStore.removeAll(id);
+		}
+		marksRollups.removeMarks(removedMarks);
+		phonePrefixIndex.remove(res);
+		leaderboard.refresh(id);
+		marksAnalytics.removeStudent(id);
+		studentsCache.invalidate(id);
 		log.debug("student with id {} has been removed", id);
-		return studentDoc.build();
+		return res;
 	}
 
 	@Override
 	public Student getStudent(long id) {
-		StudentDoc studentDoc = studentRepo.findStudentNoMarks(id);
+		Student student = studentsCache.getStudent(id, this::findStudent);
 
-		if (studentDoc == null) {
+		if (student == null) {
 			throw new StudentNotFoundException();
 		}
 
-		log.debug("marks of found student {}", studentDoc.getMarks());
-		Student student = studentDoc.build();
 		log.debug("found student {}", student);
 		return student;
 	}
 
+	private Student findStudent(long id) {
+		StudentDoc studentDoc = studentRepo.findStudentNoMarks(id);
+		return studentDoc == null ? null : studentDoc.build();
+	}
+
 	@Override
 	public List<Mark> getMarks(long id) {
-		StudentDoc studentDoc = studentRepo.findStudentOnlyMarks(id);
+		List<Mark> res = studentsCache.getMarks(id, this::findCachedMarks);
 
-		if (studentDoc == null) {
+		if (res == null) {
 			throw new StudentNotFoundException();
 		}
 
-		List<Mark> res = studentDoc.getMarks();
-		log.debug("phone: {}, id: {}", studentDoc.getPhone(), studentDoc.getId());
 		log.debug("marks of found student {}", res);
 
 		return res;
 	}
 
+	private List<Mark> findCachedMarks(long id) {
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			res = studentRepo.existsById(id) ? marksBucketStore.getMarks(id) : null;
+		} else {
+			StudentDoc studentDoc = studentRepo.findStudentOnlyMarks(id);
+			res = studentDoc == null ? null : studentDoc.getMarks();
+		}
+		return res;
+	}
+
+	@Override
+	public MultiGetResult<Student> getStudents(Collection<Long> ids) {
+		MultiGetResult<Student> res = multiGetResult(ids,
+				studentsCache.getStudents(ids, missingIds -> findByIds(missingIds, this::findStudentsChunk)));
+		log.debug("found {} students, not found ids {}", res.found().size(), res.missingIds());
+		return res;
+	}
+
+	@Override
+	public MultiGetResult<List<Mark>> getMarks(Collection<Long> ids) {
+		MultiGetResult<List<Mark>> res = multiGetResult(ids,
+				studentsCache.getMarks(ids, missingIds -> findByIds(missingIds, this::findMarksChunk)));
+		log.debug("found marks of {} students, not found ids {}", res.found().size(), res.missingIds());
+		return res;
+	}
+
+	static <T> MultiGetResult<T> multiGetResult(Collection<Long> ids, Map<Long, T> found) {
+		Map<Long, T> orderedFound = new LinkedHashMap<>();
+		List<Long> missingIds = new ArrayList<>();
+		new LinkedHashSet<>(ids).forEach(id -> {
+			T value = found.get(id);
+			if (value == null) {
+				missingIds.add(id);
+			} else {
+				orderedFound.put(id, value);
+			}
+		});
+		return new MultiGetResult<>(orderedFound, missingIds);
+	}
+
+	/**
+	 * finds values by chunks of ids, the chunks are queried in parallel on virtual
+	 * threads if there are more than one. At most app.multi-get.parallelism chunks
+	 * of a call are queried at once, so a large call doesn't take the whole
+	 * connection pool
+	 * 
+	 * @return mutable map of found values
+	 */
+	private <T> Map<Long, T> findByIds(Collection<? extends Long> ids,
+			Function<List<Long>, Map<Long, T>> chunkFinder) {
+		List<Long> idsList = List.copyOf(ids);
+		List<List<Long>> chunks = new ArrayList<>();
+		for (int from = 0; from < idsList.size(); from += multiGetChunkSize) {
+			chunks.add(idsList.subList(from, Math.min(from + multiGetChunkSize, idsList.size())));
+		}
+		Map<Long, T> res = new HashMap<>();
+		if (chunks.size() == 1) {
+			res.putAll(chunkFinder.apply(chunks.get(0)));
+		} else if (chunks.size() > 1) {
+			Semaphore permits = new Semaphore(multiGetParallelism);
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				List<Future<Map<Long, T>>> futures = chunks.stream().map(chunk -> executor.submit(() -> {
+					permits.acquire();
+					try {
+						return chunkFinder.apply(chunk);
+					} finally {
+						permits.release();
+					}
+				})).toList();
+				for (Future<Map<Long, T>> future : futures) {
+					res.putAll(await(future));
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return result of a given future, a runtime exception thrown by the task is
+	 *         rethrown as is
+	 */
+	static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * finds the students of given ids, e.g. found by the analytics, by the chunks
+	 * of the multi-get, as a single $in of a month's students could exceed the
+	 * command size limit
+	 * 
+	 * @return found students in the order of the ids
+	 */
+	private List<Student> findStudentsByIds(List<Long> ids) {
+		Map<Long, Student> found = findByIds(ids, this::findStudentsChunk);
+		return ids.stream().map(found::get).filter(Objects::nonNull).toList();
+	}
+
+	private Map<Long, Student> findStudentsChunk(List<Long> ids) {
+		Query query = new Query(Criteria.where("id").in(ids));
+		query.fields().include("id", "phone");
+		Map<Long, Student> res = new HashMap<>();
+		mongoTemplate.find(query, StudentDoc.class).forEach(doc -> res.put(doc.getId(), doc.build()));
+		return res;
+	}
+
+	private Map<Long, List<Mark>> findMarksChunk(List<Long> ids) {
+		Query query = new Query(Criteria.where("id").in(ids));
+		query.fields().include("id");
+		if (!marksBucketStore.isEnabled()) {
+			query.fields().include("marks");
+		}
+		List<StudentDoc> docs = mongoTemplate.find(query, StudentDoc.class);
+		Map<Long, List<Mark>> bucketMarks = marksBucketStore.isEnabled()
+				? marksBucketStore.getMarks(docs.stream().map(StudentDoc::getId).toList())
+				: Map.of();
+		Map<Long, List<Mark>> res = new HashMap<>();
+		docs.forEach(doc -> res.put(doc.getId(),
+				marksBucketStore.isEnabled() ? bucketMarks.getOrDefault(doc.getId(), List.of()) : doc.getMarks()));
+		return res;
+	}
+
 	@Override
 	public List<Student> getStudentsAllGoodMarks(int markThreshold) {
-		List<IdPhone> idPhones = studentRepo.findAllGoodMarks(markThreshold);
-		List<Student> res = idPhonesToStudents(idPhones);
+		List<Student> res = findStudents(allGoodMarksCriteria(markThreshold));
 		log.debug("students having marks greater than {} are {}", markThreshold, res);
 		return res;
 	}
@@ -147,11 +657,17 @@ public class StudentsServiceImpl implements StudentsService {
 
 	@Override
 	public Student getStudentByPhoneNumber(String phoneNumber) {
-		IdPhone idPhone = studentRepo.findByPhone(phoneNumber);
 		Student res = null;
-
-		if (idPhone != null) {
-			res = new Student(idPhone.getId(), idPhone.getPhone());
+		if (phonePrefixIndex.isEnabled()) {
+			Long id = phonePrefixIndex.getId(phoneNumber);
+			if (id != null) {
+				res = new Student(id, phoneNumber);
+			}
+		} else {
+			IdPhone idPhone = studentRepo.findByPhone(phoneNumber);
+			if (idPhone != null) {
+				res = new Student(idPhone.getId(), idPhone.getPhone());
+			}
 		}
 
 		log.debug("student {}", res);
@@ -160,34 +676,57 @@ public class StudentsServiceImpl implements StudentsService {
 
 	@Override
 	public List<Student> getStudentsByPhonePrefix(String prefix) {
-		List<IdPhone> idPhones = studentRepo.findByPhoneRegex(prefix + ".+");
-		List<Student> res = idPhonesToStudents(idPhones);
+		List<Student> res;
+		if (phonePrefixIndex.isEnabled()) {
+			res = phonePrefixIndex.getStudents(prefix);
+		} else {
+			Query query = new Query(phonePrefixCriteria(prefix)).with(Sort.by("phone"));
+			query.fields().include("id", "phone");
+			res = mongoTemplate.find(query, StudentDoc.class).stream().map(StudentDoc::build).toList();
+		}
 		log.debug("getStudentsByPhonePrefix -> students {}", res);
 		return res;
 	}
 
+	/**
+	 * 
+	 * @param prefix
+	 * @return range criteria [prefix, prefix with the last character incremented)
+	 *         excluding the prefix itself. It is bounded on the phone index and
+	 *         needs no escaping of the prefix
+	 */
+	static Criteria phonePrefixCriteria(String prefix) {
+		Criteria res = Criteria.where("phone").gt(prefix);
+		int last = prefix.length() - 1;
+		while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+			last--;
+		}
+		if (last >= 0) {
+			res.lt(prefix.substring(0, last) + (char) (prefix.charAt(last) + 1));
+		}
+		return res;
+	}
+
 	@Override
 	public List<Student> getStudentsMarksDate(LocalDate date) {
-		List<IdPhone> idPhones = studentRepo.findStudentByMarkDate(date);
-		List<Student> res = idPhonesToStudents(idPhones);
+		List<Student> res = findStudentsAnyMark(markDateCriteria(subjectDictionary, date), new Criteria());
 		log.debug("getStudentsMarksDate -> students {}", res);
 		return res;
 	}
 
 	@Override
 	public List<Student> getStudentsMarksMonthYear(int month, int year) {
-		LocalDate start = LocalDate.of(year, month, 1);
-		LocalDate end = start.with(TemporalAdjusters.lastDayOfMonth());
-		List<IdPhone> idPhones = studentRepo.findStudentsBetweenDates(start, end);
-		List<Student> res = idPhonesToStudents(idPhones);
+		List<Student> res = marksAnalytics.isEnabled()
+				? findStudentsByIds(marksAnalytics.getStudentsMarksMonthYear(month, year))
+				: findStudentsAnyMark(markMonthYearCriteria(subjectDictionary, month, year), new Criteria());
 		log.debug("getStudentsMarksMonthYear -> students {}", res);
 		return res;
 	}
 
 	@Override
 	public List<Student> getStudentsGoodSubjectMark(String subject, int markThreshold) {
-		List<IdPhone> idPhones = studentRepo.findStudentsGoodSubjectMark(subject, markThreshold);
-		List<Student> res = idPhonesToStudents(idPhones);
+		List<Student> res = findStudentsAnyMark(goodSubjectMarkCriteria(subjectDictionary, subject, markThreshold),
+				new Criteria());
 		log.debug("getStudentsGoodSubjectMark -> students {}", res);
 		return res;
 	}
@@ -198,44 +737,53 @@ public class StudentsServiceImpl implements StudentsService {
 
 	@Override
 	public List<Mark> getStudentMarksSubject(long id, String subject) {
-		if (!studentRepo.existsById(id)) {
-			throw new StudentNotFoundException();
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			if (!studentRepo.existsById(id)) {
+				throw new StudentNotFoundException();
+			}
+			res = marksBucketStore.getMarksSubject(id, subject);
+		} else {
+			res = findFilteredMarks(id, subjectDictionary.subjectExpression("mark.subject", subject));
 		}
-		MatchOperation matchStudentOperation = Aggregation.match(Criteria.where("id").is(id));
-		UnwindOperation unwindOperation = Aggregation.unwind("marks");
-		MatchOperation matchSubject = Aggregation.match(Criteria.where("marks.subject").is(subject));
-		ProjectionOperation projectOperation = Aggregation.project("marks.subject", "marks.score", "marks.date");
-		Aggregation pipeline = Aggregation.newAggregation(matchStudentOperation, unwindOperation, matchSubject,
-				projectOperation);
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> documents = aggregationResult.getMappedResults();
-		log.debug("received {} documents", documents.size());
-		List<Mark> res = documents.stream().map(d -> new Mark(d.getString("subject"), d.getInteger("score"),
-				d.getDate("date").toInstant().atZone(ZoneId.systemDefault()).toLocalDate())).toList();
 		log.debug("marks of subject {} of student {} are {}", subject, id, res);
 		return res;
 	}
 
 	@Override
 	public List<StudentAvgScore> getStudentsAvgScoreGreater(int avgThreshold) {
-		UnwindOperation unwindOperation = Aggregation.unwind("marks");
-		GroupOperation groupOperation = Aggregation.group("id").avg("marks.score").as("avgScore");
-		MatchOperation matchOperation = Aggregation.match(Criteria.where("avgScore").gt(avgThreshold));
-		SortOperation sortOperation = Aggregation.sort(Direction.DESC, "avgScore");
-		Aggregation pipeline = Aggregation.newAggregation(unwindOperation, groupOperation, matchOperation,
-				sortOperation);
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> documents = aggregationResult.getMappedResults();
-		List<StudentAvgScore> res = documents.stream()
-				.map(d -> new StudentAvgScore(d.getLong("_id"), d.getDouble("avgScore").intValue())).toList();
+		List<StudentAvgScore> res;
+		if (marksAnalytics.isEnabled()) {
+			res = marksAnalytics.getStudentsAvgScoreGreater(avgThreshold);
+		} else {
+			var aggregationResult = mongoTemplate.aggregate(avgScoreGreaterPipeline(avgThreshold),
+					StudentDoc.class, Document.class);
+			List<Document> documents = aggregationResult.getMappedResults();
+			res = documents.stream().map(StudentsServiceImpl::toStudentAvgScore).toList();
+		}
 		log.debug("students with avg scores greater than {} are {}", avgThreshold, res);
 		return res;
 	}
 
+	static Aggregation avgScoreGreaterPipeline(int avgThreshold) {
+		MatchOperation matchMarksOperation = Aggregation.match(Criteria.where("marksCount").gt(0));
+		ProjectionOperation projectionOperation = Aggregation.project("id")
+				.and(ArithmeticOperators.Divide.valueOf("scoreSum").divideBy("marksCount")).as("avgScore");
+		MatchOperation matchOperation = Aggregation.match(Criteria.where("avgScore").gt(avgThreshold));
+		SortOperation sortOperation = Aggregation.sort(Direction.DESC, "avgScore");
+		return Aggregation.newAggregation(matchMarksOperation, projectionOperation, matchOperation, sortOperation);
+	}
+
+	static StudentAvgScore toStudentAvgScore(Document document) {
+		return new StudentAvgScore(document.getLong("_id"), document.getDouble("avgScore").intValue());
+	}
+
 	@Override
 	public List<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore) {
-		List<IdPhone> IdPhones = studentRepo.findAllGoodMarksInSubject(subject, thresholdScore);
-		List<Student> res = idPhonesToStudents(IdPhones);
+		List<Student> res = marksAnalytics.isEnabled()
+				? findStudentsByIds(marksAnalytics.getStudentsAllGoodMarksSubject(subject, thresholdScore))
+				: findStudentsAnyMark(subjectMarkCriteria(subjectDictionary, subject),
+						allGoodMarksCriteria(thresholdScore));
 		log.debug("students having marks greater than {} in subject {} are {}", thresholdScore, subject, res);
 		return res;
 	}
@@ -250,58 +798,474 @@ public class StudentsServiceImpl implements StudentsService {
 
 	@Override
 	public List<Mark> getStudentMarksAtDates(long id, LocalDate from, LocalDate to) {
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			if (!studentRepo.existsById(id)) {
+				throw new StudentNotFoundException();
+			}
+			res = marksBucketStore.getMarksAtDates(id, from, to);
+		} else {
+			res = findFilteredMarks(id, subjectDictionary.datesExpression("mark.date", from, to));
+		}
+		log.debug("marks of student {} from date {} to date {} are {}", id, from, to, res);
+		return res;
+	}
 
+	@Override
+	public List<Mark> getLatestMarks(long id, int nMarks) {
+		if (nMarks < 0) {
+			throw new IllegalArgumentException("amount of marks must not be negative");
+		}
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			checkExists(id);
+			res = marksBucketStore.getLatestMarks(id, nMarks);
+		} else {
+			Query query = new Query(Criteria.where("id").is(id));
+			query.fields().slice("marks", -nMarks);
+			res = findProjectedMarks(id, query);
+		}
+		log.debug("{} latest marks of student {} are {}", nMarks, id, res);
+		return res;
+	}
+
+	@Override
+	public List<Mark> getMarks(long id, int offset, int limit) {
+		checkSlice(offset, limit);
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			res = page(findMarks(id), offset, limit);
+		} else {
+			Query query = new Query(Criteria.where("id").is(id));
+			query.fields().slice("marks", offset, limit);
+			res = findProjectedMarks(id, query);
+		}
+		log.debug("marks of student {} from {} limit {} are {}", id, offset, limit, res);
+		return res;
+	}
+
+	@Override
+	public List<Mark> getMarksSortedByDate(long id, int offset, int limit) {
+		checkSlice(offset, limit);
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			checkExists(id);
+			res = marksBucketStore.getMarksSortedByDate(id, offset, limit);
+		} else {
+			res = mongoTemplate.aggregate(sortedMarksPipeline(subjectDictionary, Criteria.where("id").is(id),
+					Sort.by("index"), offset, limit), StudentDoc.class, Mark.class).getMappedResults();
+			if (res.isEmpty()) {
+				checkExists(id);
+			}
+		}
+		log.debug("marks of student {} sorted by date from {} limit {} are {}", id, offset, limit, res);
+		return res;
+	}
+
+	/**
+	 * the scores are kept in bytes by the analytics columns and bucketed by the
+	 * histograms, so a score out of 0 - 100 is rejected before any write
+	 */
+	public static void checkScores(Collection<Mark> marks) {
+		for (Mark mark : marks) {
+			if (mark.score() < 0 || mark.score() > StudentDoc.MAX_SCORE) {
+				throw new IllegalArgumentException(
+						"score of mark %s must be between 0 and %d".formatted(mark, StudentDoc.MAX_SCORE));
+			}
+		}
+	}
+
+	static void checkSlice(int offset, int limit) {
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset must not be negative");
+		}
+		checkLimit(limit);
+	}
+
+	/**
+	 * 
+	 * @param limit maximal amount of the results, limit 0 would be no limit for
+	 *              MongoDB, so it's rejected as a negative one
+	 */
+	static void checkLimit(int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("limit must be positive");
+		}
+	}
+
+	/**
+	 * 
+	 * @param marksCriteria criteria of the documents having the marks array
+	 * @param order         order of the marks given at the same date, the array
+	 *                      index of an unwound mark is "index"
+	 * @return pipeline returning a slice of the marks sorted by date. The marks
+	 *         are unwound and sorted on the server ($sortArray requires MongoDB
+	 *         5.2), so only the slice is returned
+	 */
+	static Aggregation sortedMarksPipeline(SubjectDictionary subjectDictionary, Criteria marksCriteria, Sort order,
+			int offset, int limit) {
+		List<AggregationOperation> operations = new ArrayList<>(
+				List.of(Aggregation.match(marksCriteria), Aggregation.unwind("marks", "index")));
+		String dateField = "marks.date";
+		if (subjectDictionary.isEnabled() && subjectDictionary.isLegacyMarks()) {
+			dateField = "epochDay";
+			operations.add(Aggregation.addFields()
+					.addFieldWithValueOf(dateField, subjectDictionary.epochDayExpression("marks.date")).build());
+		}
+		operations.addAll(List.of(Aggregation.sort(Sort.by(dateField).and(order)), Aggregation.skip((long) offset),
+				Aggregation.limit(limit), Aggregation.replaceRoot("marks")));
+		return Aggregation.newAggregation(operations);
+	}
+
+	private void checkExists(long id) {
 		if (!studentRepo.existsById(id)) {
+			log.error("Student with id: {} not found", id);
 			throw new StudentNotFoundException();
 		}
+	}
 
-		MatchOperation matchStudentOperation = Aggregation.match(Criteria.where("id").is(id));
-		UnwindOperation unwindOperation = Aggregation.unwind("marks");
-		MatchOperation matchOperation = Aggregation.match(Criteria.where("marks.date").gte(from).lte(to));
-		ProjectionOperation projectOperation = Aggregation.project("marks.subject", "marks.score", "marks.date");
-		Aggregation pipeline = Aggregation.newAggregation(matchStudentOperation, unwindOperation, matchOperation,
-				projectOperation);
-		var aggregationResult = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> documents = aggregationResult.getMappedResults();
-		log.debug("received {} documents", documents.size());
-		List<Mark> res = documents.stream().map(d -> new Mark(d.getString("subject"), d.getInteger("score"),
-				d.getDate("date").toInstant().atZone(ZoneId.systemDefault()).toLocalDate())).toList();
-		log.debug("marks of student {} from date {} to date {} are {}", id, from, to, res);
+	/**
+	 * 
+	 * @return marks of a given student or throws StudentNotFoundException
+	 */
+	private List<Mark> findMarks(long id) {
+		List<Mark> res;
+		if (marksBucketStore.isEnabled()) {
+			checkExists(id);
+			res = marksBucketStore.getMarks(id);
+		} else {
+			Query query = new Query(Criteria.where("id").is(id));
+			query.fields().include("marks");
+			res = findProjectedMarks(id, query);
+		}
 		return res;
 	}
 
+	private List<Mark> page(List<Mark> marks, int offset, int limit) {
+		int from = Math.min(offset, marks.size());
+		return marks.subList(from, Math.min(from + limit, marks.size()));
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @param markCondition condition on the variable "mark"
+	 * @return marks of a given student matching a given condition, filtered on the
+	 *         server side by a single find
+	 */
+	private List<Mark> findFilteredMarks(long id, AggregationExpression markCondition) {
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().project(ArrayOperators.Filter.filter("marks").as("mark").by(markCondition)).as("marks");
+		return findProjectedMarks(id, query);
+	}
+
+	private List<Mark> findProjectedMarks(long id, Query query) {
+		StudentDoc studentDoc = mongoTemplate.findOne(query, StudentDoc.class);
+		if (studentDoc == null) {
+			log.error("Student with id: {} not found", id);
+			throw new StudentNotFoundException();
+		}
+		return studentDoc.getMarks();
+	}
+
 	@Override
 	public List<Long> getBestStudents(int nStudents) {
-		int criteria = 80;
-		UnwindOperation unwindOperation = Aggregation.unwind("marks");
-		MatchOperation matchOperation = Aggregation.match(Criteria.where("marks.score").gt(criteria));
-		GroupOperation groupOperation = Aggregation.group("id").count().as("nScores");
-		SortOperation sortOperation = Aggregation.sort(Direction.DESC, "nScores");
-		LimitOperation limitOperation = Aggregation.limit(nStudents);
-		ProjectionOperation projectOperation = Aggregation.project("id");
-		Aggregation pipeline = Aggregation.newAggregation(unwindOperation, matchOperation, groupOperation,
-				sortOperation, limitOperation, projectOperation);
-		var aggregResults = mongoTemplate.aggregate(pipeline, StudentDoc.class, Document.class);
-		List<Document> documents = aggregResults.getMappedResults();
-		List<Long> res = documents.stream().map(d -> d.getLong("_id")).toList();
-
-		log.debug("received {} documents", res.size());
+		List<Long> res;
+		if (leaderboard.isEnabled()) {
+			res = leaderboard.getBest(nStudents);
+		} else if (marksAnalytics.isEnabled()) {
+			res = marksAnalytics.getBestStudents(nStudents);
+		} else {
+			res = mongoTemplate.find(bestStudentsQuery(nStudents), StudentDoc.class).stream().map(StudentDoc::getId)
+					.toList();
+			log.debug("received {} documents", res.size());
+		}
 		log.debug("{} best students  are {}", nStudents, res);
 		return res;
 	}
 
 	@Override
 	public List<Long> getWorstStudents(int nStudents) {
-		AggregationExpression expression = AccumulatorOperators.Sum.sumOf("marks.score");
-		ProjectionOperation projectionOperation = Aggregation.project("id").and(expression).as("sumScore");
-		SortOperation sortOperation = Aggregation.sort(Direction.ASC, "sumScore");
-		LimitOperation limitOperation = Aggregation.limit(nStudents);
-		ProjectionOperation projectionOperationOnlyId = Aggregation.project("id");
-		Aggregation pipeLine = Aggregation.newAggregation(projectionOperation, sortOperation, limitOperation,
-				projectionOperationOnlyId);
-		List<Long> res = mongoTemplate.aggregate(pipeLine, StudentDoc.class, Document.class).getMappedResults().stream()
-				.map(d -> d.getLong("id")).toList();
+		List<Long> res;
+		if (leaderboard.isEnabled()) {
+			res = leaderboard.getWorst(nStudents);
+		} else {
+			res = mongoTemplate.find(worstStudentsQuery(nStudents), StudentDoc.class).stream().map(StudentDoc::getId)
+					.toList();
+		}
 		log.debug("{} worst students are {}", nStudents, res);
 		return res;
 	}
+
+	static Query bestStudentsQuery(int nStudents) {
+		Query res = new Query(Criteria.where("goodMarksCount").gt(0))
+				.with(Sort.by(Direction.DESC, "goodMarksCount").and(Sort.by("id"))).limit(nStudents);
+		res.fields().include("id", "goodMarksCount");
+		return res;
+	}
+
+	static Query worstStudentsQuery(int nStudents) {
+		Query res = new Query().with(Sort.by("scoreSum", "id")).limit(nStudents);
+		res.fields().include("id", "scoreSum");
+		return res;
+	}
+
+	@Override
+	public int getRank(long id) {
+		Integer res = leaderboard.isEnabled() ? leaderboard.getRank(id) : findRank(id);
+		if (res == null) {
+			log.error("Student with id: {} not found", id);
+			throw new StudentNotFoundException();
+		}
+		log.debug("rank of student with id {} is {}", id, res);
+		return res;
+	}
+
+	private Integer findRank(long id) {
+		Query studentQuery = new Query(Criteria.where("id").is(id));
+		studentQuery.fields().include("id", "goodMarksCount");
+		StudentDoc studentDoc = mongoTemplate.findOne(studentQuery, StudentDoc.class);
+		Integer res = null;
+		if (studentDoc != null) {
+			res = (int) mongoTemplate.count(aheadQuery(id, studentDoc.getGoodMarksCount()), StudentDoc.class) + 1;
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return query of the students ranked ahead of a given student having a given
+	 *         amount of good marks
+	 */
+	static Query aheadQuery(long id, int goodMarksCount) {
+		return new Query(new Criteria().orOperator(Criteria.where("goodMarksCount").gt(goodMarksCount),
+				Criteria.where("goodMarksCount").is(goodMarksCount).and("id").lt(id)));
+	}
+
+	@Override
+	public MarksStats getSubjectMarksStats(String subject, int month, int year) {
+		MarksStats res = marksRollups.getStats(subject, month, year);
+		log.debug("marks statistics of subject {} in {}/{}: {}", subject, month, year, res);
+		return res;
+	}
+
+	@Override
+	public MarksStats getMarksStats(int month, int year) {
+		MarksStats res = marksRollups.getStats(month, year);
+		log.debug("marks statistics in {}/{}: {}", month, year, res);
+		return res;
+	}
+
+	@Override
+	public Integer getScorePercentile(String subject, YearMonth from, YearMonth to, double percentile) {
+		Integer res = marksRollups.getPercentile(subject, from, to, percentile);
+		log.debug("percentile {} of subject {} scores in {} - {} is {}", percentile, subject, from, to, res);
+		return res;
+	}
+
+	@Override
+	public List<Long> getScoreHistogram(String subject, YearMonth from, YearMonth to, int bucketWidth) {
+		List<Long> res = marksRollups.getHistogram(subject, from, to, bucketWidth);
+		log.debug("histogram of subject {} scores in {} - {} is {}", subject, from, to, res);
+		return res;
+	}
+
+	@Override
+	public Stream<Student> streamStudentsByPhonePrefix(String prefix) {
+		return streamStudents(phonePrefixCriteria(prefix));
+	}
+
+	@Override
+	public List<Student> getStudentsByPhonePrefix(String prefix, long afterId, int limit) {
+		return findStudentsPage(phonePrefixCriteria(prefix), afterId, limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsMarksDate(LocalDate date) {
+		return streamStudentsAnyMark(markDateCriteria(subjectDictionary, date), new Criteria());
+	}
+
+	@Override
+	public List<Student> getStudentsMarksDate(LocalDate date, long afterId, int limit) {
+		return findStudentsAnyMarkPage(markDateCriteria(subjectDictionary, date), new Criteria(), afterId, limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsMarksMonthYear(int month, int year) {
+		return streamStudentsAnyMark(markMonthYearCriteria(subjectDictionary, month, year), new Criteria());
+	}
+
+	@Override
+	public List<Student> getStudentsMarksMonthYear(int month, int year, long afterId, int limit) {
+		return findStudentsAnyMarkPage(markMonthYearCriteria(subjectDictionary, month, year), new Criteria(), afterId,
+				limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsGoodSubjectMark(String subject, int markThreshold) {
+		return streamStudentsAnyMark(goodSubjectMarkCriteria(subjectDictionary, subject, markThreshold),
+				new Criteria());
+	}
+
+	@Override
+	public List<Student> getStudentsGoodSubjectMark(String subject, int markThreshold, long afterId, int limit) {
+		return findStudentsAnyMarkPage(goodSubjectMarkCriteria(subjectDictionary, subject, markThreshold),
+				new Criteria(), afterId, limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsAllGoodMarks(int markThreshold) {
+		return streamStudents(allGoodMarksCriteria(markThreshold));
+	}
+
+	@Override
+	public List<Student> getStudentsAllGoodMarks(int markThreshold, long afterId, int limit) {
+		return findStudentsPage(allGoodMarksCriteria(markThreshold), afterId, limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsFewMarks(int nMarks) {
+		return streamStudents(fewMarksCriteria(nMarks));
+	}
+
+	@Override
+	public List<Student> getStudentsFewMarks(int nMarks, long afterId, int limit) {
+		return findStudentsPage(fewMarksCriteria(nMarks), afterId, limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsAllGoodMarksSubject(String subject, int thresholdScore) {
+		return streamStudentsAnyMark(subjectMarkCriteria(subjectDictionary, subject),
+				allGoodMarksCriteria(thresholdScore));
+	}
+
+	@Override
+	public List<Student> getStudentsAllGoodMarksSubject(String subject, int thresholdScore, long afterId,
+			int limit) {
+		return findStudentsAnyMarkPage(subjectMarkCriteria(subjectDictionary, subject),
+				allGoodMarksCriteria(thresholdScore), afterId, limit);
+	}
+
+	@Override
+	public Stream<Student> streamStudentsMarksAmountBetween(int min, int max) {
+		return streamStudents(marksAmountBetweenCriteria(min, max));
+	}
+
+	@Override
+	public List<Student> getStudentsMarksAmountBetween(int min, int max, long afterId, int limit) {
+		return findStudentsPage(marksAmountBetweenCriteria(min, max), afterId, limit);
+	}
+
+	@Override
+	public Stream<StudentAvgScore> streamStudentsAvgScoreGreater(int avgThreshold) {
+		return mongoTemplate.aggregateStream(avgScoreGreaterPipeline(avgThreshold), StudentDoc.class, Document.class)
+				.map(StudentsServiceImpl::toStudentAvgScore);
+	}
+
+	private Stream<Student> streamStudents(Criteria criteria) {
+		Query query = new Query(criteria);
+		query.fields().include("id", "phone");
+		return mongoTemplate.stream(query, StudentDoc.class).map(StudentDoc::build);
+	}
+
+	private List<Student> findStudents(Criteria criteria) {
+		Query query = new Query(criteria);
+		query.fields().include("id", "phone");
+		return mongoTemplate.find(query, StudentDoc.class).stream().map(StudentDoc::build).toList();
+	}
+
+	private List<Student> findStudentsPage(Criteria criteria, long afterId, int limit) {
+		checkLimit(limit);
+		Query query = new Query(new Criteria().andOperator(criteria, Criteria.where("id").gt(afterId)))
+				.with(Sort.by("id")).limit(limit);
+		query.fields().include("id", "phone");
+		List<Student> res = mongoTemplate.find(query, StudentDoc.class).stream().map(StudentDoc::build).toList();
+		log.debug("page after id {} -> students {}", afterId, res);
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return students matching studentCriteria and having at least one mark
+	 *         matching markCriteria. In the bucket storage mode they are found by
+	 *         {@link MarksBucketStore#studentsPipeline} in the id order
+	 */
+	private List<Student> findStudentsAnyMark(Criteria markCriteria, Criteria studentCriteria) {
+		return marksBucketStore.isEnabled()
+				? mongoTemplate.aggregate(marksBucketStore.studentsPipeline(markCriteria, studentCriteria),
+						MarksBucketDoc.class, StudentDoc.class).getMappedResults().stream().map(StudentDoc::build)
+						.toList()
+				: findStudents(anyMarkCriteria(markCriteria, studentCriteria));
+	}
+
+	private Stream<Student> streamStudentsAnyMark(Criteria markCriteria, Criteria studentCriteria) {
+		return marksBucketStore.isEnabled()
+				? mongoTemplate.aggregateStream(marksBucketStore.studentsPipeline(markCriteria, studentCriteria),
+						MarksBucketDoc.class, StudentDoc.class).map(StudentDoc::build)
+				: streamStudents(anyMarkCriteria(markCriteria, studentCriteria));
+	}
+
+	private List<Student> findStudentsAnyMarkPage(Criteria markCriteria, Criteria studentCriteria, long afterId,
+			int limit) {
+		checkLimit(limit);
+		List<Student> res;
+		if (marksBucketStore.isEnabled()) {
+			res = mongoTemplate.aggregate(
+					marksBucketStore.studentsPipeline(markCriteria, studentCriteria, afterId, limit),
+					MarksBucketDoc.class, StudentDoc.class).getMappedResults().stream().map(StudentDoc::build)
+					.toList();
+			log.debug("page after id {} -> students {}", afterId, res);
+		} else {
+			res = findStudentsPage(anyMarkCriteria(markCriteria, studentCriteria), afterId, limit);
+		}
+		return res;
+	}
+
+	/**
+	 * 
+	 * @return criteria of the students matching studentCriteria and having at
+	 *         least one embedded mark matching markCriteria
+	 */
+	static Criteria anyMarkCriteria(Criteria markCriteria, Criteria studentCriteria) {
+		return new Criteria().andOperator(studentCriteria, Criteria.where("marks").elemMatch(markCriteria));
+	}
+
+	static Criteria markDateCriteria(SubjectDictionary subjectDictionary, LocalDate date) {
+		return subjectDictionary.dateCriteria("date", date);
+	}
+
+	static Criteria markMonthYearCriteria(SubjectDictionary subjectDictionary, int month, int year) {
+		LocalDate start = LocalDate.of(year, month, 1);
+		LocalDate end = start.with(TemporalAdjusters.lastDayOfMonth());
+		return subjectDictionary.datesCriteria("date", start, end);
+	}
+
+	static Criteria goodSubjectMarkCriteria(SubjectDictionary subjectDictionary, String subject,
+			int markThreshold) {
+		return new Criteria().andOperator(subjectMarkCriteria(subjectDictionary, subject),
+				Criteria.where("score").gte(markThreshold));
+	}
+
+	static Criteria subjectMarkCriteria(SubjectDictionary subjectDictionary, String subject) {
+		return subjectDictionary.subjectCriteria("subject", subject);
+	}
+
+	/**
+	 * 
+	 * @param markThreshold
+	 * @return criteria of the students having marks, all of them greater than a
+	 *         given threshold. It is expressed by the minimal score of the marks
+	 *         summary, so it is bounded on the min_score index
+	 */
+	static Criteria allGoodMarksCriteria(int markThreshold) {
+		return Criteria.where("minScore").gt(markThreshold);
+	}
+
+	private Criteria fewMarksCriteria(int nMarks) {
+		return Criteria.where("marksCount").lt(nMarks);
+	}
+
+	private Criteria marksAmountBetweenCriteria(int min, int max) {
+		return Criteria.where("marksCount").gte(min).lte(max);
+	}
 }
@@ -0,0 +1,12 @@
+package telran.students.transfer;
+
+import java.util.List;
+
+import telran.students.dto.Mark;
+
+/**
+ * student with marks as a line of the NDJSON export
+ */
+public record StudentRecord(long id, String phone, List<Mark> marks) {
+
+}
@@ -0,0 +1,385 @@
+package telran.students.transfer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.model.StudentDoc;
+import telran.students.service.MarksBucketStore;
+import telran.students.service.PartitionedStudentsService;
+import telran.students.service.StudentsService;
+
+/**
+ * Export and import of the students with their marks as NDJSON lines
+ * ({@link StudentRecord}) or as CSV rows id,phone,subject,score,date (one row
+ * per mark, a student without marks has empty mark fields). The format is
+ * defined by the file name: *.csv or *.csv.gz - CSV, otherwise NDJSON; *.gz
+ * files are compressed with gzip. Both directions hold at most one batch of
+ * students in memory. The export is sorted by id, a transfer with afterId
+ * processes only the students having greater ids. A resumed export appends to
+ * the existing file after truncating its cut last line and its records of
+ * greater ids, which may have been flushed before a crash. A compressed file
+ * cut short can't be appended, as a new gzip member after it isn't readable, so
+ * a compressed export is resumed into a new file. The last id is logged after both the students and the
+ * marks of a batch are added, so a resumed import also adds the marks to the
+ * existing students having none: they are the students of an interrupted
+ * batch. A compressed export is flushed per batch with the gzip sync flush. In
+ * the partitioned mode the students of all partitions are exported merged by id
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StudentsTransfer {
+	static final int BUFFER_SIZE = 1 << 16;
+	static final String CSV_HEADER = "id,phone,subject,score,date";
+	final MongoTemplate mongoTemplate;
+	final MarksBucketStore marksBucketStore;
+	final StudentsService studentsService;
+	final Optional<PartitionedStudentsService> partitionedService;
+	final ObjectMapper objectMapper;
+	@Value("${app.students.batch.size:1000}")
+	int batchSize;
+	@Value("${app.transfer.import-file:}")
+	String importFile;
+	@Value("${app.transfer.export-file:}")
+	String exportFile;
+	@Value("${app.transfer.after-id:" + Long.MIN_VALUE + "}")
+	long afterId;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onStartup() throws IOException {
+		if (!importFile.isEmpty()) {
+			importStudents(Path.of(importFile), afterId);
+		}
+		if (!exportFile.isEmpty()) {
+			export(Path.of(exportFile), afterId);
+		}
+	}
+
+	public TransferReport export(Path file, long afterId) throws IOException {
+		boolean csv = isCsv(file);
+		boolean resumed = afterId != Long.MIN_VALUE;
+		if (resumed && Files.exists(file) && Files.size(file) > 0) {
+			if (isCompressed(file)) {
+				throw new IllegalArgumentException(
+						"compressed export %s can't be appended, it must be resumed into a new file".formatted(file));
+			}
+			truncateAfter(file, afterId, csv);
+		}
+		Query query = new Query(Criteria.where("id").gt(afterId)).with(Sort.by("id"));
+		query.fields().include("id", "phone", "marks");
+		ObjectWriter recordWriter = objectMapper.writerFor(StudentRecord.class);
+		long nStudents = 0;
+		long nMarks = 0;
+		long lastId = afterId;
+		try (Writer writer = newWriter(file, resumed);
+				Stream<StudentDoc> docs = streamStudentDocs(query)) {
+			if (csv && !resumed) {
+				writer.write(CSV_HEADER);
+				writer.write('\n');
+			}
+			Iterator<StudentDoc> it = docs.iterator();
+			List<StudentDoc> batch = new ArrayList<>(batchSize);
+			while (it.hasNext()) {
+				batch.add(it.next());
+				if (batch.size() == batchSize || !it.hasNext()) {
+					Map<Long, List<Mark>> bucketMarks = marksBucketStore.isEnabled()
+							? marksBucketStore.getMarks(batch.stream().map(StudentDoc::getId).toList())
+							: Map.of();
+					for (StudentDoc doc : batch) {
+						StudentRecord record = new StudentRecord(doc.getId(), doc.getPhone(),
+								marksBucketStore.isEnabled() ? bucketMarks.getOrDefault(doc.getId(), List.of())
+										: doc.getMarks());
+						if (csv) {
+							writeCsv(record, writer);
+						} else {
+							writer.write(recordWriter.writeValueAsString(record));
+							writer.write('\n');
+						}
+						nMarks += record.marks().size();
+					}
+					nStudents += batch.size();
+					lastId = batch.get(batch.size() - 1).getId();
+					writer.flush();
+					log.debug("{} students have been exported, last id {}", nStudents, lastId);
+					batch.clear();
+				}
+			}
+		}
+		TransferReport res = new TransferReport(nStudents, nMarks, 0, lastId);
+		log.info("students have been exported to {}: {}", file, res);
+		return res;
+	}
+
+	public TransferReport importStudents(Path file, long afterId) throws IOException {
+		boolean resumed = afterId != Long.MIN_VALUE;
+		ObjectReader recordReader = objectMapper.readerFor(StudentRecord.class);
+		long nStudents = 0;
+		long nMarks = 0;
+		long nSkipped = 0;
+		long lastId = afterId;
+		try (BufferedReader reader = newReader(file)) {
+			Iterator<StudentRecord> it = isCsv(file) ? new CsvRecords(reader) : reader.lines()
+					.filter(line -> !line.isBlank()).map(line -> readRecord(recordReader, line)).iterator();
+			List<StudentRecord> batch = new ArrayList<>(batchSize);
+			while (it.hasNext()) {
+				StudentRecord record = it.next();
+				if (record.id() > afterId) {
+					batch.add(record);
+				}
+				if (!batch.isEmpty() && (batch.size() == batchSize || !it.hasNext())) {
+					Set<Long> duplicateIds = new HashSet<>(studentsService
+							.addStudents(batch.stream().map(r -> new Student(r.id(), r.phone())).toList()));
+					Set<Long> noMarksIds = resumed ? findNoMarksIds(duplicateIds) : Set.of();
+					Map<Long, List<Mark>> marks = new LinkedHashMap<>();
+					batch.stream().filter(r -> (!duplicateIds.contains(r.id()) || noMarksIds.contains(r.id()))
+							&& !r.marks().isEmpty()).forEach(r -> marks.put(r.id(), r.marks()));
+					studentsService.addMarks(marks);
+					nStudents += batch.size() - duplicateIds.size();
+					nMarks += marks.values().stream().mapToLong(List::size).sum();
+					nSkipped += duplicateIds.size();
+					lastId = batch.get(batch.size() - 1).id();
+					log.debug("{} students have been imported, last id {}", nStudents + nSkipped, lastId);
+					batch.clear();
+				}
+			}
+		}
+		TransferReport res = new TransferReport(nStudents, nMarks, nSkipped, lastId);
+		log.info("students have been imported from {}: {}", file, res);
+		return res;
+	}
+
+	/**
+	 * truncates the cut last line of a given export and its last records of the
+	 * ids greater than afterId
+	 */
+	private void truncateAfter(Path file, long afterId, boolean csv) throws IOException {
+		ObjectReader recordReader = objectMapper.readerFor(StudentRecord.class);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long end = lineStart(channel, channel.size());
+			while (end > 0) {
+				long start = lineStart(channel, end - 1);
+				ByteBuffer buffer = ByteBuffer.allocate((int) (end - 1 - start));
+				readFully(channel, buffer, start);
+				String line = new String(buffer.array(), StandardCharsets.UTF_8);
+				if (csv && line.equals(CSV_HEADER)) {
+					break;
+				}
+				if (!line.isBlank()) {
+					long id = csv ? Long.parseLong(line.substring(0, line.indexOf(',')))
+							: readRecord(recordReader, line).id();
+					if (id <= afterId) {
+						break;
+					}
+				}
+				end = start;
+			}
+			if (end < channel.size()) {
+				log.warn("export {} is truncated from {} to {} bytes, its records after id {} are exported again",
+						file, channel.size(), end, afterId);
+				channel.truncate(end);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return position following the last line feed before a given position, 0
+	 *         if there is none
+	 */
+	private static long lineStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		while (position > 0) {
+			int length = (int) Math.min(BUFFER_SIZE, position);
+			buffer.clear().limit(length);
+			readFully(channel, buffer, position - length);
+			for (int i = length - 1; i >= 0; i--) {
+				if (buffer.get(i) == '\n') {
+					return position - length + i + 1;
+				}
+			}
+			position -= length;
+		}
+		return 0;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param query query sorted by id
+	 * @return documents of the students of all partitions merged by id or of the
+	 *         database if it isn't partitioned
+	 */
+	private Stream<StudentDoc> streamStudentDocs(Query query) {
+		return partitionedService
+				.map(service -> service.stream(query, StudentDoc.class, Comparator.comparingLong(StudentDoc::getId)))
+				.orElseGet(() -> mongoTemplate.stream(query, StudentDoc.class));
+	}
+
+	/**
+	 * 
+	 * @return ids of the given existing students having no marks
+	 */
+	private Set<Long> findNoMarksIds(Set<Long> ids) {
+		Set<Long> res = new HashSet<>();
+		if (!ids.isEmpty()) {
+			Query query = new Query(Criteria.where("id").in(ids).and("marksCount").not().gt(0));
+			query.fields().include("id");
+			partitionedService.map(service -> service.find(query, StudentDoc.class))
+					.orElseGet(() -> mongoTemplate.find(query, StudentDoc.class)).forEach(doc -> res.add(doc.getId()));
+			log.debug("marks of existing students {} are added by the resumed import", res);
+		}
+		return res;
+	}
+
+	private boolean isCsv(Path file) {
+		String name = file.getFileName().toString();
+		return name.endsWith(".csv") || name.endsWith(".csv.gz");
+	}
+
+	private boolean isCompressed(Path file) {
+		return file.getFileName().toString().endsWith(".gz");
+	}
+
+	private Writer newWriter(Path file, boolean append) throws IOException {
+		OutputStream output = Channels.newOutputStream(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING));
+		// the sync flush makes the compressed data of every flushed batch readable
+		output = isCompressed(file) ? new GZIPOutputStream(output, BUFFER_SIZE, true)
+				: new BufferedOutputStream(output, BUFFER_SIZE);
+		return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	private BufferedReader newReader(Path file) throws IOException {
+		InputStream input = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+		input = isCompressed(file) ? new GZIPInputStream(input, BUFFER_SIZE)
+				: new BufferedInputStream(input, BUFFER_SIZE);
+		return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	private StudentRecord readRecord(ObjectReader recordReader, String line) {
+		try {
+			return recordReader.readValue(line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeCsv(StudentRecord record, Writer writer) throws IOException {
+		String student = record.id() + "," + csvField(record.phone()) + ",";
+		if (record.marks().isEmpty()) {
+			writer.write(student + ",,\n");
+		}
+		for (Mark mark : record.marks()) {
+			writer.write(student + csvField(mark.subject()) + "," + mark.score() + "," + mark.date() + "\n");
+		}
+	}
+
+	private static String csvField(String value) {
+		return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+	}
+
+	/**
+	 * splits a CSV row, quoted fields may contain commas and doubled quotes
+	 */
+	static List<String> parseCsv(String line) {
+		List<String> res = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append(c);
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				res.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		res.add(field.toString());
+		return res;
+	}
+
+	/**
+	 * joins the consecutive CSV rows of a student into one record
+	 */
+	static class CsvRecords implements Iterator<StudentRecord> {
+		final Iterator<String> lines;
+		List<String> nextRow;
+
+		CsvRecords(BufferedReader reader) {
+			lines = reader.lines().filter(line -> !line.isBlank()).iterator();
+			if (lines.hasNext() && !lines.next().equals(CSV_HEADER)) {
+				throw new IllegalStateException("CSV header must be " + CSV_HEADER);
+			}
+			nextRow = lines.hasNext() ? parseCsv(lines.next()) : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextRow != null;
+		}
+
+		@Override
+		public StudentRecord next() {
+			if (nextRow == null) {
+				throw new NoSuchElementException();
+			}
+			String id = nextRow.get(0);
+			String phone = nextRow.get(1);
+			List<Mark> marks = new ArrayList<>();
+			do {
+				if (!nextRow.get(2).isEmpty()) {
+					marks.add(new Mark(nextRow.get(2), Integer.parseInt(nextRow.get(3)),
+							LocalDate.parse(nextRow.get(4))));
+				}
+				nextRow = lines.hasNext() ? parseCsv(lines.next()) : null;
+			} while (nextRow != null && nextRow.get(0).equals(id));
+			return new StudentRecord(Long.parseLong(id), phone, marks);
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package telran.students.transfer;
+
+/**
+ * result of an export or import. lastId is the id of the last transferred
+ * student, an interrupted transfer is resumed after the last logged lastId
+ * 
+ * @param nSkipped amount of the imported students that already exist
+ */
+public record TransferReport(long nStudents, long nMarks, long nSkipped, long lastId) {
+
+}
@@ -0,0 +1,260 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import telran.students.benchmarks.TestDataGenerator;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.indexes.IndexesManager;
+import telran.students.metrics.ExplainSummary;
+import telran.students.metrics.MongoCommandMetricsListener;
+import telran.students.repo.StudentRepo;
+import telran.students.service.MarksSummaryUpdater;
+import telran.students.service.StudentsServiceImpl;
+
+/**
+ * Explains every query command sent by the StudentRepo queries and the
+ * StudentsService queries on a generated data set. A plan fails if it scans
+ * the collection or examines more documents per document of the command result
+ * than query-plan.max-docs-examined-ratio. The result is counted from the
+ * replies of the command and its getMore commands, as nReturned of an
+ * aggregation explain is of its $cursor stage, i.e. before $group or $match of
+ * the computed fields. A query returning nothing fails, as its plan proves
+ * nothing
+ */
+@SpringBootTest
+@TestInstance(Lifecycle.PER_CLASS)
+class QueryPlanTests {
+	static final int N_STUDENTS = 2000;
+	static final int N_MARKS = 10;
+	static final long ID = 5;
+	static final String SUBJECT = TestDataGenerator.SUBJECTS[0];
+	static final LocalDate DATE = TestDataGenerator.FIRST_DATE.plusDays(100);
+	static final int GOOD_SCORE = 90;
+	static final int ALL_GOOD_SCORE = 70;
+	// students with a single good mark added to the generated ones, so the few
+	// marks and all good marks queries return a small part of the students
+	static final int N_FEW_MARKS_STUDENTS = 10;
+	static final Mark FEW_MARKS_MARK = new Mark(SUBJECT, 95, DATE);
+
+	@Autowired
+	StudentRepo studentRepo;
+
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	IndexesManager indexesManager;
+
+	@Autowired
+	MarksSummaryUpdater marksSummaryUpdater;
+
+	@Autowired
+	CapturingCommandListener commandListener;
+
+	@Value("${query-plan.max-docs-examined-ratio:3}")
+	double maxDocsExaminedRatio;
+
+	static class CapturedCommand {
+		final BsonDocument command;
+		long returned;
+
+		CapturedCommand(BsonDocument command) {
+			this.command = command;
+		}
+	}
+
+	static class CapturingCommandListener implements CommandListener {
+		final List<CapturedCommand> commands = new ArrayList<>();
+		final Map<Integer, BsonDocument> startedCommands = new HashMap<>();
+		final Map<Long, CapturedCommand> cursors = new HashMap<>();
+		volatile boolean capturing;
+
+		@Override
+		public synchronized void commandStarted(CommandStartedEvent event) {
+			String commandName = event.getCommandName();
+			if (capturing && (commandName.equals("getMore")
+					|| List.of("find", "aggregate", "count", "distinct").contains(commandName))) {
+				startedCommands.put(event.getRequestId(),
+						new RawBsonDocument(event.getCommand(), new BsonDocumentCodec()));
+			}
+		}
+
+		@Override
+		public synchronized void commandSucceeded(CommandSucceededEvent event) {
+			BsonDocument command = startedCommands.remove(event.getRequestId());
+			if (command != null) {
+				BsonDocument response = event.getResponse();
+				CapturedCommand captured = event.getCommandName().equals("getMore")
+						? cursors.get(command.getInt64("getMore").getValue())
+						: new CapturedCommand(command);
+				if (captured != null) {
+					if (captured.command == command) {
+						commands.add(captured);
+					}
+					captured.returned += MongoCommandMetricsListener.getDocumentsCount(response);
+					BsonDocument cursor = response.getDocument("cursor", null);
+					if (cursor != null && cursor.getInt64("id").getValue() != 0) {
+						cursors.put(cursor.getInt64("id").getValue(), captured);
+					}
+				}
+			}
+		}
+
+		List<CapturedCommand> capture(Runnable query) {
+			synchronized (this) {
+				commands.clear();
+				startedCommands.clear();
+				cursors.clear();
+			}
+			capturing = true;
+			try {
+				query.run();
+			} finally {
+				capturing = false;
+			}
+			synchronized (this) {
+				return List.copyOf(commands);
+			}
+		}
+	}
+
+	@TestConfiguration
+	static class CapturingConfig {
+		@Bean
+		CapturingCommandListener capturingCommandListener() {
+			return new CapturingCommandListener();
+		}
+
+		@Bean
+		MongoClientSettingsBuilderCustomizer capturingCustomizer(CapturingCommandListener listener) {
+			return builder -> builder.addCommandListener(listener);
+		}
+	}
+
+	@BeforeAll
+	void setUp() {
+		new TestDataGenerator(mongoTemplate, indexesManager, marksSummaryUpdater, ID).generate(N_STUDENTS, N_MARKS);
+		LongStream.rangeClosed(N_STUDENTS + 1, N_STUDENTS + N_FEW_MARKS_STUDENTS).forEach(id -> {
+			studentsService.addStudent(new Student(id, TestDataGenerator.phone(id)));
+			studentsService.addMark(id, FEW_MARKS_MARK);
+		});
+	}
+
+	@TestFactory
+	Stream<DynamicTest> repoQueries_indexed() {
+		String phone = TestDataGenerator.phone(ID);
+		Map<String, Runnable> queries = new LinkedHashMap<>();
+		queries.put("findStudentNoMarks", () -> studentRepo.findStudentNoMarks(ID));
+		queries.put("findStudentOnlyMarks", () -> studentRepo.findStudentOnlyMarks(ID));
+		queries.put("findByPhone", () -> studentRepo.findByPhone(phone));
+		queries.put("findByPhoneRegex", () -> studentRepo.findByPhoneRegex("^" + phone.substring(0, 8)));
+		queries.put("findStudentByMarkDate", () -> studentRepo.findStudentByMarkDate(DATE));
+		queries.put("findStudentsGoodSubjectMark", () -> studentRepo.findStudentsGoodSubjectMark(SUBJECT, GOOD_SCORE));
+		queries.put("findStudentsBetweenDates", () -> studentRepo.findStudentsBetweenDates(DATE, DATE.plusDays(3)));
+		queries.put("findByMarksDate", () -> studentRepo.findByMarksDate(DATE));
+		queries.put("findByMarksDateBetween", () -> studentRepo.findByMarksDateBetween(DATE, DATE.plusDays(3)));
+		queries.put("findByMarksSubjectAndMarksScoreGreaterThan",
+				() -> studentRepo.findByMarksSubjectAndMarksScoreGreaterThan(SUBJECT, GOOD_SCORE));
+		queries.put("findAllGoodMarks", () -> studentRepo.findAllGoodMarks(ALL_GOOD_SCORE));
+		queries.put("findAllGoodMarksInSubject", () -> studentRepo.findAllGoodMarksInSubject(SUBJECT, ALL_GOOD_SCORE));
+		queries.put("findFewMarks", () -> studentRepo.findFewMarks(N_MARKS));
+		queries.put("findMarksAmountBetween", () -> studentRepo.findMarksAmountBetween(N_MARKS, N_MARKS));
+		return planTests(queries, true);
+	}
+
+	@TestFactory
+	Stream<DynamicTest> serviceQueries_indexed() {
+		String phone = TestDataGenerator.phone(ID);
+		Map<String, Runnable> queries = new LinkedHashMap<>();
+		queries.put("getStudent", () -> studentsService.getStudent(ID));
+		queries.put("getMarks", () -> studentsService.getMarks(ID));
+		queries.put("getMarks slice", () -> studentsService.getMarks(ID, 2, 3));
+		queries.put("getLatestMarks", () -> studentsService.getLatestMarks(ID, 3));
+		queries.put("getStudentByPhoneNumber", () -> studentsService.getStudentByPhoneNumber(phone));
+		queries.put("getStudentsByPhonePrefix",
+				() -> studentsService.getStudentsByPhonePrefix(phone.substring(0, 8)));
+		queries.put("getStudentsMarksDate", () -> studentsService.getStudentsMarksDate(DATE));
+		queries.put("getStudentsMarksMonthYear", () -> studentsService.getStudentsMarksMonthYear(4, 2024));
+		queries.put("getStudentsGoodSubjectMark",
+				() -> studentsService.getStudentsGoodSubjectMark(SUBJECT, GOOD_SCORE));
+		queries.put("getStudentsAllGoodMarks", () -> studentsService.getStudentsAllGoodMarks(ALL_GOOD_SCORE));
+		queries.put("getStudentsFewMarks", () -> studentsService.getStudentsFewMarks(N_MARKS));
+		queries.put("getStudentsAllGoodMarksSubject",
+				() -> studentsService.getStudentsAllGoodMarksSubject(SUBJECT, ALL_GOOD_SCORE));
+		queries.put("getStudentsMarksAmountBetween",
+				() -> studentsService.getStudentsMarksAmountBetween(N_MARKS, N_MARKS));
+		queries.put("getStudentMarksSubject", () -> studentsService.getStudentMarksSubject(ID, SUBJECT));
+		queries.put("getStudentMarksAtDates",
+				() -> studentsService.getStudentMarksAtDates(ID, DATE, DATE.plusDays(30)));
+		queries.put("getBestStudents", () -> studentsService.getBestStudents(10));
+		queries.put("getWorstStudents", () -> studentsService.getWorstStudents(10));
+		queries.put("getRank", () -> studentsService.getRank(ID));
+		return planTests(queries, true);
+	}
+
+	/**
+	 * the average score is computed from the marks summary of every student
+	 * having marks, so only the index use is checked
+	 */
+	@TestFactory
+	Stream<DynamicTest> serviceQueries_allStudentsExamined_indexed() {
+		Map<String, Runnable> queries = new LinkedHashMap<>();
+		queries.put("getStudentsAvgScoreGreater", () -> studentsService.getStudentsAvgScoreGreater(GOOD_SCORE));
+		return planTests(queries, false);
+	}
+
+	private Stream<DynamicTest> planTests(Map<String, Runnable> queries, boolean ratioChecked) {
+		return queries.entrySet().stream().map(entry -> DynamicTest.dynamicTest(entry.getKey(),
+				() -> assertIndexed(entry.getValue(), ratioChecked)));
+	}
+
+	private void assertIndexed(Runnable query, boolean ratioChecked) {
+		List<CapturedCommand> commands = commandListener.capture(query);
+		assertFalse(commands.isEmpty(), "no query command has been sent");
+		assertTrue(commands.stream().anyMatch(captured -> captured.returned > 0), "nothing has been returned");
+		for (CapturedCommand captured : commands) {
+			String command = captured.command.toJson();
+			ExplainSummary summary = ExplainSummary
+					.of(mongoTemplate.getDb().runCommand(ExplainSummary.explainCommand(captured.command)));
+			assertFalse(summary.isCollectionScan(), () -> "collection scan: " + summary + " of " + command);
+			if (ratioChecked) {
+				double ratio = (double) summary.docsExamined() / Math.max(captured.returned, 1);
+				assertTrue(ratio <= maxDocsExaminedRatio, () -> "documents examined per returned %.1f of %d: %s of %s"
+						.formatted(ratio, captured.returned, summary, command));
+			}
+		}
+	}
+}
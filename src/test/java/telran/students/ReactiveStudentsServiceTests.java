@@ -0,0 +1,168 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import telran.students.dto.Mark;
+import telran.students.dto.MarksStats;
+import telran.students.dto.MultiGetResult;
+import telran.students.dto.Student;
+import telran.students.dto.StudentMark;
+import telran.students.exceptions.MarkNotFoundException;
+import telran.students.exceptions.PhoneIllegalStateException;
+import telran.students.exceptions.StudentIllegalStateException;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.service.ReactiveStudentsService;
+
+@SpringBootTest
+@ActiveProfiles("reactive")
+class ReactiveStudentsServiceTests {
+	@Autowired
+	ReactiveStudentsService studentsService;
+
+	@Autowired
+	TestDb testDb;
+
+	Mark mark1 = new Mark(SUBJECT1, 90, LocalDate.now());
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+	}
+
+	@Test
+	void getStudent_normalFlow_success() {
+		StepVerifier.create(studentsService.getStudent(ID1)).expectNext(students[0]).verifyComplete();
+		StepVerifier.create(studentsService.getStudent(ID_NOT_EXIST)).verifyError(StudentNotFoundException.class);
+		StepVerifier.create(studentsService.addStudent(students[0]))
+				.verifyError(StudentIllegalStateException.class);
+	}
+
+	@Test
+	void addMark_normalFlow_success() {
+		StepVerifier.create(studentsService.addMark(ID7, mark1)).expectNext(mark1).verifyComplete();
+		StepVerifier.create(studentsService.getMarks(ID7)).expectNext(mark1).verifyComplete();
+		StepVerifier.create(studentsService.addMark(ID_NOT_EXIST, mark1))
+				.verifyError(StudentNotFoundException.class);
+		StepVerifier.create(studentsService.getRank(ID7)).expectNext(4).verifyComplete();
+		StepVerifier.create(studentsService.addMark(ID7, new Mark(SUBJECT1, 300, DATE1)))
+				.verifyError(IllegalArgumentException.class);
+		StepVerifier.create(studentsService.addMarks(Flux.just(new StudentMark(ID7, new Mark(SUBJECT1, -1, DATE1)))))
+				.verifyError(IllegalArgumentException.class);
+		StepVerifier.create(studentsService.getMarks(ID7)).expectNext(mark1).verifyComplete();
+	}
+
+	@Test
+	void addMarks_notFoundReported() {
+		Flux<StudentMark> marks = Flux.just(new StudentMark(ID7, mark1), new StudentMark(ID_NOT_EXIST, mark1),
+				new StudentMark(ID7, mark1));
+		StepVerifier.create(studentsService.addMarks(marks)).expectNext(ID_NOT_EXIST).verifyComplete();
+		StepVerifier.create(studentsService.getMarks(ID7)).expectNext(mark1, mark1).verifyComplete();
+	}
+
+	@Test
+	void addStudentsAddMarks_duplicatesAndNotFoundReported() {
+		Student newStudent = new Student(ID_NEW, "050-1111111");
+		StepVerifier.create(studentsService.addStudents(List.of(students[0], newStudent, students[6])))
+				.expectNext(ID1, ID7).verifyComplete();
+		StepVerifier.create(studentsService.getStudent(ID_NEW)).expectNext(newStudent).verifyComplete();
+		StepVerifier.create(studentsService.addStudents(List.of(new Student(ID_NEW + 1, PHONE2))))
+				.verifyError(PhoneIllegalStateException.class);
+		StepVerifier.create(studentsService.addMarks(Map.of(ID_NEW, List.of(mark1), ID_NOT_EXIST, List.of(mark1))))
+				.expectNext(ID_NOT_EXIST).verifyComplete();
+		StepVerifier.create(studentsService.getMarks(ID_NEW)).expectNext(mark1).verifyComplete();
+	}
+
+	@Test
+	void getStudentsGetMarks_byIds_success() {
+		MultiGetResult<Student> studentsResult = studentsService.getStudents(List.of(ID3, ID_NOT_EXIST, ID1, ID3))
+				.block();
+		assertIterableEquals(List.of(ID3, ID1), studentsResult.found().keySet());
+		assertEquals(students[0], studentsResult.found().get(ID1));
+		assertIterableEquals(List.of(ID_NOT_EXIST), studentsResult.missingIds());
+		MultiGetResult<List<Mark>> marksResult = studentsService.getMarks(List.of(ID1, ID7, ID_NOT_EXIST)).block();
+		assertIterableEquals(List.of(marks[0]), marksResult.found().get(ID1));
+		assertTrue(marksResult.found().get(ID7).isEmpty());
+		assertIterableEquals(List.of(ID_NOT_EXIST), marksResult.missingIds());
+	}
+
+	@Test
+	void getMarksSortedByDate_normalFlow_success() {
+		Mark mark = new Mark(SUBJECT2, 90, DATE1);
+		StepVerifier.create(studentsService.addMark(ID4, mark)).expectNext(mark).verifyComplete();
+		StepVerifier.create(studentsService.getMarksSortedByDate(ID4, 0, 2)).expectNext(mark, marks[3][0])
+				.verifyComplete();
+		StepVerifier.create(studentsService.getMarksSortedByDate(ID7, 0, 2)).verifyComplete();
+		StepVerifier.create(studentsService.getMarksSortedByDate(ID_NOT_EXIST, 0, 2))
+				.verifyError(StudentNotFoundException.class);
+		StepVerifier.create(studentsService.getMarksSortedByDate(ID4, 0, 0))
+				.verifyError(IllegalArgumentException.class);
+	}
+
+	@Test
+	void marksStatistics_normalFlow_success() {
+		StepVerifier.create(studentsService.getSubjectMarksStats(SUBJECT1, 1, 2024))
+				.expectNext(new MarksStats(SUBJECT1, 2024, 1, 3, 250, 70, 100, 250.0 / 3,
+						List.of(0L, 0L, 0L, 0L, 0L, 0L, 0L, 1L, 1L, 1L)))
+				.verifyComplete();
+		StepVerifier.create(studentsService.getMarksStats(1, 2024).map(MarksStats::count)).expectNext(8L)
+				.verifyComplete();
+		YearMonth from = YearMonth.of(2024, 1);
+		YearMonth to = YearMonth.of(2024, 2);
+		StepVerifier.create(studentsService.getScorePercentile(SUBJECT4, from, to, 50)).expectNext(80)
+				.verifyComplete();
+		StepVerifier.create(studentsService.getScorePercentile(SUBJECT_NOT_EXIST, from, to, 50)).verifyComplete();
+		StepVerifier.create(studentsService.getScorePercentile(SUBJECT4, from, to, 101))
+				.verifyError(IllegalArgumentException.class);
+		StepVerifier.create(studentsService.getScoreHistogram(SUBJECT4, from, to, 25)).expectNext(0L, 0L, 1L, 5L)
+				.verifyComplete();
+	}
+
+	@Test
+	void updateRemoveMark_normalFlow_success() {
+		Mark newMark = new Mark(SUBJECT1, 75, DATE1);
+		StepVerifier.create(studentsService.updateMark(ID1, marks[0][0], newMark)).expectNext(newMark)
+				.verifyComplete();
+		StepVerifier.create(studentsService.removeMark(ID1, marks[0][0])).verifyError(MarkNotFoundException.class);
+		StepVerifier.create(studentsService.removeMark(ID1, newMark)).expectNext(newMark).verifyComplete();
+		StepVerifier.create(studentsService.getMarks(ID1)).expectNext(marks[0][1], marks[0][2]).verifyComplete();
+		StepVerifier.create(studentsService.addMark(ID1, marks[0][1])).expectNextCount(1).verifyComplete();
+		StepVerifier.create(studentsService.removeMark(ID1, marks[0][1])).expectNext(marks[0][1]).verifyComplete();
+		StepVerifier.create(studentsService.getMarks(ID1)).expectNext(marks[0][2], marks[0][1]).verifyComplete();
+	}
+
+	@Test
+	void getMarks_illegalSlices_error() {
+		StepVerifier.create(studentsService.getMarks(ID1, -1, 2)).verifyError(IllegalArgumentException.class);
+		StepVerifier.create(studentsService.getMarks(ID1, 0, 0)).verifyError(IllegalArgumentException.class);
+		StepVerifier.create(studentsService.getLatestMarks(ID1, -1)).verifyError(IllegalArgumentException.class);
+	}
+
+	@Test
+	void studentsQueries_normalFlow_success() {
+		StepVerifier.create(studentsService.getStudentsMarksDate(DATE1))
+				.expectNext(students[0], students[1], students[2], students[5]).verifyComplete();
+		StepVerifier.create(studentsService.getStudentsGoodSubjectMark(SUBJECT1, 80))
+				.expectNext(students[0], students[5]).verifyComplete();
+		StepVerifier.create(studentsService.getStudentsAllGoodMarksSubject(SUBJECT4, 90))
+				.expectNext(students[4], students[5]).verifyComplete();
+		StepVerifier.create(studentsService.getStudentMarksSubject(ID1, SUBJECT1))
+				.expectNext(marks[0][0], marks[0][1]).verifyComplete();
+		StepVerifier.create(studentsService.getBestStudents(2)).expectNext(6l, 2l).verifyComplete();
+		StepVerifier.create(studentsService.getStudentsByPhonePrefix("051")).expectNext(students[0], students[6])
+				.verifyComplete();
+	}
+}
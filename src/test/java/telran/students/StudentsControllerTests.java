@@ -0,0 +1,116 @@
+package telran.students;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import telran.students.controller.StudentsController;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.ingest.AckMode;
+import telran.students.ingest.MarksWriteBuffer;
+import telran.students.exceptions.MarksBufferFullException;
+import telran.students.exceptions.PhoneIllegalStateException;
+import telran.students.exceptions.StudentIllegalStateException;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.service.ServiceErrorMessages;
+import telran.students.service.StudentsService;
+
+@WebMvcTest(StudentsController.class)
+class StudentsControllerTests {
+	@Autowired
+	MockMvc mockMvc;
+
+	@MockBean
+	StudentsService studentsService;
+
+	@MockBean
+	MarksWriteBuffer marksWriteBuffer;
+
+	Student student = new Student(1, "051-1234567");
+	Mark mark = new Mark("Subject1", 70, LocalDate.of(2024, 1, 1));
+
+	@Test
+	void getStudent_normalFlow_success() throws Exception {
+		when(studentsService.getStudent(1)).thenReturn(student);
+		mockMvc.perform(get("/students/1")).andExpect(status().isOk())
+				.andExpect(content().json("{\"id\":1,\"phone\":\"051-1234567\"}"));
+	}
+
+	@Test
+	void getStudent_notFound_404() throws Exception {
+		when(studentsService.getStudent(2)).thenThrow(new StudentNotFoundException());
+		mockMvc.perform(get("/students/2")).andExpect(status().isNotFound())
+				.andExpect(content().string(ServiceErrorMessages.STUDENT_NOT_FOUND));
+	}
+
+	@Test
+	void addStudent_exists_409() throws Exception {
+		when(studentsService.addStudent(student)).thenThrow(new StudentIllegalStateException());
+		mockMvc.perform(post("/students").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"id\":1,\"phone\":\"051-1234567\"}")).andExpect(status().isConflict());
+	}
+
+	@Test
+	void updatePhoneNumber_phoneExists_409() throws Exception {
+		when(studentsService.updatePhoneNumber(1, "052-1234567")).thenThrow(new PhoneIllegalStateException());
+		mockMvc.perform(put("/students/1/phone?phone=052-1234567")).andExpect(status().isConflict())
+				.andExpect(content().string(ServiceErrorMessages.PHONE_ALREADY_EXISTS));
+	}
+
+	@Test
+	void addMark_duplicateKey_409() throws Exception {
+		when(studentsService.addMark(1, mark)).thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+		mockMvc.perform(post("/students/1/marks").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"subject\":\"Subject1\",\"score\":70,\"date\":\"2024-01-01\"}"))
+				.andExpect(status().isConflict())
+				.andExpect(content().string(ServiceErrorMessages.CONFLICTING_WRITE));
+	}
+
+	@Test
+	void addMark_bufferFull_503() throws Exception {
+		when(marksWriteBuffer.isEnabled()).thenReturn(true);
+		when(marksWriteBuffer.addMark(1, mark, AckMode.BUFFERED)).thenThrow(new MarksBufferFullException());
+		mockMvc.perform(post("/students/1/marks?ack=BUFFERED").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"subject\":\"Subject1\",\"score\":70,\"date\":\"2024-01-01\"}"))
+				.andExpect(status().isServiceUnavailable());
+	}
+
+	@Test
+	void getMarks_slice_success() throws Exception {
+		when(studentsService.getMarks(1, 0, 1)).thenReturn(List.of(mark));
+		mockMvc.perform(get("/students/1/marks").param("limit", "1")).andExpect(status().isOk())
+				.andExpect(content().json("[{\"subject\":\"Subject1\",\"score\":70,\"date\":\"2024-01-01\"}]"));
+	}
+
+	@Test
+	void getMarks_illegalSlice_400() throws Exception {
+		when(studentsService.getMarks(1, -1, 1)).thenThrow(new IllegalArgumentException("offset must not be negative"));
+		mockMvc.perform(get("/students/1/marks").param("offset", "-1").param("limit", "1"))
+				.andExpect(status().isBadRequest()).andExpect(content().string("offset must not be negative"));
+		when(studentsService.getLatestMarks(1, -1))
+				.thenThrow(new IllegalArgumentException("amount of marks must not be negative"));
+		mockMvc.perform(get("/students/1/marks/latest").param("n", "-1")).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void streamStudentsByPhonePrefix_jsonLines() throws Exception {
+		when(studentsService.streamStudentsByPhonePrefix("051")).thenReturn(Stream.of(student, student));
+		MvcResult result = mockMvc.perform(get("/students/stream/phone-prefix/051")).andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andExpect(content()
+				.string("{\"id\":1,\"phone\":\"051-1234567\"}\n{\"id\":1,\"phone\":\"051-1234567\"}\n"));
+	}
+}
@@ -0,0 +1,83 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.leaderboard.Leaderboard;
+import telran.students.service.StudentsServiceImpl;
+
+@SpringBootTest(properties = "app.leaderboard.enabled=true")
+class StudentsLeaderboardTests {
+	static final int N_CONCURRENT_MARKS = 50;
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	Leaderboard leaderboard;
+
+	@Autowired
+	TestDb testDb;
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+		leaderboard.load();
+	}
+
+	@Test
+	void leaderboardQueries_loaded_sameAsDatabase() {
+		assertTrue(leaderboard.isEnabled());
+		assertIterableEquals(List.of(ID6, ID2), studentsService.getBestStudents(2));
+		assertIterableEquals(List.of(ID7, ID5, ID4), studentsService.getWorstStudents(3));
+		assertEquals(1, studentsService.getRank(ID6));
+		assertEquals(2, studentsService.getRank(ID2));
+		assertEquals(3, studentsService.getRank(ID5));
+		assertEquals(4, studentsService.getRank(ID1));
+		assertEquals(7, studentsService.getRank(ID7));
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getRank(ID_NOT_EXIST));
+	}
+
+	@Test
+	void writes_leaderboardUpdated_success() {
+		studentsService.removeMark(ID5, marks[4][0]);
+		assertIterableEquals(List.of(ID6, ID2), studentsService.getBestStudents(3));
+		assertIterableEquals(List.of(ID5, ID7, ID4), studentsService.getWorstStudents(3));
+		assertEquals(6, studentsService.getRank(ID5));
+		studentsService.removeStudent(ID6);
+		assertIterableEquals(List.of(ID2), studentsService.getBestStudents(2));
+		assertEquals(1, studentsService.getRank(ID2));
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getRank(ID6));
+		studentsService.addStudent(new Student(ID_NEW, "059-0000000"));
+		assertIterableEquals(List.of(ID5, ID7, ID_NEW), studentsService.getWorstStudents(3));
+		studentsService.addMark(ID_NEW, new Mark(SUBJECT1, 90, DATE1));
+		assertIterableEquals(List.of(ID2, ID_NEW), studentsService.getBestStudents(2));
+		assertEquals(2, studentsService.getRank(ID_NEW));
+	}
+
+	@Test
+	void addMark_concurrentWrites_lastTotalsApplied() {
+		Mark mark = new Mark(SUBJECT1, 90, DATE1);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < N_CONCURRENT_MARKS; i++) {
+				executor.execute(() -> studentsService.addMark(ID4, mark));
+				executor.execute(() -> studentsService.addMark(ID7, mark));
+			}
+		}
+		assertIterableEquals(List.of(ID4, ID7, ID6), studentsService.getBestStudents(3));
+		assertEquals(1, studentsService.getRank(ID4));
+		assertEquals(2, studentsService.getRank(ID7));
+		assertIterableEquals(List.of(ID5, ID1), studentsService.getWorstStudents(2));
+	}
+}
@@ -0,0 +1,180 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.StudentDoc;
+import telran.students.repo.StudentRepo;
+import telran.students.service.MarksBucketStore;
+import telran.students.service.MarksSummaryUpdater;
+import telran.students.service.StudentsServiceImpl;
+
+@SpringBootTest(properties = { "app.marks.storage=bucket", "app.marks.bucket.size=2" })
+class StudentsMarksBucketTests {
+	@Autowired
+	StudentRepo studentRepo;
+
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	MarksBucketStore marksBucketStore;
+
+	@Autowired
+	MarksSummaryUpdater marksSummaryUpdater;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	TestDb testDb;
+
+	Mark mark1 = new Mark("Math", 10, LocalDate.now());
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate.remove(new Query(), MarksBucketDoc.class);
+		testDb.createDb();
+		assertEquals(6, marksBucketStore.migrate());
+		marksSummaryUpdater.backfill();
+	}
+
+	@Test
+	void migrate_marksMovedIntoBuckets() {
+		assertTrue(studentRepo.findById(ID6).orElseThrow().getMarks().isEmpty());
+		// at most 2 marks of the same month in a bucket
+		assertEquals(10, mongoTemplate.count(new Query(), MarksBucketDoc.class));
+		assertEquals(2, mongoTemplate.count(new Query(Criteria.where("studentId").is(ID6)), MarksBucketDoc.class));
+	}
+
+	@Test
+	void getMarks_normalFlow_success() {
+		assertArrayEquals(marks[0], studentsService.getMarks(ID1).toArray(Mark[]::new));
+		assertTrue(studentsService.getMarks(ID7).isEmpty());
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getMarks(ID_NOT_EXIST));
+	}
+
+	@Test
+	void getStudentMarksSubject_normalFlow_success() {
+		List<Mark> expected = List.of(new Mark(SUBJECT1, 70, DATE1), new Mark(SUBJECT1, 80, DATE2));
+		assertIterableEquals(expected, studentsService.getStudentMarksSubject(ID1, SUBJECT1));
+		assertIterableEquals(expected, studentsService.getStudentMarksAtDates(ID1, DATE1, DATE2));
+		assertTrue(studentsService.getStudentMarksSubject(ID1, SUBJECT3).isEmpty());
+	}
+
+	@Test
+	void studentsQueries_normalFlow_success() {
+		assertIterableEquals(List.of(students[0], students[1], students[2], students[5]),
+				studentsService.getStudentsMarksDate(DATE1));
+		assertIterableEquals(List.of(students[0], students[1], students[2], students[5]),
+				studentsService.getStudentsMarksMonthYear(1, 2024));
+		assertIterableEquals(List.of(students[0], students[5]),
+				studentsService.getStudentsGoodSubjectMark(SUBJECT1, 80));
+		assertIterableEquals(List.of(students[4], students[5]), studentsService.getStudentsAllGoodMarks(70));
+		assertIterableEquals(List.of(students[4], students[5]),
+				studentsService.getStudentsAllGoodMarksSubject(SUBJECT4, 90));
+		assertIterableEquals(List.of(6l, 2l), studentsService.getBestStudents(2));
+		assertIterableEquals(List.of(7l, 5l, 4l), studentsService.getWorstStudents(3));
+	}
+
+	@Test
+	void studentsQueries_pagesAndStreams_idOrder() {
+		assertIterableEquals(List.of(students[1], students[2]), studentsService.getStudentsMarksDate(DATE1, ID1, 2));
+		assertIterableEquals(List.of(students[5]), studentsService.getStudentsMarksDate(DATE1, ID3, 2));
+		assertIterableEquals(List.of(students[5]),
+				studentsService.getStudentsAllGoodMarksSubject(SUBJECT4, 90, ID5, 10));
+		try (Stream<Student> stream = studentsService.streamStudentsGoodSubjectMark(SUBJECT1, 80)) {
+			assertIterableEquals(List.of(students[0], students[5]), stream.toList());
+		}
+	}
+
+	@Test
+	void studentsQueries_pageLimitNotPositive_exception() {
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getStudentsMarksDate(DATE1, ID1, 0));
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.getStudentsAllGoodMarksSubject(SUBJECT4, 90, ID1, -1));
+	}
+
+	@Test
+	void marksSlices_severalBuckets_success() {
+		Mark newMark = new Mark(SUBJECT1, 60, DATE1);
+		// the January bucket is filled, so a new one is created
+		studentsService.addMark(ID6, newMark);
+		assertIterableEquals(List.of(marks[5][2], marks[5][3]), studentsService.getLatestMarks(ID6, 2));
+		assertIterableEquals(List.of(newMark, marks[5][2], marks[5][3]), studentsService.getLatestMarks(ID6, 3));
+		assertEquals(5, studentsService.getLatestMarks(ID6, 10).size());
+		assertTrue(studentsService.getLatestMarks(ID7, 2).isEmpty());
+		assertIterableEquals(List.of(marks[5][0], newMark, marks[5][1]),
+				studentsService.getMarksSortedByDate(ID6, 0, 3));
+		assertIterableEquals(List.of(marks[5][3]), studentsService.getMarksSortedByDate(ID6, 4, 2));
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getLatestMarks(ID_NOT_EXIST, 2));
+		assertThrowsExactly(StudentNotFoundException.class,
+				() -> studentsService.getMarksSortedByDate(ID_NOT_EXIST, 0, 2));
+	}
+
+	@Test
+	void addMark_bucketFilled() {
+		studentsService.addMark(ID7, mark1);
+		studentsService.addMarks(Map.of(ID7, List.of(mark1, mark1)));
+		assertIterableEquals(List.of(mark1, mark1, mark1), studentsService.getMarks(ID7));
+		// $push $each of 2 marks doesn't fit the bucket having 1 mark
+		assertEquals(2, mongoTemplate.count(new Query(Criteria.where("studentId").is(ID7)), MarksBucketDoc.class));
+		StudentDoc studentDoc = studentRepo.findById(ID7).orElseThrow();
+		assertEquals(3, studentDoc.getMarksCount());
+		assertTrue(studentDoc.getMarks().isEmpty());
+	}
+
+	@Test
+	void removeMark_summaryRecalculated() {
+		studentsService.removeMark(ID6, marks[5][0]);
+		assertEquals(3, studentsService.getMarks(ID6).size());
+		assertEquals(300, studentRepo.findById(ID6).orElseThrow().getScoreSum());
+		Student removed = studentsService.removeStudent(ID6);
+		assertEquals(students[5], removed);
+		assertTrue(marksBucketStore.getMarks(ID6).isEmpty());
+	}
+
+	@Test
+	void removeMark_equalMarks_oneRemoved() {
+		studentsService.addMark(ID5, marks[4][0]);
+		studentsService.removeMark(ID5, marks[4][0]);
+		assertIterableEquals(List.of(marks[4][0]), studentsService.getMarks(ID5));
+		assertEquals(1, studentRepo.findById(ID5).orElseThrow().getMarksCount());
+		MarksBucketDoc bucket = mongoTemplate.findOne(new Query(Criteria.where("studentId").is(ID5)),
+				MarksBucketDoc.class);
+		assertEquals(1, bucket.getCount());
+	}
+
+	@Test
+	void migrate_interrupted_noDuplicates() {
+		// buckets of ID7 have been inserted, but the embedded marks haven't been cleared
+		mongoTemplate.updateFirst(new Query(Criteria.where("id").is(ID7)), new Update().push("marks", mark1),
+				StudentDoc.class);
+		mongoTemplate.insert(new MarksBucketDoc(ID7, MarksBucketDoc.period(mark1), List.of(mark1), true));
+		// buckets of ID5 have been inserted and the embedded marks have been cleared
+		mongoTemplate.insert(new MarksBucketDoc(ID5, MarksBucketDoc.period(mark1), List.of(mark1), true));
+		assertEquals(1, marksBucketStore.migrate());
+		assertIterableEquals(List.of(mark1), studentsService.getMarks(ID7));
+		assertIterableEquals(List.of(marks[4][0], mark1), studentsService.getMarks(ID5));
+		assertFalse(mongoTemplate.exists(new Query(Criteria.where("pending").is(true)), MarksBucketDoc.class));
+		assertEquals(0, marksBucketStore.migrate());
+	}
+}
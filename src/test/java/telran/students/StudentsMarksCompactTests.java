@@ -0,0 +1,201 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.dto.reflections.IdPhone;
+import telran.students.encoding.EncodingReport;
+import telran.students.encoding.MarksEncodingMigration;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.model.MarksBucketDoc;
+import telran.students.model.StudentDoc;
+import telran.students.repo.StudentRepo;
+import telran.students.service.StudentsServiceImpl;
+
+@SpringBootTest(properties = "app.marks.encoding=compact")
+class StudentsMarksCompactTests {
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	SubjectDictionary subjectDictionary;
+
+	@Autowired
+	MarksEncodingMigration marksEncodingMigration;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	TestDb testDb;
+
+	@Autowired
+	StudentRepo studentRepo;
+
+	Mark mark1 = new Mark(SUBJECT_NOT_EXIST, 90, DATE_NOT_EXIST);
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+		marksEncodingMigration.detectLegacyMarks();
+	}
+
+	@Test
+	void createDb_marksStoredCompact() {
+		Document mark = getMarks(ID1).get(0);
+		assertEquals(subjectDictionary.getId(SUBJECT1), mark.get("subject"));
+		assertEquals((int) DATE1.toEpochDay(), mark.get("date"));
+		assertArrayEquals(marks[0], studentsService.getMarks(ID1).toArray(Mark[]::new));
+	}
+
+	@Test
+	void studentsQueries_normalFlow_success() {
+		assertIterableEquals(List.of(students[0], students[1], students[2], students[5]),
+				studentsService.getStudentsMarksDate(DATE1));
+		assertIterableEquals(List.of(students[0], students[1], students[2], students[5]),
+				studentsService.getStudentsMarksMonthYear(1, 2024));
+		assertIterableEquals(List.of(students[0], students[5]),
+				studentsService.getStudentsGoodSubjectMark(SUBJECT1, 80));
+		assertTrue(studentsService.getStudentsGoodSubjectMark(SUBJECT_NOT_EXIST, 80).isEmpty());
+		assertIterableEquals(List.of(students[4], students[5]),
+				studentsService.getStudentsAllGoodMarksSubject(SUBJECT4, 90));
+		List<Mark> expected = List.of(new Mark(SUBJECT1, 70, DATE1), new Mark(SUBJECT1, 80, DATE2));
+		assertIterableEquals(expected, studentsService.getStudentMarksSubject(ID1, SUBJECT1));
+		assertIterableEquals(expected, studentsService.getStudentMarksAtDates(ID1, DATE1, DATE2));
+	}
+
+	@Test
+	void markUpdates_normalFlow_success() {
+		studentsService.addMark(ID7, mark1);
+		assertIterableEquals(List.of(students[6]), studentsService.getStudentsMarksDate(DATE_NOT_EXIST));
+		Mark newMark = new Mark(SUBJECT_NOT_EXIST, 95, DATE_NOT_EXIST);
+		studentsService.updateMark(ID7, mark1, newMark);
+		assertIterableEquals(List.of(newMark), studentsService.getMarks(ID7));
+		studentsService.removeMark(ID7, newMark);
+		assertTrue(studentsService.getMarks(ID7).isEmpty());
+	}
+
+	@Test
+	void legacyMarks_compactMode_queriedAndUpdated() {
+		Mark legacyMark1 = new Mark(SUBJECT1, 70, DATE1);
+		Mark legacyMark2 = new Mark(SUBJECT2, 90, DATE3);
+		students().updateOne(Filters.eq("_id", ID7), new Document("$set",
+				new Document("marks", List.of(legacyMark(legacyMark1), legacyMark(legacyMark2)))));
+		assertFalse(subjectDictionary.isLegacyMarks());
+		marksEncodingMigration.detectLegacyMarks();
+		assertTrue(subjectDictionary.isLegacyMarks());
+		assertIterableEquals(List.of(students[0], students[1], students[2], students[5], students[6]),
+				studentsService.getStudentsMarksDate(DATE1));
+		assertIterableEquals(List.of(students[0], students[1], students[2], students[5], students[6]),
+				studentsService.getStudentsMarksMonthYear(1, 2024));
+		assertIterableEquals(List.of(students[0], students[2], students[3], students[5], students[6]),
+				studentsService.getStudentsGoodSubjectMark(SUBJECT1, 70));
+		assertIterableEquals(List.of(legacyMark1), studentsService.getStudentMarksSubject(ID7, SUBJECT1));
+		assertIterableEquals(List.of(legacyMark2), studentsService.getStudentMarksAtDates(ID7, DATE2, DATE3));
+		assertEquals(2, studentsService.getSubjectMarksStats(SUBJECT2, 2, 2024).count());
+		Mark newMark = new Mark(SUBJECT1, 75, DATE1);
+		studentsService.updateMark(ID7, legacyMark1, newMark);
+		studentsService.removeMark(ID7, legacyMark2);
+		assertIterableEquals(List.of(newMark), studentsService.getMarks(ID7));
+		assertEquals(70 + 80 + 100 + 75, studentsService.getSubjectMarksStats(SUBJECT1, 1, 2024).sum());
+		marksEncodingMigration.reencode();
+		assertFalse(subjectDictionary.isLegacyMarks());
+	}
+
+	@Test
+	void getMarksSortedByDate_legacyAndCompactMarks_sortedTogether() {
+		Mark legacyMark1 = new Mark(SUBJECT1, 70, DATE3);
+		Mark legacyMark2 = new Mark(SUBJECT2, 90, DATE1);
+		Mark compactMark = new Mark(SUBJECT3, 80, DATE2);
+		students().updateOne(Filters.eq("_id", ID7), new Document("$set",
+				new Document("marks", List.of(legacyMark(legacyMark1), legacyMark(legacyMark2)))));
+		marksEncodingMigration.detectLegacyMarks();
+		studentsService.addMark(ID7, compactMark);
+		assertIterableEquals(List.of(legacyMark2, compactMark, legacyMark1),
+				studentsService.getMarksSortedByDate(ID7, 0, 5));
+		assertIterableEquals(List.of(compactMark), studentsService.getMarksSortedByDate(ID7, 1, 1));
+		marksEncodingMigration.reencode();
+		assertIterableEquals(List.of(legacyMark2, compactMark, legacyMark1),
+				studentsService.getMarksSortedByDate(ID7, 0, 5));
+	}
+
+	@Test
+	void reencode_legacyMarks_compacted() {
+		Date legacyDate = Date.from(DATE1.atStartOfDay(ZoneId.systemDefault()).toInstant());
+		students().updateOne(Filters.eq("_id", ID7), new Document("$set", new Document("marks",
+				List.of(new Document("subject", SUBJECT1).append("score", 70).append("date", legacyDate)))));
+		assertIterableEquals(List.of(new Mark(SUBJECT1, 70, DATE1)), studentsService.getMarks(ID7));
+		EncodingReport report = marksEncodingMigration.reencode();
+		assertEquals(1, report.nDocuments());
+		assertTrue(report.sizeAfter() < report.sizeBefore());
+		assertEquals((int) DATE1.toEpochDay(), getMarks(ID7).get(0).get("date"));
+		assertEquals(new Student(ID7, PHONE7), studentsService.getStudent(ID7));
+		assertIterableEquals(List.of(new Mark(SUBJECT1, 70, DATE1)), studentsService.getMarks(ID7));
+	}
+
+	@Test
+	void reencode_legacyBucketMarks_compacted() {
+		MongoCollection<Document> buckets = mongoTemplate
+				.getCollection(mongoTemplate.getCollectionName(MarksBucketDoc.class));
+		Mark mark = new Mark(SUBJECT1, 70, DATE1);
+		buckets.insertOne(new Document("studentId", ID_NEW).append("period", 202401).append("count", 1)
+				.append("marks", List.of(legacyMark(mark))));
+		try {
+			marksEncodingMigration.detectLegacyMarks();
+			assertTrue(subjectDictionary.isLegacyMarks());
+			assertEquals(1, marksEncodingMigration.reencode().nDocuments());
+			assertFalse(subjectDictionary.isLegacyMarks());
+			Document bucketMark = buckets.find(Filters.eq("studentId", ID_NEW)).first()
+					.getList("marks", Document.class).get(0);
+			assertEquals(subjectDictionary.getId(SUBJECT1), bucketMark.get("subject"));
+			assertEquals((int) DATE1.toEpochDay(), bucketMark.get("date"));
+		} finally {
+			buckets.deleteMany(Filters.eq("studentId", ID_NEW));
+		}
+	}
+
+	@Test
+	void studentRepoMarksQueries_compactMode_success() {
+		assertEquals(List.of(ID1, ID2, ID3, ID6), ids(studentRepo.findStudentByMarkDate(DATE1)));
+		assertEquals(List.of(ID1, ID6), ids(studentRepo.findStudentsGoodSubjectMark(SUBJECT1, 80)));
+		assertEquals(List.of(ID1, ID2, ID3, ID4, ID5, ID6), ids(studentRepo.findStudentsBetweenDates(DATE2, DATE3)));
+		assertEquals(List.of(ID3, ID4, ID6), ids(studentRepo.findByMarksDate(DATE4)));
+		assertEquals(List.of(ID1, ID2, ID3, ID6), ids(studentRepo.findByMarksDateBetween(DATE1, DATE3)));
+		assertEquals(List.of(ID5, ID6), ids(studentRepo.findByMarksSubjectAndMarksScoreGreaterThan(SUBJECT4, 90)));
+		assertEquals(List.of(ID6), ids(studentRepo.findAllGoodMarksInSubject(SUBJECT2, 75)));
+		assertTrue(studentRepo.findStudentsGoodSubjectMark(SUBJECT_NOT_EXIST, 0).isEmpty());
+	}
+
+	private List<Long> ids(List<IdPhone> idPhones) {
+		return idPhones.stream().map(IdPhone::getId).sorted().toList();
+	}
+
+	private Document legacyMark(Mark mark) {
+		return new Document("subject", mark.subject()).append("score", mark.score()).append("date",
+				Date.from(mark.date().atStartOfDay(ZoneId.systemDefault()).toInstant()));
+	}
+
+	private List<Document> getMarks(long id) {
+		return students().find(Filters.eq("_id", id)).first().getList("marks", Document.class);
+	}
+
+	private MongoCollection<Document> students() {
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(StudentDoc.class));
+	}
+}
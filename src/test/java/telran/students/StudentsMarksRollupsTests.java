@@ -0,0 +1,141 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import telran.students.dto.Mark;
+import telran.students.dto.MarksStats;
+import telran.students.model.MarksRollupDoc;
+import telran.students.rollups.MarksRollups;
+import telran.students.service.StudentsServiceImpl;
+
+/**
+ * The statistics queries run with the rollups enabled and, by switching them
+ * off in the same context, with the statistics aggregated from the stored
+ * marks
+ */
+@SpringBootTest(properties = "app.rollups.enabled=true")
+class StudentsMarksRollupsTests {
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	MarksRollups marksRollups;
+
+	@Autowired
+	TestDb testDb;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+		marksRollups.rebuild();
+	}
+
+	@AfterEach
+	void tearDown() {
+		setRollupsEnabled(true);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { true, false })
+	void getMarksStats_normalFlow_success(boolean rollupsEnabled) {
+		setRollupsEnabled(rollupsEnabled);
+		MarksStats expected = new MarksStats(SUBJECT1, 2024, 1, 3, 250, 70, 100, 250.0 / 3,
+				List.of(0L, 0L, 0L, 0L, 0L, 0L, 0L, 1L, 1L, 1L));
+		assertEquals(expected, studentsService.getSubjectMarksStats(SUBJECT1, 1, 2024));
+		assertEquals(new MarksStats(null, 2024, 1, 8, 655, 70, 100, 655.0 / 8,
+				List.of(0L, 0L, 0L, 0L, 0L, 0L, 0L, 3L, 3L, 2L)), studentsService.getMarksStats(1, 2024));
+		MarksStats empty = studentsService.getSubjectMarksStats(SUBJECT_NOT_EXIST, 1, 2024);
+		assertEquals(0, empty.count());
+		assertNull(empty.min());
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { true, false })
+	void getScorePercentile_normalFlow_success(boolean rollupsEnabled) {
+		setRollupsEnabled(rollupsEnabled);
+		YearMonth from = YearMonth.of(2024, 1);
+		YearMonth to = YearMonth.of(2024, 2);
+		assertEquals(70, studentsService.getScorePercentile(SUBJECT4, from, to, 0));
+		assertEquals(80, studentsService.getScorePercentile(SUBJECT4, from, to, 50));
+		assertEquals(100, studentsService.getScorePercentile(SUBJECT4, from, to, 90));
+		assertEquals(100, studentsService.getScorePercentile(null, from, from, 90));
+		assertNull(studentsService.getScorePercentile(SUBJECT_NOT_EXIST, from, to, 50));
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.getScorePercentile(SUBJECT4, from, to, 101));
+		assertEquals(List.of(0L, 0L, 1L, 5L), studentsService.getScoreHistogram(SUBJECT4, from, to, 25));
+	}
+
+	@Test
+	void getMarksStats_writes_sameAsRebuilt() {
+		studentsService.addMark(ID1, new Mark(SUBJECT1, 55, DATE2));
+		MarksStats stats = studentsService.getSubjectMarksStats(SUBJECT1, 1, 2024);
+		assertEquals(4, stats.count());
+		assertEquals(305, stats.sum());
+		assertEquals(55, stats.min());
+		assertEquals(1, stats.histogram().get(5));
+		studentsService.removeMark(ID6, new Mark(SUBJECT1, 100, DATE1));
+		assertEquals(80, studentsService.getSubjectMarksStats(SUBJECT1, 1, 2024).max());
+		studentsService.updateMark(ID2, new Mark(SUBJECT3, 85, DATE2), new Mark(SUBJECT3, 60, DATE3));
+		studentsService.removeStudent(ID3);
+		MarksStats january = studentsService.getMarksStats(1, 2024);
+		MarksStats february = studentsService.getMarksStats(2, 2024);
+		MarksStats subject3 = studentsService.getSubjectMarksStats(SUBJECT3, 2, 2024);
+		marksRollups.rebuild();
+		assertEquals(january, studentsService.getMarksStats(1, 2024));
+		assertEquals(february, studentsService.getMarksStats(2, 2024));
+		assertEquals(subject3, studentsService.getSubjectMarksStats(SUBJECT3, 2, 2024));
+	}
+
+	@Test
+	void removeMark_concurrentAddition_notOverwritten() {
+		// rollup of a mark being added concurrently, which isn't stored yet
+		marksRollups.addMarks(List.of(new Mark(SUBJECT1, 90, DATE2)));
+		studentsService.removeMark(ID6, new Mark(SUBJECT1, 100, DATE1));
+		MarksStats stats = studentsService.getSubjectMarksStats(SUBJECT1, 1, 2024);
+		assertEquals(3, stats.count());
+		assertEquals(70 + 80 + 90, stats.sum());
+		assertEquals(70, stats.min());
+		assertEquals(90, stats.max());
+	}
+
+	@Test
+	void removeStudent_lastMarksOfRollup_rollupRemoved() {
+		studentsService.removeStudent(ID6);
+		assertEquals(0, studentsService.getSubjectMarksStats(SUBJECT3, 2, 2024).count());
+		long nRollups = mongoTemplate.count(new Query(), MarksRollupDoc.class);
+		assertEquals(nRollups, marksRollups.rebuild());
+	}
+
+	@Test
+	void rebuild_collectionReplaced_uniqueIndexKept() {
+		int nRollups = marksRollups.rebuild();
+		assertEquals(nRollups, mongoTemplate.count(new Query(), MarksRollupDoc.class));
+		assertTrue(mongoTemplate.indexOps(MarksRollupDoc.class).getIndexInfo().stream()
+				.anyMatch(index -> index.getName().equals("period_subject") && index.isUnique()));
+		assertThrowsExactly(DuplicateKeyException.class,
+				() -> mongoTemplate.insert(new MarksRollupDoc(SUBJECT1, 202401)));
+	}
+
+	private void setRollupsEnabled(boolean enabled) {
+		ReflectionTestUtils.setField(marksRollups, "enabled", enabled);
+	}
+}
@@ -4,19 +4,29 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import static telran.students.TestDb.*;
 import telran.students.dto.Mark;
+import telran.students.dto.MultiGetResult;
 import telran.students.dto.Student;
 import telran.students.dto.StudentAvgScore;
+import telran.students.dto.StudentMark;
+import telran.students.exceptions.MarkNotFoundException;
+import telran.students.exceptions.PhoneIllegalStateException;
 import telran.students.exceptions.StudentIllegalStateException;
 import telran.students.exceptions.StudentNotFoundException;
+import telran.students.indexes.IndexesManager;
 import telran.students.model.StudentDoc;
 import telran.students.repo.StudentRepo;
 import telran.students.service.StudentsServiceImpl;
@@ -34,9 +44,13 @@ class StudentsMarksServiceTests {
 	@Autowired
 	TestDb testDb;
 
+	@Autowired
+	IndexesManager indexesManager;
+
 	Student stud1 = new Student(ID_NEW, "051-4567568");
 
 	Mark mark1 = new Mark("Math", 10, LocalDate.now());
+	Mark mark2 = new Mark("Physics", 90, LocalDate.now());
 
 	@BeforeEach
 	void setUp() {
@@ -58,6 +72,32 @@ class StudentsMarksServiceTests {
 		assertIterableEquals(expected1, studentsService.getBestStudents(1));
 	}
 
+	@Test
+	void getRank_normalFlow_success() {
+		assertEquals(1, studentsService.getRank(ID6));
+		assertEquals(2, studentsService.getRank(ID2));
+		assertEquals(3, studentsService.getRank(ID5));
+		assertEquals(4, studentsService.getRank(ID1));
+		assertEquals(7, studentsService.getRank(ID7));
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getRank(ID_NOT_EXIST));
+	}
+
+	@Test
+	void getStudentsGetMarks_byIds_success() {
+		MultiGetResult<Student> studentsResult = studentsService.getStudents(List.of(ID3, ID_NOT_EXIST, ID1, ID3));
+		assertIterableEquals(List.of(ID3, ID1), studentsResult.found().keySet());
+		assertEquals(students[0], studentsResult.found().get(ID1));
+		assertIterableEquals(List.of(ID_NOT_EXIST), studentsResult.missingIds());
+		MultiGetResult<List<Mark>> marksResult = studentsService.getMarks(List.of(ID1, ID7, ID_NOT_EXIST));
+		assertIterableEquals(List.of(marks[0]), marksResult.found().get(ID1));
+		assertTrue(marksResult.found().get(ID7).isEmpty());
+		assertIterableEquals(List.of(ID_NOT_EXIST), marksResult.missingIds());
+		List<Long> manyIds = LongStream.rangeClosed(1, 1200).boxed().toList();
+		MultiGetResult<Student> manyResult = studentsService.getStudents(manyIds);
+		assertEquals(students.length, manyResult.found().size());
+		assertEquals(manyIds.size() - students.length, manyResult.missingIds().size());
+	}
+
 	@Test
 	void getStudentMarksAtDates_normalFlow_success() {
 		List<Mark> expected = List.of(new Mark(SUBJECT1, 70, DATE1), new Mark(SUBJECT1, 80, DATE2));
@@ -133,6 +173,39 @@ class StudentsMarksServiceTests {
 		assertTrue(studentsService.getStudentsGoodSubjectMark(SUBJECT_NOT_EXIST, 85).isEmpty());
 	}
 
+	@Test
+	void streamStudentsMarksDate_normalState_success() {
+		List<Student> expected = List.of(students[0], students[1], students[2], students[5]);
+		try (Stream<Student> stream = studentsService.streamStudentsMarksDate(DATE1)) {
+			assertIterableEquals(expected, stream.toList());
+		}
+		try (Stream<StudentAvgScore> stream = studentsService.streamStudentsAvgScoreGreater(90)) {
+			assertIterableEquals(List.of(new StudentAvgScore(ID6, 100), new StudentAvgScore(ID5, 95)), stream.toList());
+		}
+	}
+
+	@Test
+	void getStudentsMarksDate_pages_success() {
+		assertIterableEquals(List.of(students[0], students[1]), studentsService.getStudentsMarksDate(DATE1, 0, 2));
+		assertIterableEquals(List.of(students[2], students[5]), studentsService.getStudentsMarksDate(DATE1, ID2, 2));
+		assertTrue(studentsService.getStudentsMarksDate(DATE1, ID6, 2).isEmpty());
+		assertIterableEquals(List.of(students[4], students[5]),
+				studentsService.getStudentsAllGoodMarksSubject(SUBJECT4, 90, ID1, 10));
+		assertIterableEquals(List.of(students[5]), studentsService.getStudentsMarksAmountBetween(4, 5, ID3, 10));
+		assertIterableEquals(List.of(students[6]), studentsService.getStudentsByPhonePrefix("051", ID1, 10));
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, -1 })
+	void getStudentsPages_limitNotPositive_exception(int limit) {
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.getStudentsByPhonePrefix("051", 0, limit));
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.getStudentsMarksDate(DATE1, 0, limit));
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.getStudentsMarksAmountBetween(4, 5, 0, limit));
+	}
+
 	@Test
 	void getStudentsMarksDate_normalState_success() {
 		List<Student> expected = List.of(students[0], students[1], students[2], students[5]);
@@ -167,6 +240,29 @@ class StudentsMarksServiceTests {
 		assertThrowsExactly(StudentIllegalStateException.class, () -> studentsService.addStudent(students[0]));
 	}
 
+	@Test
+	void addStudent_phoneExists_exception() {
+		assertThrowsExactly(PhoneIllegalStateException.class,
+				() -> studentsService.addStudent(new Student(ID_NEW, PHONE2)));
+		assertFalse(studentRepo.existsById(ID_NEW));
+	}
+
+	@Test
+	void addStudents_phoneExists_exception() {
+		Student phoneDuplicate = new Student(ID_NEW + 1, PHONE2);
+		assertThrowsExactly(PhoneIllegalStateException.class,
+				() -> studentsService.addStudents(List.of(students[0], phoneDuplicate, stud1)));
+		assertEquals(stud1, studentRepo.findById(stud1.id()).orElseThrow().build());
+		assertFalse(studentRepo.existsById(phoneDuplicate.id()));
+	}
+
+	@Test
+	void addStudents_duplicates_reported() {
+		assertIterableEquals(List.of(ID1, ID7), studentsService.addStudents(List.of(students[0], stud1, students[6])));
+		assertEquals(stud1, studentRepo.findById(stud1.id()).orElseThrow().build());
+		assertEquals(students[0], studentRepo.findById(ID1).orElseThrow().build());
+	}
+
 	@Test
 	void updatePhoneNumber_normalState_success() {
 		Student updStud1 = new Student(ID1, "new phone");
@@ -174,6 +270,12 @@ class StudentsMarksServiceTests {
 		assertEquals(updStud1, studentRepo.findById(ID1).orElseThrow().build());
 	}
 
+	@Test
+	void updatePhoneNumber_phoneExists_exception() {
+		assertThrowsExactly(PhoneIllegalStateException.class, () -> studentsService.updatePhoneNumber(ID1, PHONE2));
+		assertEquals(students[0], studentRepo.findById(ID1).orElseThrow().build());
+	}
+
 	@Test
 	void updatePhoneNumber_notFound_exception() {
 		assertThrowsExactly(StudentNotFoundException.class,
@@ -187,11 +289,109 @@ class StudentsMarksServiceTests {
 		assertTrue(studentRepo.findById(ID1).orElseThrow().getMarks().contains(mark1));
 	}
 
+	@Test
+	void addMark_marksSummary_maintained() {
+		StudentDoc studentDoc = studentRepo.findById(ID3).orElseThrow();
+		assertEquals(4, studentDoc.getMarksCount());
+		assertEquals(300, studentDoc.getScoreSum());
+		assertEquals(0, studentDoc.getGoodMarksCount());
+		assertEquals(70, (int) studentDoc.getMinScore());
+		assertEquals(80, (int) studentDoc.getMaxScore());
+		studentsService.addMark(ID3, mark1);
+		studentsService.addMarks(Map.of(ID3, List.of(mark2)));
+		studentDoc = studentRepo.findById(ID3).orElseThrow();
+		assertEquals(6, studentDoc.getMarksCount());
+		assertEquals(400, studentDoc.getScoreSum());
+		assertEquals(1, studentDoc.getGoodMarksCount());
+		assertEquals(10, (int) studentDoc.getMinScore());
+		assertEquals(90, (int) studentDoc.getMaxScore());
+	}
+
+	@Test
+	void updateMark_normalState_success() {
+		Mark oldMark = marks[2][1];
+		assertEquals(mark2, studentsService.updateMark(ID3, oldMark, mark2));
+		StudentDoc studentDoc = studentRepo.findById(ID3).orElseThrow();
+		assertIterableEquals(List.of(marks[2][0], mark2, marks[2][2], marks[2][3]), studentDoc.getMarks());
+		assertEquals(310, studentDoc.getScoreSum());
+		assertEquals(1, studentDoc.getGoodMarksCount());
+		assertEquals(90, (int) studentDoc.getMaxScore());
+	}
+
+	@Test
+	void removeMark_normalState_success() {
+		assertEquals(marks[5][0], studentsService.removeMark(ID6, marks[5][0]));
+		StudentDoc studentDoc = studentRepo.findById(ID6).orElseThrow();
+		assertEquals(3, studentDoc.getMarksCount());
+		assertEquals(300, studentDoc.getScoreSum());
+		assertFalse(studentDoc.getMarks().contains(marks[5][0]));
+	}
+
+	@Test
+	void removeMark_equalMarks_oneRemoved() {
+		studentsService.addMark(ID7, mark1);
+		studentsService.addMark(ID7, mark2);
+		studentsService.addMark(ID7, mark1);
+		assertEquals(mark1, studentsService.removeMark(ID7, mark1));
+		assertIterableEquals(List.of(mark2, mark1), studentsService.getMarks(ID7));
+		assertEquals(2, studentRepo.findById(ID7).orElseThrow().getMarksCount());
+	}
+
+	@Test
+	void updateMark_notFound_exception() {
+		assertThrowsExactly(MarkNotFoundException.class, () -> studentsService.updateMark(ID1, mark1, mark2));
+		assertThrowsExactly(MarkNotFoundException.class, () -> studentsService.removeMark(ID1, mark1));
+		assertThrowsExactly(StudentNotFoundException.class,
+				() -> studentsService.updateMark(ID_NOT_EXIST, mark1, mark2));
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.removeMark(ID_NOT_EXIST, mark1));
+	}
+
 	@Test
 	void addMark_notFound_exception() {
 		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.addMark(ID_NOT_EXIST, mark1));
 	}
 
+	@Test
+	void addMark_scoreOutOfRange_exception() {
+		Mark negative = new Mark(SUBJECT1, -1, DATE1);
+		Mark wrapping = new Mark(SUBJECT1, 300, DATE1);
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.addMark(ID1, negative));
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.addMark(ID1, wrapping));
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.addMarks(Map.of(ID7, List.of(mark1), ID1, List.of(wrapping))));
+		assertThrowsExactly(IllegalArgumentException.class,
+				() -> studentsService.updateMark(ID1, marks[0][0], negative));
+		assertIterableEquals(List.of(marks[0]), studentRepo.findById(ID1).orElseThrow().getMarks());
+		assertTrue(studentRepo.findById(ID7).orElseThrow().getMarks().isEmpty());
+		Mark top = new Mark(SUBJECT1, 100, DATE1);
+		assertEquals(top, studentsService.addMark(ID7, top));
+	}
+
+	@Test
+	void addMarks_normalState_success() {
+		Map<Long, List<Mark>> marksMap = Map.of(ID1, List.of(mark1), ID7, List.of(mark1, mark2), ID_NOT_EXIST,
+				List.of(mark2));
+		assertIterableEquals(List.of(ID_NOT_EXIST), studentsService.addMarks(marksMap));
+		assertTrue(studentRepo.findById(ID1).orElseThrow().getMarks().contains(mark1));
+		assertIterableEquals(List.of(mark1, mark2), studentRepo.findById(ID7).orElseThrow().getMarks());
+	}
+
+	@Test
+	void addMarks_stream_success() {
+		Stream<StudentMark> marksStream = Stream.of(new StudentMark(ID7, mark1), new StudentMark(ID_NOT_EXIST, mark1),
+				new StudentMark(ID7, mark2));
+		assertIterableEquals(List.of(ID_NOT_EXIST), studentsService.addMarks(marksStream));
+		assertIterableEquals(List.of(mark1, mark2), studentRepo.findById(ID7).orElseThrow().getMarks());
+	}
+
+	@Test
+	void indexes_created_validated() {
+		indexesManager.createIndexes();
+		assertDoesNotThrow(() -> indexesManager.validateIndexes());
+		assertTrue(indexesManager.getIndexSizes().keySet()
+				.containsAll(List.of("phone", "marks_subject_score", "marks_date")));
+	}
+
 	/*************/
 	@Test
 	void getStudentTest() {
@@ -205,6 +405,38 @@ class StudentsMarksServiceTests {
 		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getMarks(100000));
 	}
 
+	@Test
+	void getMarks_slices_success() {
+		assertIterableEquals(List.of(marks[2][2], marks[2][3]), studentsService.getLatestMarks(ID3, 2));
+		assertIterableEquals(List.of(marks[4][0]), studentsService.getLatestMarks(ID5, 10));
+		assertIterableEquals(List.of(marks[2][1], marks[2][2]), studentsService.getMarks(ID3, 1, 2));
+		assertTrue(studentsService.getMarks(ID3, 10, 2).isEmpty());
+		assertTrue(studentsService.getLatestMarks(ID7, 2).isEmpty());
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getLatestMarks(ID_NOT_EXIST, 2));
+		assertThrowsExactly(StudentNotFoundException.class, () -> studentsService.getMarks(ID_NOT_EXIST, 0, 2));
+	}
+
+	@Test
+	void getMarks_illegalSlices_exception() {
+		assertTrue(studentsService.getLatestMarks(ID3, 0).isEmpty());
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getLatestMarks(ID3, -1));
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getMarks(ID3, -1, 2));
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getMarks(ID3, 0, 0));
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getMarks(ID3, 0, -2));
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getMarksSortedByDate(ID3, -1, 2));
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsService.getMarksSortedByDate(ID3, 0, 0));
+	}
+
+	@Test
+	void getMarksSortedByDate_normalFlow_success() {
+		studentsService.addMark(ID4, new Mark(SUBJECT2, 90, DATE1));
+		assertIterableEquals(List.of(new Mark(SUBJECT2, 90, DATE1), marks[3][0]),
+				studentsService.getMarksSortedByDate(ID4, 0, 2));
+		assertIterableEquals(List.of(marks[3][1]), studentsService.getMarksSortedByDate(ID4, 2, 2));
+		assertThrowsExactly(StudentNotFoundException.class,
+				() -> studentsService.getMarksSortedByDate(ID_NOT_EXIST, 0, 2));
+	}
+
 	@Test
 	void getStudentByPhoneNumberTest() {
 		assertEquals(students[0], studentsService.getStudentByPhoneNumber(PHONE1));
@@ -214,5 +446,12 @@ class StudentsMarksServiceTests {
 	void getStudentsByPhonePrefix() {
 		List<Student> expected = List.of(students[0], students[6]);
 		assertIterableEquals(expected, studentsService.getStudentsByPhonePrefix("051"));
+		assertIterableEquals(expected, studentsService.getStudentsByPhonePrefix("051-123456"));
+		assertTrue(studentsService.getStudentsByPhonePrefix("05.").isEmpty());
+		assertTrue(studentsService.getStudentsByPhonePrefix(PHONE1).isEmpty());
+		Student firstPhone = new Student(ID_NEW, "051-0000000");
+		studentsService.addStudent(firstPhone);
+		assertIterableEquals(List.of(firstPhone, students[0], students[6]),
+				studentsService.getStudentsByPhonePrefix("051"));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.students.dto.Mark;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.ingest.AckMode;
+import telran.students.ingest.MarksWriteBuffer;
+import telran.students.service.StudentsServiceImpl;
+
+@SpringBootTest(properties = { "app.marks.write-buffer.enabled=true", "app.marks.write-buffer.batch-size=10",
+		"app.marks.write-buffer.flush-interval=1h" })
+class StudentsMarksWriteBufferTests {
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	MarksWriteBuffer marksWriteBuffer;
+
+	@Autowired
+	TestDb testDb;
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+	}
+
+	@Test
+	void addMark_buffered_writtenByFlush() {
+		List<Mark> expected = new ArrayList<>(List.of(marks[0]));
+		IntStream.range(0, 5).mapToObj(i -> new Mark(SUBJECT2, 90 + i, DATE4)).forEach(mark -> {
+			marksWriteBuffer.addMark(ID1, mark, AckMode.BUFFERED);
+			expected.add(mark);
+		});
+		assertIterableEquals(List.of(marks[0]), studentsService.getMarks(ID1));
+		assertEquals(5, marksWriteBuffer.flush());
+		assertIterableEquals(expected, studentsService.getMarks(ID1));
+		assertEquals(0, marksWriteBuffer.flush());
+	}
+
+	@Test
+	void addMark_written_flushedOnBatchSize() throws InterruptedException {
+		Mark mark = new Mark(SUBJECT3, 99, DATE4);
+		Thread writer = Thread.ofVirtual().start(() -> marksWriteBuffer.addMark(ID7, mark, AckMode.WRITTEN));
+		IntStream.range(0, 9).forEach(i -> marksWriteBuffer.addMark(ID2, mark, AckMode.BUFFERED));
+		writer.join();
+		assertIterableEquals(List.of(mark), studentsService.getMarks(ID7));
+		assertEquals(marks[1].length + 9, studentsService.getMarks(ID2).size());
+	}
+
+	@Test
+	void addMark_writtenNotFound_exception() {
+		Thread.ofVirtual().start(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			marksWriteBuffer.flush();
+		});
+		assertThrowsExactly(StudentNotFoundException.class,
+				() -> marksWriteBuffer.addMark(ID_NOT_EXIST, new Mark(SUBJECT1, 90, DATE1), AckMode.WRITTEN));
+	}
+}
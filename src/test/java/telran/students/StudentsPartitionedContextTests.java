@@ -0,0 +1,93 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.mongodb.client.MongoClient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import telran.students.dto.Student;
+import telran.students.model.StudentDoc;
+import telran.students.service.PartitionedStudentsService;
+import telran.students.service.StudentsService;
+import telran.students.transfer.StudentsTransfer;
+import telran.students.transfer.TransferReport;
+
+// the partition URIs need the port of the embedded Mongo before the context is created
+@SpringBootTest(properties = { "spring.data.mongodb.port=" + StudentsPartitionedContextTests.PORT,
+		"app.partitions.uris=mongodb://localhost:" + StudentsPartitionedContextTests.PORT + "/students_context0,"
+				+ "mongodb://localhost:" + StudentsPartitionedContextTests.PORT + "/students_context1" })
+class StudentsPartitionedContextTests {
+	static final int PORT = 27118;
+	static final List<String> DATABASES = List.of("students_context0", "students_context1");
+	@Autowired
+	StudentsService studentsService;
+	@Autowired
+	StudentsTransfer studentsTransfer;
+	@Autowired
+	MongoClient mongoClient;
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	MeterRegistry meterRegistry;
+	@TempDir
+	Path dir;
+
+	@BeforeEach
+	void setUp() {
+		DATABASES.forEach(database -> mongoClient.getDatabase(database).getCollection("students")
+				.deleteMany(new Document()));
+	}
+
+	@Test
+	void studentsService_partitionsUris_partitionedServicePrimary() {
+		assertInstanceOf(PartitionedStudentsService.class, studentsService);
+		studentsService.addStudents(List.of(students));
+		assertEquals(0, mongoTemplate.count(new Query(), StudentDoc.class));
+		long nPartitionStudents = DATABASES.stream()
+				.mapToLong(database -> mongoClient.getDatabase(database).getCollection("students").countDocuments())
+				.sum();
+		assertEquals(students.length, nPartitionStudents);
+	}
+
+	@Test
+	void partitionClients_defaultClientCustomizers_commandMetricsRecorded() {
+		studentsService.addStudents(List.of(students));
+		long timerCount = timerCount();
+		assertEquals(students[0], studentsService.getStudent(ID1));
+		assertEquals(timerCount + 1, timerCount());
+	}
+
+	@Test
+	void export_partitions_mergedById() throws IOException {
+		studentsService.addStudents(List.of(students));
+		Path file = dir.resolve("students.csv");
+		TransferReport report = studentsTransfer.export(file, Long.MIN_VALUE);
+		assertEquals(students.length, report.nStudents());
+		List<Long> ids = Files.readAllLines(file).stream().skip(1).map(line -> Long.parseLong(line.split(",")[0]))
+				.distinct().toList();
+		assertEquals(Arrays.stream(students).map(Student::id).sorted().toList(), ids);
+	}
+
+	private long timerCount() {
+		Timer timer = meterRegistry.find("mongodb.command").tags("command", "find", "collection", "students",
+				"status", "success").timer();
+		return timer == null ? 0 : timer.count();
+	}
+}
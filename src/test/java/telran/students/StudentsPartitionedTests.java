@@ -0,0 +1,200 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.time.YearMonth;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+
+import telran.students.analytics.MarksAnalytics;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.encoding.SubjectDictionary;
+import telran.students.exceptions.PhoneIllegalStateException;
+import telran.students.exceptions.StudentNotFoundException;
+import telran.students.indexes.PhonePrefixIndex;
+import telran.students.leaderboard.Leaderboard;
+import telran.students.rollups.MarksRollups;
+import telran.students.service.MarksBucketStore;
+import telran.students.service.PartitionedStudentsService;
+import telran.students.service.StudentsService;
+import telran.students.service.StudentsServiceImpl;
+
+@SpringBootTest
+class StudentsPartitionedTests {
+	static final int N_PARTITIONS = 3;
+	static final List<String> DATABASES = IntStream.range(0, N_PARTITIONS)
+			.mapToObj(i -> "students_partition" + i).toList();
+	@Autowired
+	StudentsServiceImpl studentsService;
+	@Autowired
+	StudentsService primaryService;
+	@Autowired
+	TestDb testDb;
+	@Autowired
+	MongoClient mongoClient;
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	SubjectDictionary subjectDictionary;
+	@Autowired
+	MarksBucketStore marksBucketStore;
+	@Autowired
+	MongoClientSettings mongoClientSettings;
+	@Autowired
+	ObjectProvider<MongoClientSettingsBuilderCustomizer> settingsCustomizers;
+	@Autowired
+	MarksRollups marksRollups;
+	@Autowired
+	MarksAnalytics marksAnalytics;
+	@Autowired
+	Leaderboard leaderboard;
+	@Autowired
+	PhonePrefixIndex phonePrefixIndex;
+	List<String> uris;
+	PartitionedStudentsService partitionedService;
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+		ServerAddress address = mongoClient.getClusterDescription().getClusterSettings().getHosts().get(0);
+		DATABASES.forEach(database -> mongoClient.getDatabase(database).drop());
+		uris = DATABASES.stream().map(database -> "mongodb://%s/%s".formatted(address, database)).toList();
+		partitionedService = createPartitionedService(uris);
+		partitionedService.addStudents(List.of(students));
+		Map<Long, List<Mark>> studentsMarks = new LinkedHashMap<>();
+		for (int i = 0; i < students.length; i++) {
+			studentsMarks.put(students[i].id(), List.of(marks[i]));
+		}
+		assertTrue(partitionedService.addMarks(studentsMarks).isEmpty());
+	}
+
+	@AfterEach
+	void tearDown() {
+		partitionedService.close();
+	}
+
+	private PartitionedStudentsService createPartitionedService(List<String> uris) {
+		return new PartitionedStudentsService(uris, mongoTemplate, mongoClientSettings, settingsCustomizers,
+				subjectDictionary, marksBucketStore, marksRollups, marksAnalytics, leaderboard, phonePrefixIndex,
+				1000, 1000, 2);
+	}
+
+	@Test
+	void studentsService_partitionsUrisNotSet_notPartitioned() {
+		assertInstanceOf(StudentsServiceImpl.class, primaryService);
+	}
+
+	@Test
+	void addStudents_hashOfId_studentsSpreadAcrossPartitions() {
+		List<Long> counts = DATABASES.stream()
+				.map(database -> mongoClient.getDatabase(database).getCollection("students").countDocuments())
+				.toList();
+		assertEquals(List.of(2L, 3L, 2L), counts);
+		assertEquals(List.of(ID1, ID4), partitionedService
+				.addStudents(List.of(new Student(ID1, PHONE1), new Student(ID_NEW, "050-0000000"),
+						new Student(ID4, PHONE4))));
+		assertEquals(students[0], partitionedService.getStudent(ID1));
+		assertEquals(List.of(marks[5]), partitionedService.getMarks(ID6));
+		assertThrowsExactly(StudentNotFoundException.class, () -> partitionedService.getStudent(ID_NOT_EXIST));
+	}
+
+	@Test
+	void globalQueries_scatterGather_sameAsSingleDatabase() {
+		for (int nStudents = 1; nStudents <= students.length + 1; nStudents++) {
+			assertEquals(studentsService.getBestStudents(nStudents), partitionedService.getBestStudents(nStudents));
+			assertEquals(studentsService.getWorstStudents(nStudents),
+					partitionedService.getWorstStudents(nStudents));
+		}
+		for (Student student : students) {
+			assertEquals(studentsService.getRank(student.id()), partitionedService.getRank(student.id()));
+		}
+		for (int threshold : new int[] { 0, 70, 76, 99, 100 }) {
+			assertEquals(studentsService.getStudentsAvgScoreGreater(threshold),
+					partitionedService.getStudentsAvgScoreGreater(threshold));
+		}
+		assertEquals(studentsService.getMarksStats(1, 2024), partitionedService.getMarksStats(1, 2024));
+		assertEquals(studentsService.getSubjectMarksStats(SUBJECT4, 2, 2024),
+				partitionedService.getSubjectMarksStats(SUBJECT4, 2, 2024));
+		YearMonth from = YearMonth.of(2024, 1);
+		YearMonth to = YearMonth.of(2024, 2);
+		assertEquals(studentsService.getScorePercentile(null, from, to, 50),
+				partitionedService.getScorePercentile(null, from, to, 50));
+		assertEquals(studentsService.getScoreHistogram(SUBJECT1, from, to, 25),
+				partitionedService.getScoreHistogram(SUBJECT1, from, to, 25));
+	}
+
+	@Test
+	void phoneLookups_scatterGather_sameAsSingleDatabase() {
+		assertEquals(students[2], partitionedService.getStudentByPhoneNumber(PHONE3));
+		assertNull(partitionedService.getStudentByPhoneNumber("050-0000000"));
+		assertEquals(List.of(students[0], students[6]), partitionedService.getStudentsByPhonePrefix("051"));
+		assertEquals(studentsService.getStudentsByPhonePrefix("05", ID2, 3),
+				partitionedService.getStudentsByPhonePrefix("05", ID2, 3));
+		try (Stream<Student> stream = partitionedService.streamStudentsByPhonePrefix("05")) {
+			assertEquals(students.length, stream.map(Student::id).distinct().count());
+		}
+	}
+
+	@Test
+	void multiGet_idsOfAllPartitions_orderedAsRequested() {
+		List<Long> ids = List.of(ID7, ID_NOT_EXIST, ID2, ID5, ID1);
+		assertEquals(studentsService.getStudents(ids), partitionedService.getStudents(ids));
+		assertEquals(studentsService.getMarks(ids), partitionedService.getMarks(ids));
+	}
+
+	@Test
+	void removeStudent_routed_rankRecalculated() {
+		assertEquals(students[5], partitionedService.removeStudent(ID6));
+		studentsService.removeStudent(ID6);
+		assertThrowsExactly(StudentNotFoundException.class, () -> partitionedService.getRank(ID6));
+		for (long id : new long[] { ID1, ID2, ID3, ID5 }) {
+			assertEquals(studentsService.getRank(id), partitionedService.getRank(id));
+		}
+		Document partitionDoc = mongoClient.getDatabase(DATABASES.get(0)).getCollection("students")
+				.find(new Document("_id", ID5)).first();
+		assertNotNull(partitionDoc);
+	}
+
+	@Test
+	void phoneWrites_phoneOfOtherPartition_exception() {
+		// partitions: ID1 and ID_NEW + 1 - 1, ID2 and ID_NEW - 2
+		assertThrowsExactly(PhoneIllegalStateException.class,
+				() -> partitionedService.addStudent(new Student(ID_NEW, PHONE1)));
+		assertThrowsExactly(PhoneIllegalStateException.class,
+				() -> partitionedService.updatePhoneNumber(ID1, PHONE2));
+		assertEquals(students[0], partitionedService.getStudent(ID1));
+		Student student = new Student(ID_NEW, "050-0000000");
+		assertThrowsExactly(PhoneIllegalStateException.class, () -> partitionedService
+				.addStudents(List.of(new Student(ID_NEW + 1, PHONE2), student)));
+		assertEquals(student, partitionedService.getStudent(ID_NEW));
+		assertThrowsExactly(StudentNotFoundException.class, () -> partitionedService.getStudent(ID_NEW + 1));
+		assertEquals(students[1], partitionedService.getStudentByPhoneNumber(PHONE2));
+	}
+
+	@Test
+	void constructor_partitionsChanged_exception() {
+		assertThrowsExactly(IllegalStateException.class,
+				() -> createPartitionedService(uris.subList(0, N_PARTITIONS - 1)));
+		List<String> reorderedUris = new ArrayList<>(uris);
+		Collections.swap(reorderedUris, 0, 1);
+		assertThrowsExactly(IllegalStateException.class, () -> createPartitionedService(reorderedUris));
+		createPartitionedService(uris).close();
+	}
+}
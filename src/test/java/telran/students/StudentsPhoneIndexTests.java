@@ -0,0 +1,69 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.students.dto.Student;
+import telran.students.exceptions.PhoneIllegalStateException;
+import telran.students.indexes.PhonePrefixIndex;
+import telran.students.service.StudentsServiceImpl;
+
+@SpringBootTest(properties = "app.phone-index.enabled=true")
+class StudentsPhoneIndexTests {
+	static final String NEW_PHONE = "059-0000000";
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	PhonePrefixIndex phonePrefixIndex;
+
+	@Autowired
+	TestDb testDb;
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+		phonePrefixIndex.load();
+	}
+
+	@Test
+	void phoneLookups_loaded_success() {
+		assertTrue(phonePrefixIndex.isEnabled());
+		assertEquals(students[2], studentsService.getStudentByPhoneNumber(PHONE3));
+		assertNull(studentsService.getStudentByPhoneNumber(NEW_PHONE));
+		assertIterableEquals(List.of(students[0], students[6]), studentsService.getStudentsByPhonePrefix("051"));
+		assertTrue(studentsService.getStudentsByPhonePrefix(PHONE1).isEmpty());
+	}
+
+	@Test
+	void phoneLookups_sortedByPhone_sameAsDatabase() {
+		Student firstPhone = new Student(ID_NEW, "051-0000000");
+		studentsService.addStudent(firstPhone);
+		assertIterableEquals(List.of(firstPhone, students[0], students[6]),
+				studentsService.getStudentsByPhonePrefix("051"));
+	}
+
+	@Test
+	void writes_indexUpdated_success() {
+		studentsService.updatePhoneNumber(ID1, NEW_PHONE);
+		assertNull(studentsService.getStudentByPhoneNumber(PHONE1));
+		assertEquals(new Student(ID1, NEW_PHONE), studentsService.getStudentByPhoneNumber(NEW_PHONE));
+		assertIterableEquals(List.of(students[6]), studentsService.getStudentsByPhonePrefix("051"));
+		assertThrowsExactly(PhoneIllegalStateException.class, () -> studentsService.updatePhoneNumber(ID2, PHONE3));
+		assertEquals(students[1], studentsService.getStudentByPhoneNumber(PHONE2));
+		studentsService.removeStudent(ID7);
+		assertTrue(studentsService.getStudentsByPhonePrefix("051").isEmpty());
+		Student added = new Student(ID_NEW, PHONE7);
+		assertIterableEquals(List.of(ID2),
+				studentsService.addStudents(List.of(added, new Student(ID2, "058-0000000"))));
+		assertEquals(added, studentsService.getStudentByPhoneNumber(PHONE7));
+		assertNull(studentsService.getStudentByPhoneNumber("058-0000000"));
+	}
+}
@@ -0,0 +1,121 @@
+package telran.students;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static telran.students.TestDb.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import telran.students.dto.Mark;
+import telran.students.repo.StudentRepo;
+import telran.students.service.StudentsServiceImpl;
+import telran.students.transfer.StudentsTransfer;
+import telran.students.transfer.TransferReport;
+
+@SpringBootTest
+class StudentsTransferTests {
+	static final long N_MARKS = Arrays.stream(marks).mapToLong(studentMarks -> studentMarks.length).sum();
+	@Autowired
+	StudentsServiceImpl studentsService;
+
+	@Autowired
+	StudentsTransfer studentsTransfer;
+
+	@Autowired
+	StudentRepo studentRepo;
+
+	@Autowired
+	TestDb testDb;
+
+	@TempDir
+	Path dir;
+
+	@BeforeEach
+	void setUp() {
+		testDb.createDb();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "students.ndjson", "students.ndjson.gz", "students.csv", "students.csv.gz" })
+	void exportImport_allFormats_sameStudents(String fileName) throws IOException {
+		Path file = dir.resolve(fileName);
+		assertEquals(new TransferReport(students.length, N_MARKS, 0, ID7),
+				studentsTransfer.export(file, Long.MIN_VALUE));
+		studentRepo.deleteAll();
+		assertEquals(new TransferReport(students.length, N_MARKS, 0, ID7),
+				studentsTransfer.importStudents(file, Long.MIN_VALUE));
+		for (int i = 0; i < students.length; i++) {
+			assertEquals(students[i], studentsService.getStudent(students[i].id()));
+			assertIterableEquals(List.of(marks[i]), studentsService.getMarks(students[i].id()));
+		}
+		assertEquals(List.of(6L, 2L), studentsService.getBestStudents(2));
+		assertEquals(new TransferReport(0, 0, students.length, ID7),
+				studentsTransfer.importStudents(file, Long.MIN_VALUE));
+	}
+
+	@Test
+	void export_resumed_appendsGreaterIds() throws IOException {
+		Path file = dir.resolve("students.csv");
+		studentsTransfer.export(file, Long.MIN_VALUE);
+		List<String> lines = Files.readAllLines(file);
+		int nLinesUpToId3 = 1 + marks[0].length + marks[1].length + marks[2].length;
+		Files.write(file, lines.subList(0, nLinesUpToId3));
+		TransferReport report = studentsTransfer.export(file, ID3);
+		assertEquals(students.length - 3, report.nStudents());
+		assertEquals(lines, Files.readAllLines(file));
+		studentRepo.deleteAll();
+		studentsTransfer.importStudents(file, ID3);
+		assertFalse(studentRepo.existsById(ID3));
+		assertIterableEquals(List.of(new Mark(SUBJECT4, 95, DATE3)), studentsService.getMarks(ID5));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "students.ndjson", "students.csv" })
+	void export_resumedAfterCrash_cutLineAndGreaterIdsTruncated(String fileName) throws IOException {
+		Path file = dir.resolve(fileName);
+		studentsTransfer.export(file, Long.MIN_VALUE);
+		byte[] exported = Files.readAllBytes(file);
+		// the buffer has been flushed after the records of ID4 in the middle of a line of ID5
+		String content = new String(exported, StandardCharsets.UTF_8);
+		String lineStartId5 = fileName.endsWith(".csv") ? "\n" + ID5 + "," : "\n{\"id\":" + ID5 + ",";
+		int cut = content.indexOf(lineStartId5) + lineStartId5.length() + 2;
+		Files.write(file, Arrays.copyOf(exported, cut));
+		assertEquals(students.length - 3, studentsTransfer.export(file, ID3).nStudents());
+		assertArrayEquals(exported, Files.readAllBytes(file));
+	}
+
+	@Test
+	void export_resumedCompressed_exception() throws IOException {
+		Path file = dir.resolve("students.csv.gz");
+		studentsTransfer.export(file, Long.MIN_VALUE);
+		assertThrowsExactly(IllegalArgumentException.class, () -> studentsTransfer.export(file, ID3));
+		Path newFile = dir.resolve("students-resumed.csv.gz");
+		assertEquals(students.length - 3, studentsTransfer.export(newFile, ID3).nStudents());
+	}
+
+	@Test
+	void importStudents_resumedAfterStudentsOfBatch_marksAdded() throws IOException {
+		Path file = dir.resolve("students.ndjson");
+		studentsTransfer.export(file, Long.MIN_VALUE);
+		studentRepo.deleteAll();
+		// students of the interrupted batch have been added without their marks
+		studentsService.addStudents(List.of(students[0], students[1], students[2]));
+		assertEquals(new TransferReport(students.length - 3, N_MARKS, 3, ID7),
+				studentsTransfer.importStudents(file, 0));
+		for (int i = 0; i < students.length; i++) {
+			assertIterableEquals(List.of(marks[i]), studentsService.getMarks(students[i].id()));
+		}
+	}
+}
@@ -10,11 +10,13 @@ import lombok.RequiredArgsConstructor;
 import telran.students.dto.*;
 import telran.students.model.StudentDoc;
 import telran.students.repo.StudentRepo;
+import telran.students.service.MarksSummaryUpdater;
 
 @Component
 @RequiredArgsConstructor
 public class TestDb {
 	final StudentRepo studentRepo;
+	final MarksSummaryUpdater marksSummaryUpdater;
 	// ID's
 	static final long ID1 = 1;
 	static final long ID2 = 2;
@@ -64,6 +66,7 @@ public class TestDb {
 		studentRepo.deleteAll();
 		List<StudentDoc> studentDocs = IntStream.range(0, students.length).mapToObj(this::indexToStudent).toList();
 		studentRepo.saveAll(studentDocs);
+		marksSummaryUpdater.backfill();
 	}
 
 	StudentDoc indexToStudent(int index) {
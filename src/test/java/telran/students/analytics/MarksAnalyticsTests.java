@@ -0,0 +1,110 @@
+package telran.students.analytics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import telran.students.dto.Mark;
+import telran.students.dto.StudentAvgScore;
+
+class MarksAnalyticsTests {
+	static final LocalDate DATE = LocalDate.of(2024, 1, 10);
+	static final Mark MATH_90 = new Mark("Math", 90, DATE);
+	static final Mark MATH_70 = new Mark("Math", 70, DATE.plusMonths(1));
+	static final Mark JAVA_85 = new Mark("Java", 85, DATE);
+	static final Mark JAVA_95 = new Mark("Java", 95, DATE.plusMonths(1));
+	@TempDir
+	Path dir;
+	MarksAnalytics analytics;
+
+	@BeforeEach
+	void setUp() {
+		analytics = new MarksAnalytics(null, true, false, dir.resolve("marks.snapshot"));
+		analytics.addMarks(1, List.of(MATH_90, JAVA_85));
+		analytics.addMarks(2, List.of(MATH_70, JAVA_95));
+		analytics.addMarks(3, List.of(JAVA_95, JAVA_95));
+		analytics.addMarks(4, List.of());
+	}
+
+	@Test
+	void queries_normalState_success() {
+		assertEquals(List.of(new StudentAvgScore(3, 95), new StudentAvgScore(1, 87)),
+				analytics.getStudentsAvgScoreGreater(85));
+		assertEquals(List.of(1L, 3L, 2L), analytics.getBestStudents(3));
+		assertEquals(List.of(1L, 3L), analytics.getBestStudents(2));
+		assertEquals(List.of(1L), analytics.getStudentsMarksMonthYear(1, 2024));
+		assertEquals(List.of(2L, 3L), analytics.getStudentsMarksMonthYear(2, 2024));
+		assertEquals(List.of(1L, 3L), analytics.getStudentsAllGoodMarksSubject("Java", 80));
+		assertTrue(analytics.getStudentsAllGoodMarksSubject("Physics", 0).isEmpty());
+	}
+
+	@Test
+	void writes_updateRemove_applied() {
+		analytics.updateMark(2, MATH_70, MATH_90);
+		assertEquals(List.of(1L, 2L, 3L), analytics.getStudentsAllGoodMarksSubject("Java", 80));
+		analytics.removeMark(3, JAVA_95);
+		analytics.removeStudent(1);
+		assertEquals(List.of(2L), analytics.getBestStudents(3));
+		assertEquals(List.of(new StudentAvgScore(2, 92)), analytics.getStudentsAvgScoreGreater(0));
+		analytics.columns.compact();
+		assertEquals(List.of(2L), analytics.getStudentsMarksMonthYear(2, 2024));
+		analytics.addMarks(1, List.of(MATH_70));
+		assertEquals(List.of(1L, 2L), analytics.getStudentsMarksMonthYear(2, 2024));
+	}
+
+	/**
+	 * 
+	 * @return analytics whose Mongo has marks of a given fingerprint, the
+	 *         fallback load from Mongo loads no marks
+	 */
+	private MarksAnalytics loadingAnalytics(MarksAnalytics.Fingerprint mongoFingerprint, List<String> loads) {
+		return new MarksAnalytics(null, true, false, dir.resolve("marks.snapshot")) {
+			@Override
+			Fingerprint mongoFingerprint() {
+				return mongoFingerprint;
+			}
+
+			@Override
+			void loadFromMongo() {
+				loads.add("mongo");
+			}
+		};
+	}
+
+	@Test
+	void snapshot_writeLoad_sameResults() throws IOException {
+		analytics.removeMark(1, JAVA_85);
+		analytics.save();
+		List<String> loads = new ArrayList<>();
+		// students 1 - 3 have 5 marks
+		MarksAnalytics loaded = loadingAnalytics(new MarksAnalytics.Fingerprint(3, 5, 90 + 70 + 95 + 95 + 95), loads);
+		loaded.load();
+		assertTrue(loads.isEmpty());
+		assertFalse(Files.exists(dir.resolve("marks.snapshot")));
+		assertEquals(analytics.getStudentsAvgScoreGreater(0), loaded.getStudentsAvgScoreGreater(0));
+		assertEquals(analytics.getBestStudents(4), loaded.getBestStudents(4));
+		assertEquals(List.of(1L, 2L), loaded.getStudentsAllGoodMarksSubject("Math", 60));
+		loaded.addMarks(4, List.of(MATH_90));
+		assertEquals(List.of(1L, 4L), loaded.getStudentsMarksMonthYear(1, 2024));
+	}
+
+	@Test
+	void snapshot_mongoChanged_loadedFromMongo() throws IOException {
+		analytics.save();
+		List<String> loads = new ArrayList<>();
+		MarksAnalytics loaded = loadingAnalytics(new MarksAnalytics.Fingerprint(3, 7, 0), loads);
+		loaded.load();
+		assertEquals(List.of("mongo"), loads);
+		assertFalse(Files.exists(dir.resolve("marks.snapshot")));
+		assertTrue(loaded.getBestStudents(3).isEmpty());
+	}
+}
@@ -0,0 +1,182 @@
+package telran.students.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import telran.students.StudentsMarksApplication;
+import telran.students.indexes.IndexesManager;
+import telran.students.service.MarksSummaryUpdater;
+import telran.students.service.StudentsService;
+
+/**
+ * Closed-loop load generator replaying a production-like mix against
+ * StudentsService: 35% getMarks, 35% getStudent, 25% addMark and 5% heavy
+ * aggregations. A share of the requests goes to a small set of hot students.
+ * Latencies are recorded per operation into HdrHistograms; p50/p99/p999 are
+ * printed and the full distributions are written as .hgrm files when output
+ * is given. Being closed-loop it doesn't account for coordinated omission, so
+ * runs should be compared with equal clients and duration.
+ * <p>
+ * Arguments key=value: students (10000), marks (10), clients (64), seconds
+ * (60), hotStudents (100), hotShare (0.5), virtual (false), output (none)
+ */
+public class LoadGenerator {
+	static final long SEED = 322;
+	static final long HIGHEST_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+	enum Operation {
+		GET_MARKS(35, (service, id) -> service.getMarks(id)),
+		GET_STUDENT(35, (service, id) -> service.getStudent(id)),
+		ADD_MARK(25, (service, id) -> service.addMark(id, TestDataGenerator.mark(ThreadLocalRandom.current()))),
+		AVG_SCORE_GREATER(2, (service, id) -> service.getStudentsAvgScoreGreater(90)),
+		BEST_STUDENTS(2, (service, id) -> service.getBestStudents(10)),
+		WORST_STUDENTS(1, (service, id) -> service.getWorstStudents(10));
+
+		final int weight;
+		final BiConsumer<StudentsService, Long> action;
+
+		Operation(int weight, BiConsumer<StudentsService, Long> action) {
+			this.weight = weight;
+			this.action = action;
+		}
+	}
+
+	final StudentsService studentsService;
+	final int nStudents;
+	final int hotStudents;
+	final double hotShare;
+	final Operation[] operationsByWeight;
+	final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+	final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+
+	LoadGenerator(StudentsService studentsService, int nStudents, int hotStudents, double hotShare) {
+		this.studentsService = studentsService;
+		this.nStudents = nStudents;
+		this.hotStudents = Math.min(hotStudents, nStudents);
+		this.hotShare = hotShare;
+		operationsByWeight = Arrays.stream(Operation.values())
+				.flatMap(op -> Collections.nCopies(op.weight, op).stream()).toArray(Operation[]::new);
+		for (Operation op : Operation.values()) {
+			recorders.put(op, new Recorder(HIGHEST_LATENCY_NANOS, 3));
+			errors.put(op, new AtomicLong());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> params = new HashMap<>();
+		for (String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			params.put(keyValue[0], keyValue[1]);
+		}
+		int nStudents = Integer.parseInt(params.getOrDefault("students", "10000"));
+		int nMarks = Integer.parseInt(params.getOrDefault("marks", "10"));
+		int nClients = Integer.parseInt(params.getOrDefault("clients", "64"));
+		long seconds = Long.parseLong(params.getOrDefault("seconds", "60"));
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(StudentsMarksApplication.class)
+				.web(WebApplicationType.NONE).properties("logging.level.telran=info", "spring.main.banner-mode=off")
+				.run()) {
+			new TestDataGenerator(context.getBean(MongoTemplate.class), context.getBean(IndexesManager.class),
+					context.getBean(MarksSummaryUpdater.class), SEED).generate(nStudents, nMarks);
+			LoadGenerator generator = new LoadGenerator(context.getBean(StudentsService.class), nStudents,
+					Integer.parseInt(params.getOrDefault("hotStudents", "100")),
+					Double.parseDouble(params.getOrDefault("hotShare", "0.5")));
+			Map<Operation, Histogram> histograms = generator.run(nClients, seconds,
+					Boolean.parseBoolean(params.getOrDefault("virtual", "false")));
+			generator.report(histograms, seconds, System.out);
+			String output = params.get("output");
+			if (output != null) {
+				writeDistributions(histograms, Path.of(output));
+			}
+		}
+	}
+
+	/**
+	 * runs given amount of clients for a given duration
+	 * 
+	 * @return latency histograms per operation
+	 */
+	Map<Operation, Histogram> run(int nClients, long seconds, boolean virtual) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = virtual ? Executors.newVirtualThreadPerTaskExecutor()
+				: Executors.newFixedThreadPool(nClients);
+		for (int i = 0; i < nClients; i++) {
+			executor.execute(() -> {
+				while (System.nanoTime() < end) {
+					execute(nextOperation());
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(seconds + HIGHEST_LATENCY_NANOS / 1_000_000_000, TimeUnit.SECONDS);
+		Map<Operation, Histogram> res = new EnumMap<>(Operation.class);
+		recorders.forEach((op, recorder) -> res.put(op, recorder.getIntervalHistogram()));
+		return res;
+	}
+
+	private Operation nextOperation() {
+		return operationsByWeight[ThreadLocalRandom.current().nextInt(operationsByWeight.length)];
+	}
+
+	private void execute(Operation operation) {
+		long id = nextId();
+		long start = System.nanoTime();
+		try {
+			operation.action.accept(studentsService, id);
+		} catch (RuntimeException e) {
+			errors.get(operation).incrementAndGet();
+		}
+		recorders.get(operation).recordValue(Math.min(System.nanoTime() - start, HIGHEST_LATENCY_NANOS));
+	}
+
+	/**
+	 * 
+	 * @return id of a hot student with probability hotShare, otherwise id of any
+	 *         student
+	 */
+	private long nextId() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int bound = random.nextDouble() < hotShare ? hotStudents : nStudents;
+		return random.nextInt(bound) + 1;
+	}
+
+	void report(Map<Operation, Histogram> histograms, long seconds, PrintStream out) {
+		out.printf("%-18s %10s %10s %10s %10s %10s %10s %8s%n", "operation", "count", "ops/s", "p50 us", "p99 us",
+				"p999 us", "max us", "errors");
+		histograms.forEach((op, histogram) -> out.printf("%-18s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %8d%n", op,
+				histogram.getTotalCount(), (double) histogram.getTotalCount() / seconds,
+				micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+				micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMaxValue()), errors.get(op).get()));
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	private static void writeDistributions(Map<Operation, Histogram> histograms, Path directory) throws IOException {
+		Files.createDirectories(directory);
+		for (var entry : histograms.entrySet()) {
+			try (PrintStream out = new PrintStream(
+					new FileOutputStream(directory.resolve(entry.getKey().name().toLowerCase() + ".hgrm").toFile()))) {
+				// values are scaled to microseconds
+				entry.getValue().outputPercentileDistribution(out, 1000.0);
+			}
+		}
+	}
+}
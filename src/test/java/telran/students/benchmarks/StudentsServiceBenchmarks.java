@@ -0,0 +1,121 @@
+package telran.students.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import telran.students.StudentsMarksApplication;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.dto.StudentAvgScore;
+import telran.students.indexes.IndexesManager;
+import telran.students.service.MarksSummaryUpdater;
+import telran.students.service.StudentsService;
+
+/**
+ * Throughput and latency distribution of the StudentsService hot paths on an
+ * embedded Mongo loaded by {@link TestDataGenerator}. addMark and addMarks
+ * grow the data set during the measurement, so their results should be
+ * compared for equal durations only. The batch ingestion benchmarks are
+ * measured per mark: addMarks sends a batch as one bulk write, addMarkPerMark
+ * adds the same amount of marks by addMark calls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class StudentsServiceBenchmarks {
+	static final long SEED = 322;
+	static final int AVG_THRESHOLD = 90;
+	static final int N_STUDENTS = 10;
+	static final int MARKS_BATCH_SIZE = 100;
+
+	@Param({ "10000" })
+	int nStudents;
+
+	@Param({ "10" })
+	int nMarks;
+
+	ConfigurableApplicationContext context;
+	StudentsService studentsService;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = new SpringApplicationBuilder(StudentsMarksApplication.class).web(WebApplicationType.NONE)
+				.properties("logging.level.telran=info", "spring.main.banner-mode=off").run();
+		studentsService = context.getBean(StudentsService.class);
+		new TestDataGenerator(context.getBean(MongoTemplate.class), context.getBean(IndexesManager.class),
+				context.getBean(MarksSummaryUpdater.class), SEED).generate(nStudents, nMarks);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Mark addMark() {
+		return studentsService.addMark(randomId(), TestDataGenerator.mark(ThreadLocalRandom.current()));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MARKS_BATCH_SIZE)
+	public List<Long> addMarks() {
+		return studentsService.addMarks(randomMarksBatch());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MARKS_BATCH_SIZE)
+	public void addMarkPerMark(Blackhole blackhole) {
+		randomMarksBatch().forEach(
+				(id, marks) -> marks.forEach(mark -> blackhole.consume(studentsService.addMark(id, mark))));
+	}
+
+	@Benchmark
+	public Student getStudent() {
+		return studentsService.getStudent(randomId());
+	}
+
+	@Benchmark
+	public List<Student> getStudentsByPhonePrefix() {
+		String phone = TestDataGenerator.phone(randomId());
+		return studentsService.getStudentsByPhonePrefix(phone.substring(0, phone.length() - 2));
+	}
+
+	@Benchmark
+	public List<StudentAvgScore> getStudentsAvgScoreGreater() {
+		return studentsService.getStudentsAvgScoreGreater(AVG_THRESHOLD);
+	}
+
+	@Benchmark
+	public List<Long> getBestStudents() {
+		return studentsService.getBestStudents(N_STUDENTS);
+	}
+
+	@Benchmark
+	public List<Long> getWorstStudents() {
+		return studentsService.getWorstStudents(N_STUDENTS);
+	}
+
+	private Map<Long, List<Mark>> randomMarksBatch() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Map<Long, List<Mark>> res = new HashMap<>();
+		for (int i = 0; i < MARKS_BATCH_SIZE; i++) {
+			res.computeIfAbsent(randomId(), k -> new ArrayList<>()).add(TestDataGenerator.mark(random));
+		}
+		return res;
+	}
+
+	private long randomId() {
+		return ThreadLocalRandom.current().nextLong(nStudents) + 1;
+	}
+}
@@ -0,0 +1,77 @@
+package telran.students.benchmarks;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+import telran.students.indexes.IndexesManager;
+import telran.students.model.StudentDoc;
+import telran.students.service.MarksSummaryUpdater;
+
+/**
+ * Generator of a reproducible data set: students with ids 1..nStudents, phones
+ * from {@link #phone(long)} and nMarks random marks of 2024 each
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class TestDataGenerator {
+	public static final String[] SUBJECTS = { "Math", "Physics", "Chemistry", "Biology", "History", "Geography",
+			"Literature", "English", "Java", "Databases" };
+	public static final LocalDate FIRST_DATE = LocalDate.of(2024, 1, 1);
+	static final int N_DAYS = 366;
+	static final int MIN_SCORE = 40;
+	static final int BATCH_SIZE = 10_000;
+	final MongoTemplate mongoTemplate;
+	final IndexesManager indexesManager;
+	final MarksSummaryUpdater marksSummaryUpdater;
+	final long seed;
+
+	/**
+	 * 
+	 * @param id
+	 * @return phone of a generated student. Phones of the students with the same
+	 *         id / 100 and id % 10 share the prefix without two last digits
+	 */
+	public static String phone(long id) {
+		return String.format("05%d-%07d", id % 10, id);
+	}
+
+	/**
+	 * replaces the students collection with a generated one. The indexes are
+	 * created and the marks summary is calculated after the bulk load
+	 */
+	public void generate(int nStudents, int nMarks) {
+		mongoTemplate.dropCollection(StudentDoc.class);
+		Random random = new Random(seed);
+		for (long from = 1; from <= nStudents; from += BATCH_SIZE) {
+			long to = Math.min(from + BATCH_SIZE, nStudents + 1l);
+			List<StudentDoc> studentDocs = LongStream.range(from, to)
+					.mapToObj(id -> studentDoc(id, nMarks, random)).toList();
+			mongoTemplate.bulkOps(BulkMode.UNORDERED, StudentDoc.class).insert(studentDocs).execute();
+		}
+		indexesManager.createIndexes();
+		marksSummaryUpdater.backfill();
+		log.info("{} students with {} marks each have been generated", nStudents, nMarks);
+	}
+
+	private StudentDoc studentDoc(long id, int nMarks, Random random) {
+		StudentDoc res = new StudentDoc(new Student(id, phone(id)));
+		for (int i = 0; i < nMarks; i++) {
+			res.getMarks().add(mark(random));
+		}
+		return res;
+	}
+
+	public static Mark mark(Random random) {
+		return new Mark(SUBJECTS[random.nextInt(SUBJECTS.length)], MIN_SCORE + random.nextInt(101 - MIN_SCORE),
+				FIRST_DATE.plusDays(random.nextInt(N_DAYS)));
+	}
+}
@@ -0,0 +1,105 @@
+package telran.students.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import telran.students.dto.Mark;
+import telran.students.dto.Student;
+
+class StudentsCacheTests {
+	static final long ID = 1;
+	static final Student STUDENT = new Student(ID, "051-1234567");
+	static final List<Mark> MARKS = List.of(new Mark("Math", 90, LocalDate.of(2024, 1, 1)));
+	StudentsCache cache = new StudentsCache(true, 100, 100, Duration.ofMinutes(1));
+	AtomicInteger nLoads = new AtomicInteger();
+
+	Student loadStudent(long id) {
+		nLoads.incrementAndGet();
+		return id == ID ? STUDENT : null;
+	}
+
+	@Test
+	void getStudent_hitMissInvalidate() {
+		assertEquals(STUDENT, cache.getStudent(ID, this::loadStudent));
+		assertEquals(STUDENT, cache.getStudent(ID, this::loadStudent));
+		assertEquals(1, nLoads.get());
+		cache.invalidateStudent(ID);
+		assertEquals(STUDENT, cache.getStudent(ID, this::loadStudent));
+		assertEquals(2, nLoads.get());
+		assertEquals(1, cache.getStudentsStats().hitCount());
+		assertEquals(2, cache.getStudentsStats().missCount());
+	}
+
+	@Test
+	void getStudent_notFound_notCached() {
+		assertNull(cache.getStudent(ID + 1, this::loadStudent));
+		assertNull(cache.getStudent(ID + 1, this::loadStudent));
+		assertEquals(2, nLoads.get());
+	}
+
+	@Test
+	void getMarks_invalidate() {
+		assertEquals(MARKS, cache.getMarks(ID, id -> MARKS));
+		assertEquals(MARKS, cache.getMarks(ID, id -> List.of()));
+		cache.invalidate(ID);
+		assertTrue(cache.getMarks(ID, id -> List.of()).isEmpty());
+	}
+
+	@Test
+	void getStudents_partialHit_missingLoaded() {
+		cache.getStudent(ID, this::loadStudent);
+		Map<Long, Student> res = cache.getStudents(List.of(ID, ID + 1), ids -> {
+			assertEquals(Set.of(ID + 1), ids);
+			nLoads.incrementAndGet();
+			return new HashMap<>();
+		});
+		assertEquals(Map.of(ID, STUDENT), res);
+		assertEquals(2, nLoads.get());
+	}
+
+	@Test
+	void getStudents_invalidatedDuringLoad_notCached() {
+		Map<Long, Student> res = cache.getStudents(List.of(ID), ids -> {
+			nLoads.incrementAndGet();
+			cache.invalidateStudent(ID);
+			return new HashMap<>(Map.of(ID, STUDENT));
+		});
+		assertEquals(Map.of(ID, STUDENT), res);
+		cache.getStudent(ID, this::loadStudent);
+		assertEquals(2, nLoads.get());
+		cache.getStudents(List.of(ID), ids -> fail("cached student is loaded"));
+	}
+
+	@Test
+	void bindTo_hitsMisses_meters() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		cache.bindTo(registry);
+		cache.getStudent(ID, this::loadStudent);
+		cache.getStudent(ID, this::loadStudent);
+		assertEquals(1, registry.get("cache.gets").tags("cache", "students", "result", "hit").functionCounter()
+				.count());
+		assertEquals(1, registry.get("cache.gets").tags("cache", "students", "result", "miss").functionCounter()
+				.count());
+		assertNotNull(registry.find("cache.size").tag("cache", "marks").gauge());
+	}
+
+	@Test
+	void disabled_loaderCalled() {
+		StudentsCache disabledCache = new StudentsCache(false, 100, 100, Duration.ofMinutes(1));
+		disabledCache.getStudent(ID, this::loadStudent);
+		disabledCache.getStudent(ID, this::loadStudent);
+		assertEquals(2, nLoads.get());
+	}
+}
@@ -0,0 +1,88 @@
+package telran.students.ingest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import telran.students.dto.Mark;
+import telran.students.exceptions.MarksBufferFullException;
+import telran.students.service.ServiceErrorMessages;
+import telran.students.service.StudentsService;
+
+class MarksWriteBufferTests {
+	static final long ID = 1;
+	static final Duration OFFER_TIMEOUT = Duration.ofMillis(50);
+	static final Duration WRITE_TIMEOUT = Duration.ofMillis(100);
+	Mark mark1 = new Mark("Math", 70, LocalDate.of(2024, 1, 1));
+	Mark mark2 = new Mark("Math", 80, LocalDate.of(2024, 1, 2));
+	Mark mark3 = new Mark("Math", 90, LocalDate.of(2024, 1, 3));
+	StudentsService studentsService = mock(StudentsService.class);
+	MarksWriteBuffer buffer;
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		if (buffer != null) {
+			buffer.stop();
+		}
+	}
+
+	@Test
+	void addMark_capacityReached_backPressure() {
+		when(studentsService.addMarks(anyMap())).thenReturn(List.of());
+		buffer = startBuffer(2, 10);
+		buffer.addMark(ID, mark1, AckMode.BUFFERED);
+		buffer.addMark(ID, mark2, AckMode.BUFFERED);
+		MarksBufferFullException e = assertThrowsExactly(MarksBufferFullException.class,
+				() -> buffer.addMark(ID, mark3, AckMode.BUFFERED));
+		assertEquals(ServiceErrorMessages.MARKS_BUFFER_FULL, e.getMessage());
+		assertEquals(2, buffer.flush());
+		verify(studentsService).addMarks(Map.of(ID, List.of(mark1, mark2)));
+		assertEquals(mark3, buffer.addMark(ID, mark3, AckMode.BUFFERED));
+	}
+
+	@Test
+	void addMark_stopped_rejected() throws InterruptedException {
+		when(studentsService.addMarks(anyMap())).thenReturn(List.of());
+		buffer = startBuffer(10, 10);
+		buffer.addMark(ID, mark1, AckMode.BUFFERED);
+		buffer.stop();
+		verify(studentsService).addMarks(Map.of(ID, List.of(mark1)));
+		MarksBufferFullException e = assertThrowsExactly(MarksBufferFullException.class,
+				() -> buffer.addMark(ID, mark2, AckMode.BUFFERED));
+		assertEquals(ServiceErrorMessages.MARKS_BUFFER_STOPPED, e.getMessage());
+		assertEquals(0, buffer.flush());
+	}
+
+	@Test
+	void addMark_writeNotAcknowledged_timeout() {
+		CountDownLatch writeBlocked = new CountDownLatch(1);
+		when(studentsService.addMarks(anyMap())).thenAnswer(invocation -> {
+			writeBlocked.await();
+			return List.of();
+		});
+		buffer = startBuffer(10, 1);
+		try {
+			MarksBufferFullException e = assertThrowsExactly(MarksBufferFullException.class,
+					() -> buffer.addMark(ID, mark1, AckMode.WRITTEN));
+			assertEquals(ServiceErrorMessages.MARK_WRITE_TIMEOUT, e.getMessage());
+		} finally {
+			writeBlocked.countDown();
+		}
+	}
+
+	private MarksWriteBuffer startBuffer(int capacity, int batchSize) {
+		MarksWriteBuffer res = new MarksWriteBuffer(studentsService, true, capacity, batchSize, Duration.ofHours(1),
+				OFFER_TIMEOUT, WRITE_TIMEOUT);
+		res.start();
+		return res;
+	}
+}
@@ -0,0 +1,65 @@
+package telran.students.leaderboard;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RankTreeTests {
+	RankTree tree;
+
+	@BeforeEach
+	void setUp() {
+		tree = new RankTree();
+		tree.insert(10, 1);
+		tree.insert(5, 2);
+		tree.insert(10, 0);
+		tree.insert(20, 3);
+	}
+
+	@Test
+	void firstIds_normalFlow_success() {
+		assertArrayEquals(new long[] { 2, 0, 1, 3 }, tree.firstIds(10, Long.MAX_VALUE));
+		assertArrayEquals(new long[] { 2, 0 }, tree.firstIds(2, Long.MAX_VALUE));
+		assertArrayEquals(new long[] { 2, 0, 1 }, tree.firstIds(10, 10));
+		assertEquals(0, tree.firstIds(10, 4).length);
+	}
+
+	@Test
+	void rank_normalFlow_success() {
+		assertEquals(0, tree.rank(5, 2));
+		assertEquals(1, tree.rank(10, 0));
+		assertEquals(2, tree.rank(10, 1));
+		assertEquals(3, tree.rank(20, 3));
+		assertEquals(4, tree.rank(100, 0));
+	}
+
+	@Test
+	void remove_normalFlow_success() {
+		tree.remove(10, 0);
+		tree.remove(100, 100);
+		assertEquals(3, tree.size());
+		assertArrayEquals(new long[] { 2, 1, 3 }, tree.firstIds(10, Long.MAX_VALUE));
+		assertEquals(1, tree.rank(10, 1));
+	}
+
+	@Test
+	void randomOperations_sortedOrder() {
+		RankTree randomTree = new RankTree();
+		Random random = new Random(0);
+		int nElements = 10_000;
+		for (int i = 0; i < nElements; i++) {
+			randomTree.insert(random.nextInt(100), i);
+		}
+		for (int i = 0; i < nElements; i += 2) {
+			randomTree.remove(random.nextInt(100), i);
+		}
+		long[] ids = randomTree.firstIds(nElements, Long.MAX_VALUE);
+		assertEquals(randomTree.size(), ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			assertTrue(i == 0 || ids[i - 1] != ids[i]);
+		}
+	}
+}
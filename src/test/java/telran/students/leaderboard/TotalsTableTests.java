@@ -0,0 +1,51 @@
+package telran.students.leaderboard;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TotalsTableTests {
+	@Test
+	void putFindRemove_normalFlow_success() {
+		TotalsTable table = new TotalsTable();
+		table.put(1, 2, 150);
+		table.put(-5, 0, 0);
+		table.put(1, 3, 240);
+		assertEquals(2, table.size());
+		int slot = table.find(1);
+		assertEquals(3, table.goodMarksCount(slot));
+		assertEquals(240, table.scoreSum(slot));
+		assertTrue(table.remove(-5));
+		assertFalse(table.remove(-5));
+		assertEquals(-1, table.find(-5));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	void randomOperations_sameAsHashMap() {
+		TotalsTable table = new TotalsTable();
+		Map<Long, Long> expected = new HashMap<>();
+		Random random = new Random(322);
+		for (int i = 0; i < 100_000; i++) {
+			long id = random.nextInt(2_000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(id) != null, table.remove(id));
+			} else {
+				table.put(id, (int) id % 10, id * 7);
+				expected.put(id, id * 7);
+			}
+		}
+		assertEquals(expected.size(), table.size());
+		for (long id = 0; id < 2_000; id++) {
+			int slot = table.find(id);
+			assertEquals(expected.containsKey(id), slot >= 0);
+			if (slot >= 0) {
+				assertEquals((long) expected.get(id), table.scoreSum(slot));
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package telran.students.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class ExplainSummaryTests {
+	@Test
+	void of_indexScan_summarized() {
+		Document explain = Document.parse("""
+				{queryPlanner: {winningPlan: {stage: 'PROJECTION_SIMPLE', inputStage: {stage: 'FETCH',
+				inputStage: {stage: 'IXSCAN', indexName: 'marks_date'}}}},
+				executionStats: {nReturned: 4, executionTimeMillis: 1, totalKeysExamined: 5, totalDocsExamined: 4}}""");
+		ExplainSummary summary = ExplainSummary.of(explain);
+		assertEquals(List.of("PROJECTION_SIMPLE", "FETCH", "IXSCAN"), summary.stages());
+		assertEquals(Set.of("marks_date"), summary.indexes());
+		assertTrue(summary.isIndexScan());
+		assertFalse(summary.isCollectionScan());
+		assertEquals(4, summary.docsExamined());
+		assertEquals(5, summary.keysExamined());
+	}
+
+	@Test
+	void of_aggregateCollectionScan_summarized() {
+		Document explain = Document.parse("""
+				{stages: [{$cursor: {queryPlanner: {winningPlan: {stage: 'COLLSCAN'}},
+				executionStats: {nReturned: 7, totalDocsExamined: 7}}}, {$group: {}}]}""");
+		ExplainSummary summary = ExplainSummary.of(explain);
+		assertTrue(summary.isCollectionScan());
+		assertEquals(7, summary.docsExamined());
+		assertEquals(0, summary.keysExamined());
+	}
+
+	@Test
+	void shape_valuesReplaced() {
+		BsonDocument command = BsonDocument.parse("""
+				{find: 'students', filter: {_id: {$in: [1, 2, 3]}, marks: {$elemMatch: {score: {$gt: 80}}}},
+				$db: 'test', lsid: {id: 1}}""");
+		assertEquals(BsonDocument.parse("""
+				{find: 'students', filter: {_id: {$in: ['?']}, marks: {$elemMatch: {score: {$gt: '?'}}}}}"""),
+				MongoCommandMetricsListener.shape(command));
+	}
+}
@@ -0,0 +1,74 @@
+package telran.students.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import telran.students.dto.Student;
+import telran.students.model.StudentDoc;
+
+@SpringBootTest
+class MongoCommandMetricsListenerTests {
+	static final List<Long> IDS = List.of(100001L, 100002L, 100003L);
+	@Autowired
+	MongoTemplate mongoTemplate;
+	@Autowired
+	MeterRegistry meterRegistry;
+	@Autowired
+	MongoCommandMetricsListener listener;
+
+	@AfterEach
+	void tearDown() {
+		mongoTemplate.remove(new Query(Criteria.where("id").in(IDS)), StudentDoc.class);
+	}
+
+	@Test
+	void find_success_timerAndSummariesRecorded() {
+		IDS.forEach(id -> mongoTemplate.insert(new StudentDoc(new Student(id, "059-" + id))));
+		long timerCount = timerCount("find", "students", "success");
+		long requests = summary("mongodb.command.request.bytes", "find", "students").count();
+		double documents = summary("mongodb.command.documents", "find", "students").totalAmount();
+		assertEquals(IDS.size(), mongoTemplate.find(new Query(Criteria.where("id").in(IDS)), StudentDoc.class)
+				.size());
+		assertEquals(timerCount + 1, timerCount("find", "students", "success"));
+		assertEquals(requests + 1, summary("mongodb.command.request.bytes", "find", "students").count());
+		assertEquals(documents + IDS.size(),
+				summary("mongodb.command.documents", "find", "students").totalAmount());
+		assertTrue(summary("mongodb.command.reply.bytes", "find", "students").max() > 0);
+	}
+
+	@Test
+	void invalidCommand_failure_timerRecorded() {
+		long timerCount = timerCount("find", "", "failure");
+		assertThrows(RuntimeException.class, () -> mongoTemplate.executeCommand(new Document("find", 1)));
+		assertEquals(timerCount + 1, timerCount("find", "", "failure"));
+	}
+
+	@Test
+	void slowQueryExplain_default_disabled() {
+		assertFalse(listener.explainSlowQueries);
+	}
+
+	private long timerCount(String command, String collection, String status) {
+		Timer timer = meterRegistry.find("mongodb.command").tags("command", command, "collection", collection,
+				"status", status).timer();
+		return timer == null ? 0 : timer.count();
+	}
+
+	private DistributionSummary summary(String name, String command, String collection) {
+		return DistributionSummary.builder(name).tag("command", command).tag("collection", collection)
+				.register(meterRegistry);
+	}
+}